@@ -0,0 +1,68 @@
+package com.joyent.aes.debugger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The security provider dump in {@link AesJavaChecker}. The extreme case adds
+ * a synthetic provider with tens of thousands of entries on top of the
+ * providers installed in the JVM.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AesJavaCheckerBenchmark {
+    private static final String SYNTHETIC_PROVIDER = "AesDebuggerBenchmark";
+
+    @Param({"0", "20000"})
+    public int syntheticEntries;
+
+    private final AesJavaChecker checker = new AesJavaChecker(Report.discarding());
+
+    @SuppressWarnings("deprecation")
+    @Setup(Level.Trial)
+    public void setup() {
+        if (syntheticEntries == 0) {
+            return;
+        }
+
+        final Provider provider = new Provider(SYNTHETIC_PROVIDER, 1.0, "Synthetic provider") {
+            private static final long serialVersionUID = 1L;
+        };
+
+        for (int i = 0; i < syntheticEntries; i++) {
+            provider.put("Cipher.Synthetic" + i, "com.example.Cipher" + i);
+        }
+
+        Security.addProvider(provider);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Security.removeProvider(SYNTHETIC_PROVIDER);
+    }
+
+    @Benchmark
+    public void providerDump() throws IOException {
+        checker.logSecurityProviders();
+    }
+}
@@ -0,0 +1,96 @@
+package com.joyent.aes.debugger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The /proc/cpuinfo, /proc/crypto and lscpu scanners in {@link AesOsChecker},
+ * including copying the input into the report. The extreme /proc/cpuinfo
+ * and /proc/crypto repeat the captured ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AesOsCheckerBenchmark {
+    @State(Scope.Benchmark)
+    public static class CpuInfoInput {
+        @Param({"cpuinfo-16.txt", "cpuinfo-aarch64.txt", "cpuinfo-ppc64le.txt", "cpuinfo-s390x.txt"})
+        public String fixture;
+
+        @Param({"1", "16"})
+        public int copies;
+
+        String path;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            path = Fixtures.copyToTempFile(fixture, copies).getPath();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ProcCryptoInput {
+        @Param({"1", "25"})
+        public int copies;
+
+        String path;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            path = Fixtures.copyToTempFile("proc-crypto.txt", copies).getPath();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LscpuInput {
+        @Param({"lscpu.txt", "lscpu-extreme.txt"})
+        public String fixture;
+
+        List<String> lines;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            lines = Fixtures.readLines(fixture);
+        }
+    }
+
+    private final AesOsChecker checker = new AesOsChecker(Report.discarding());
+
+    @Benchmark
+    public boolean procCpuInfo(final CpuInfoInput input) throws IOException {
+        return checker.hasSupportAsDetectedByProcCpuInfo(input.path);
+    }
+
+    @Benchmark
+    public boolean procCrypto(final ProcCryptoInput input) throws IOException {
+        return checker.hasSupportAsDetectedByProcCrypto(input.path);
+    }
+
+    @Benchmark
+    public boolean lscpu(final LscpuInput input) throws IOException {
+        boolean aesDetected = false;
+
+        for (String line : input.lines) {
+            aesDetected |= checker.scanLscpuLine(line);
+        }
+
+        return aesDetected;
+    }
+}
@@ -0,0 +1,65 @@
+package com.joyent.aes.debugger;
+
+/**
+ * Generates synthetic /proc/cpuinfo contents modelled on a modern x86 host.
+ */
+final class CpuInfoFixtures {
+    private static final String X86_FLAGS = "fpu vme de pse tsc msr pae mce cx8 apic sep mtrr pge mca "
+            + "cmov pat pse36 clflush mmx fxsr sse sse2 ss ht syscall nx pdpe1gb rdtscp lm "
+            + "constant_tsc rep_good nopl xtopology nonstop_tsc cpuid tsc_known_freq pni "
+            + "pclmulqdq vmx ssse3 fma cx16 pdcm pcid sse4_1 sse4_2 x2apic movbe popcnt "
+            + "tsc_deadline_timer aes xsave avx f16c rdrand hypervisor lahf_lm abm "
+            + "3dnowprefetch cpuid_fault invpcid_single ssbd ibrs ibpb stibp ibrs_enhanced "
+            + "tpr_shadow vnmi flexpriority ept vpid ept_ad fsgsbase tsc_adjust bmi1 avx2 "
+            + "smep bmi2 erms invpcid avx512f avx512dq rdseed adx smap avx512ifma "
+            + "clflushopt clwb avx512cd sha_ni avx512bw avx512vl xsaveopt xsavec xgetbv1 "
+            + "xsaves wbnoinvd arat avx512vbmi umip pku ospke avx512_vbmi2 gfni vaes "
+            + "vpclmulqdq avx512_vnni avx512_bitalg avx512_vpopcntdq rdpid md_clear "
+            + "flush_l1d arch_capabilities";
+
+    private CpuInfoFixtures() {
+    }
+
+    /**
+     * @param cpus number of processor stanzas
+     * @param dropVaesOnOddCores simulate a hybrid or migrated VM where some cores lack vaes
+     */
+    static String x86(final int cpus, final boolean dropVaesOnOddCores) {
+        final StringBuilder builder = new StringBuilder(cpus * 1600);
+
+        for (int i = 0; i < cpus; i++) {
+            String flags = X86_FLAGS;
+            if (dropVaesOnOddCores && i % 2 == 1) {
+                flags = flags.replace(" vaes", "");
+            }
+
+            builder.append("processor\t: ").append(i).append('\n')
+                   .append("vendor_id\t: GenuineIntel\n")
+                   .append("cpu family\t: 6\n")
+                   .append("model\t\t: 106\n")
+                   .append("model name\t: Intel(R) Xeon(R) Platinum 8375C CPU @ 2.90GHz\n")
+                   .append("stepping\t: 6\n")
+                   .append("microcode\t: 0xd0003a5\n")
+                   .append("cpu MHz\t\t: 2899.998\n")
+                   .append("cache size\t: 55296 KB\n")
+                   .append("physical id\t: 0\n")
+                   .append("siblings\t: ").append(cpus).append('\n')
+                   .append("core id\t\t: ").append(i / 2).append('\n')
+                   .append("cpu cores\t: ").append(cpus / 2).append('\n')
+                   .append("apicid\t\t: ").append(i).append('\n')
+                   .append("fpu\t\t: yes\n")
+                   .append("fpu_exception\t: yes\n")
+                   .append("cpuid level\t: 27\n")
+                   .append("wp\t\t: yes\n")
+                   .append("flags\t\t: ").append(flags).append('\n')
+                   .append("bugs\t\t: spectre_v1 spectre_v2 spec_store_bypass swapgs mmio_stale_data\n")
+                   .append("bogomips\t: 5799.99\n")
+                   .append("clflush size\t: 64\n")
+                   .append("cache_alignment\t: 64\n")
+                   .append("address sizes\t: 46 bits physical, 48 bits virtual\n")
+                   .append("power management:\n\n");
+        }
+
+        return builder.toString();
+    }
+}
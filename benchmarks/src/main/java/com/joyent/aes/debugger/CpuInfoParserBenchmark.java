@@ -0,0 +1,87 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the byte-level {@link CpuInfo} parser with the Scanner and
+ * StringUtils.split approach AesOsChecker used before it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CpuInfoParserBenchmark {
+    @Param({"8", "256", "1024"})
+    public int cpus;
+
+    @Param({"false", "true"})
+    public boolean heterogeneous;
+
+    private File fixture;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fixture = File.createTempFile("cpuinfo", ".txt");
+        Files.write(fixture.toPath(),
+                CpuInfoFixtures.x86(cpus, heterogeneous).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.delete();
+    }
+
+    @Benchmark
+    public long byteParser() throws IOException {
+        CpuInfo cpuInfo = CpuInfo.read(fixture.getPath());
+        return cpuInfo.commonFeatures() ^ cpuInfo.coresWith(CpuFeature.AES);
+    }
+
+    @Benchmark
+    public int scannerBaseline() throws IOException {
+        int cpuFlagCountLines = 0;
+        int cpuFlagCountLinesWithAes = 0;
+
+        try (Scanner s = new Scanner(fixture)) {
+            String line;
+            while (s.hasNextLine()) {
+                line = s.nextLine();
+
+                if (line.startsWith("flags")) {
+                    cpuFlagCountLines++;
+                    String flagsLine = StringUtils.substringAfter(line, "\t\t: ");
+                    for (String flag : StringUtils.split(flagsLine, " ")) {
+                        if (flag.equals("aes")) {
+                            cpuFlagCountLinesWithAes++;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        return cpuFlagCountLines ^ cpuFlagCountLinesWithAes;
+    }
+}
@@ -0,0 +1,92 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Access to the checked-in fixture files, which are the main module's test
+ * fixtures under src/test/resources/fixtures. Only realistic captures are
+ * checked in; the extreme inputs repeat them.
+ */
+final class Fixtures {
+    private static final Pattern PROCESSOR = Pattern.compile("(?m)^(processor\\s*:\\s*)\\d+$");
+
+    private Fixtures() {
+    }
+
+    static String read(final String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IOException("No such fixture: " + name);
+            }
+
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    static List<String> readLines(final String name) throws IOException {
+        return IOUtils.readLines(new StringReader(read(name)));
+    }
+
+    /**
+     * The fixture repeated, with the processors of a /proc/cpuinfo numbered
+     * on from one copy to the next.
+     */
+    static String repeat(final String name, final int copies) throws IOException {
+        final String contents = read(name);
+        final StringBuilder repeated = new StringBuilder(contents.length() * copies);
+        int processor = 0;
+
+        for (int i = 0; i < copies; i++) {
+            final Matcher matcher = PROCESSOR.matcher(contents);
+            final StringBuffer copy = new StringBuffer(contents.length());
+
+            while (matcher.find()) {
+                matcher.appendReplacement(copy, "$1" + processor++);
+            }
+            matcher.appendTail(copy);
+
+            repeated.append(copy);
+        }
+
+        return repeated.toString();
+    }
+
+    /**
+     * The checkers read from paths, so fixtures are copied to a temporary file.
+     * Placeholders such as {@code @NSS_CFG@} are substituted on the way.
+     */
+    static File copyToTempFile(final String name) throws IOException {
+        return copyToTempFile(name, 1);
+    }
+
+    static File copyToTempFile(final String name, final int copies) throws IOException {
+        return copyToTempFile(name, copies, Collections.<String, String>emptyMap());
+    }
+
+    static File copyToTempFile(final String name, final int copies, final Map<String, String> replacements)
+            throws IOException {
+        String contents = repeat(name, copies);
+
+        for (Map.Entry<String, String> replacement : replacements.entrySet()) {
+            contents = contents.replace(replacement.getKey(), replacement.getValue());
+        }
+
+        final File file = File.createTempFile("fixture-", "-" + name);
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+}
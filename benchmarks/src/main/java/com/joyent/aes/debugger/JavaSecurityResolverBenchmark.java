@@ -0,0 +1,71 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Resolving this JVM's java.security with {@link JavaSecurityResolver},
+ * cached and uncached, against the Files.find walk of java.home that
+ * LibnssChecker used before it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JavaSecurityResolverBenchmark {
+    private final String javaHome = System.getProperty("java.home");
+    private File cacheDirectory;
+    private Path master;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cacheDirectory = Files.createTempDirectory("java-security-cache").toFile();
+        master = JavaSecurityResolver.resolve(javaHome, null, cacheDirectory).masterFile;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(cacheDirectory);
+    }
+
+    @Benchmark
+    public Object filesFind() throws IOException {
+        try (Stream<Path> paths = Files.find(Paths.get(javaHome), 8,
+                (p, b) -> !b.isDirectory() && p.endsWith("java.security"))) {
+            final Optional<Path> found = paths.findFirst();
+            return found.orElse(null);
+        }
+    }
+
+    @Benchmark
+    public Object resolveUncached() throws IOException {
+        return JavaSecurityResolver.resolve(master, null).providers();
+    }
+
+    @Benchmark
+    public Object resolveCached() throws IOException {
+        return JavaSecurityResolver.resolve(javaHome, null, cacheDirectory).providers();
+    }
+}
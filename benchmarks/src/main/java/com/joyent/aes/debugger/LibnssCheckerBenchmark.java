@@ -0,0 +1,79 @@
+package com.joyent.aes.debugger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The java.security scan, provider line parsing and NSS config parsing in
+ * {@link LibnssChecker}. The NSS configs point at a library directory that
+ * doesn't exist so that the ELF inspection of the libraries is skipped. The
+ * extreme java.security and NSS config repeat the captured ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibnssCheckerBenchmark {
+    @State(Scope.Benchmark)
+    public static class JavaSecurityInput {
+        @Param({"1", "5"})
+        public int copies;
+
+        File file;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            final File nssConfig = Fixtures.copyToTempFile("nss.cfg");
+            file = Fixtures.copyToTempFile("java.security", copies,
+                    Collections.singletonMap("@NSS_CFG@", nssConfig.getPath()));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class NssConfigInput {
+        @Param({"1", "2000"})
+        public int copies;
+
+        String path;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            path = Fixtures.copyToTempFile("nss.cfg", copies).getPath();
+        }
+    }
+
+    private final LibnssChecker checker = new LibnssChecker(Report.discarding(), true, false);
+
+    @Benchmark
+    public boolean javaSecurityScan(final JavaSecurityInput input) throws IOException {
+        return checker.scanJavaSecuritySettings(JavaSecurityResolver.resolve(input.file.toPath(), null));
+    }
+
+    @Benchmark
+    public Object providerLineParse() {
+        return LibnssChecker.ProviderLine.parse(
+                "security.provider.1=sun.security.pkcs11.SunPKCS11 /usr/lib/jvm/java/lib/security/nss.cfg");
+    }
+
+    @Benchmark
+    public Object nssConfigParse(final NssConfigInput input) throws IOException {
+        return LibnssChecker.NSSConfig.parseFromFilePath(input.path);
+    }
+}
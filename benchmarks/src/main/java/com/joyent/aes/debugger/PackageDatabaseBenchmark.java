@@ -0,0 +1,71 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the NSS packages in generated dpkg status databases with
+ * {@link DpkgStatusReader}, and with dpkg itself for comparison. The dpkg
+ * benchmark needs dpkg on the PATH.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PackageDatabaseBenchmark {
+    @Param({"2000", "20000"})
+    public int packages;
+
+    private File adminDirectory;
+    private File status;
+    private DpkgStatusReader reader;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        adminDirectory = Files.createTempDirectory("dpkg-admin").toFile();
+        status = new File(adminDirectory, "status");
+        Files.write(status.toPath(),
+                PackageDatabaseFixtures.dpkgStatus(packages).getBytes(StandardCharsets.UTF_8));
+        reader = new DpkgStatusReader(Arrays.asList(LibnssChecker.NSS_PACKAGES));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(adminDirectory);
+    }
+
+    @Benchmark
+    public Object statusReader() throws IOException {
+        return reader.read(status.toPath());
+    }
+
+    @Benchmark
+    public Object dpkgCommand() throws IOException {
+        final StringWriter out = new StringWriter();
+        ProcessRunner.withDefaultTimeout().run(out, "dpkg", "--admindir=" + adminDirectory.getPath(),
+                "-s", "libnss3", "libnspr4");
+        return out;
+    }
+}
@@ -0,0 +1,53 @@
+package com.joyent.aes.debugger;
+
+/**
+ * Generates synthetic dpkg status databases. The NSS packages are placed
+ * near the end, as they would be in a database sorted by name, so that a
+ * lookup has to scan past nearly every other stanza.
+ */
+final class PackageDatabaseFixtures {
+    private PackageDatabaseFixtures() {
+    }
+
+    /**
+     * @param packages number of stanzas, including the two NSS packages
+     */
+    static String dpkgStatus(final int packages) {
+        final StringBuilder builder = new StringBuilder(packages * 900);
+
+        for (int i = 0; i < packages - 2; i++) {
+            appendStanza(builder, String.format("lib%s%05d", i % 2 == 0 ? "example" : "sample", i),
+                    String.format("1.%d.%d-1", i % 17, i % 5), i % 3 == 0 ? "all" : "amd64");
+
+            if (i == (packages - 2) * 9 / 10) {
+                appendStanza(builder, "libnspr4", "2:4.35-1", "amd64");
+            }
+        }
+
+        appendStanza(builder, "libnss3", "2:3.87.1-1+deb12u1", "amd64");
+
+        return builder.toString();
+    }
+
+    private static void appendStanza(final StringBuilder builder, final String name,
+                                     final String version, final String architecture) {
+        builder.append("Package: ").append(name).append('\n')
+               .append("Status: install ok installed\n")
+               .append("Priority: optional\n")
+               .append("Section: libs\n")
+               .append("Installed-Size: 4114\n")
+               .append("Maintainer: Example Maintainers <maintainers@example.org>\n")
+               .append("Architecture: ").append(architecture).append('\n')
+               .append("Multi-Arch: same\n")
+               .append("Source: ").append(name).append('\n')
+               .append("Version: ").append(version).append('\n')
+               .append("Depends: libc6 (>= 2.34), libsqlite3-0 (>= 3.5.9), libnspr4 (>= 2:4.34)\n")
+               .append("Description: Synthetic package for lookup benchmarks\n")
+               .append(" This stanza stands in for one of the thousands of packages on a\n")
+               .append(" typical server. Its description runs over several continuation\n")
+               .append(" lines, as most real descriptions do.\n")
+               .append(" .\n")
+               .append(" It is never decoded unless its name is one that was asked for.\n")
+               .append("Homepage: https://example.org/").append(name).append("\n\n");
+    }
+}
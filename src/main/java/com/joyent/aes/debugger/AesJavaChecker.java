@@ -4,19 +4,39 @@ import java.io.IOException;
 import java.io.Writer;
 import java.security.Provider;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 public class AesJavaChecker implements Checkable {
+    private final Report report;
     private final Writer out;
+    private final boolean dumpEnvironment;
 
-    public AesJavaChecker(final Writer writer) {
-        this.out = writer;
+    public AesJavaChecker(final Report report) {
+        this(report, true);
+    }
+
+    /**
+     * @param dumpEnvironment whether to write out every system property and
+     *                        environment variable, which the agent skips as a
+     *                        live service's may hold credentials
+     */
+    AesJavaChecker(final Report report, final boolean dumpEnvironment) {
+        this.report = report;
+        this.out = report.text();
+        this.dumpEnvironment = dumpEnvironment;
     }
 
     @Override
     public void check() throws IOException {
-        logJvmSystemProperties();
-        logEnv();
+        if (dumpEnvironment) {
+            logJvmSystemProperties();
+            logEnv();
+        }
+        logJavaRuntime();
         logSecurityProviders();
     }
 
@@ -29,6 +49,23 @@ public class AesJavaChecker implements Checkable {
         out.append("[[End Java System Properties]]\n\n");
     }
 
+    private void logJavaRuntime() throws IOException {
+        final Map<String, String> runtime = new LinkedHashMap<>();
+        for (String key : new String[] { "java.version", "java.vendor", "java.vm.name", "java.home" }) {
+            runtime.put(key, System.getProperty(key));
+        }
+
+        // Otherwise already part of the system properties
+        if (!dumpEnvironment) {
+            out.append("[[Start Java Runtime]]\n");
+            for (Map.Entry<String, String> entry : runtime.entrySet()) {
+                out.append(entry.getKey()).append(" : ").append(entry.getValue()).append("\n");
+            }
+            out.append("[[End Java Runtime]]\n\n");
+        }
+        report.fact("java.runtime", runtime);
+    }
+
     private void logEnv() throws IOException {
         out.append("[[Start Environment]]\n");
         for (String key : System.getenv().keySet()) {
@@ -38,9 +75,17 @@ public class AesJavaChecker implements Checkable {
         out.append("[[End Environment]]\n\n");
     }
 
-    private void logSecurityProviders() throws IOException {
+    void logSecurityProviders() throws IOException {
+        final List<Map<String, Object>> providers = new ArrayList<>();
+
         out.append("[[Security Providers]]\n");
         for (Provider provider : Security.getProviders()) {
+            Map<String, Object> providerFact = new LinkedHashMap<>();
+            providerFact.put("rank", providers.size() + 1);
+            providerFact.put("name", provider.getName());
+            providerFact.put("version", provider.getVersion());
+            providers.add(providerFact);
+
             String name = String.format("%s@%f:\n", provider.getName(),
                     provider.getVersion());
             out.append(name).append("----\n");
@@ -54,5 +99,7 @@ public class AesJavaChecker implements Checkable {
             out.append("\n");
         }
         out.append("[[Security providers Environment]]\n\n");
+
+        report.fact("java.providers", providers);
     }
 }
@@ -5,19 +5,28 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
-import java.util.Scanner;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class AesOsChecker implements Checkable {
+    private final Report report;
     private final Writer out;
+    private final ProcessRunner processRunner = ProcessRunner.withDefaultTimeout();
+    private final CpuArchitecture architecture = CpuArchitecture.current();
 
-    public AesOsChecker(final Writer writer) {
-        this.out = writer;
+    public AesOsChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
     }
 
     @Override
@@ -29,44 +38,26 @@ public class AesOsChecker implements Checkable {
         logFileIfExists("/etc/debian_version");
         logFileIfExists("/etc/issue");
 
-        System.out.printf("AES support shown in /proc/cpuinfo: %b\n",
-                hasSupportAsDetectedByProcCpuInfo());
-        System.out.printf("AES support shown in lscpu: %b\n",
+        report.verdict("cpuinfo.aes", "AES support shown in /proc/cpuinfo",
+                hasSupportAsDetectedByProcCpuInfo(CpuInfo.PROC_CPUINFO));
+        report.verdict("lscpu.aes", "AES support shown in lscpu",
                 hasSupportAsDetectedByLscpu());
-        System.out.printf("AES support shown in /proc/crypto: %b\n",
-                hasSupportAsDetectedByProcCrypto());
+        report.verdict("proc.crypto.aes", "AES support shown in /proc/crypto",
+                hasSupportAsDetectedByProcCrypto(ProcCrypto.PROC_CRYPTO));
         out.append("\n");
     }
 
     private void logUnameOutput() throws IOException {
         out.append("[[Start uname -a output]]\n");
 
-        ProcessBuilder builder = new ProcessBuilder()
-                .command("uname", "-a");
-
-        Process process;
-
         try {
-            process = builder.start();
+            out.append(processRunner.run(out, "uname", "-a").toString());
         } catch (IOException e) {
-            System.out.println("Error running uname");
             out.append("Error running uname:\n");
             out.append(ExceptionUtils.getStackTrace(e));
-            out.append("[[End uname -a output]]\n\n");
-            return;
-        }
-
-        try {
-            if (process.waitFor() > 0) {
-                out.append(String.format("uname exited with code %d\n",
-                        process.exitValue()));
-            }
-        } catch (InterruptedException e) {
-            System.exit(0);
+            report.fact("uname.error", e.toString());
         }
 
-        IOUtils.copy(process.getInputStream(), out, StandardCharsets.UTF_8);
-
         out.append("[[End uname -a output]]\n\n");
     }
 
@@ -75,8 +66,8 @@ public class AesOsChecker implements Checkable {
 
         if (file.exists() && file.canRead()) {
             out.append(String.format("[[Start %s]]\n", filePath));
-            try (Reader in = new FileReader(file)) {
-                IOUtils.copy(in, out);
+            try (Probe probe = Probe.start(Probe.FILE, filePath); Reader in = new FileReader(file)) {
+                probe.bytes(IOUtils.copy(in, out));
             }
             out.append(String.format("[[End %s]]\n\n", filePath));
         }
@@ -85,123 +76,212 @@ public class AesOsChecker implements Checkable {
     private boolean hasSupportAsDetectedByLscpu() throws IOException {
         out.append("[[Start lscpu output]]\n");
 
-        ProcessBuilder builder = new ProcessBuilder().command("lscpu");
-
-        Process process;
+        final boolean[] aesDetected = new boolean[] { false };
 
         try {
-            process = builder.start();
+            ProcessRunner.Result result = processRunner.run(line -> {
+                if (scanLscpuLine(line)) {
+                    aesDetected[0] = true;
+                }
+            }, line -> out.append("[stderr] ").append(line).append("\n"), "lscpu");
+            out.append(result.toString());
         } catch (IOException e) {
-            System.out.println("Error running lscpu");
             out.append("Error running lscpu:\n");
             out.append(ExceptionUtils.getStackTrace(e));
             out.append("[[End lscpu output]]\n\n");
+            report.fact("lscpu.error", e.toString());
             return false;
         }
 
-        try {
-            if (process.waitFor() > 0) {
-                out.append(String.format("lscpu exited with code %d\n",
-                        process.exitValue()));
-            }
-        } catch (InterruptedException e) {
-            System.exit(0);
+        out.append("[[End lscpu output]]\n");
+        if (!architecture.lscpuListsFlags()) {
+            out.append(String.format("lscpu lists no CPU flags on %s\n", architecture.displayName()));
         }
+        out.append(String.format("[[lscpu detected aes: %b]]\n\n", aesDetected[0]));
 
-        boolean aesDetected = false;
-
-        try (Scanner s = new Scanner(process.getInputStream())) {
-            String line;
-            while (s.hasNextLine()) {
-                line = s.nextLine();
-                out.append(line).append("\n");
+        return aesDetected[0];
+    }
 
-                if (line.startsWith("Flags: ")) {
-                    for (String flag : line.split("\\s+")) {
-                        if (flag.equals("aes")) {
-                            aesDetected = true;
-                            break;
-                        }
-                    }
+    /**
+     * Copies a line of lscpu output to the report and returns true if it is
+     * the flags line and lists the AES feature of this architecture.
+     */
+    boolean scanLscpuLine(final String line) throws IOException {
+        out.append(line).append("\n");
+
+        if (line.startsWith("Flags: ")) {
+            for (String flag : line.split("\\s+")) {
+                if (flag.equals(architecture.aesFeature().flag())) {
+                    return true;
                 }
             }
         }
 
-        out.append("[[End lscpu output]]\n");
-        out.append(String.format("[[lscpu detected aes: %b]]\n\n", aesDetected));
-
-        return aesDetected;
+        return false;
     }
 
-    private boolean hasSupportAsDetectedByProcCpuInfo() throws IOException {
-        final String procFilePath = "/proc/cpuinfo";
-        final File procFile = new File(procFilePath);
+    boolean hasSupportAsDetectedByProcCpuInfo(final String procFilePath) throws IOException {
+        final byte[] contents;
 
         out.append("[[Start ").append(procFilePath).append("]]\n");
 
-        int cpuFlagCountLines = 0;
-        int cpuFlagCountLinesWithAes = 0;
-
-        try (Scanner s = new Scanner(procFile)) {
-            String line;
-            while (s.hasNextLine()) {
-                line = s.nextLine();
-                out.append(line).append("\n");
-
-                if (line.startsWith("flags")) {
-                    cpuFlagCountLines++;
-                    String flagsLine = StringUtils.substringAfter(line, "\t\t: ");
-                    for (String flag : StringUtils.split(flagsLine, " ")) {
-                        if (flag.equals("aes")) {
-                            cpuFlagCountLinesWithAes++;
-                            break;
-                        }
+        try (Probe probe = Probe.start(Probe.FILE, procFilePath)) {
+            contents = Files.readAllBytes(Paths.get(procFilePath));
+            probe.bytes(contents.length);
+        } catch (NoSuchFileException e) {
+            logMissingFile("cpuinfo.error", "cpuinfo", procFilePath);
+            return false;
+        }
+
+        out.append(new String(contents, StandardCharsets.UTF_8));
+
+        final CpuInfo cpuInfo = CpuInfo.parse(contents, contents.length);
+        final int cpusWithAes = cpuInfo.coresWith(cpuInfo.architecture().aesFeature());
+
+        out.append("[[End ").append(procFilePath).append("]]\n");
+        out.append(String.format("[[ cpus: %d cpus with aes: %d]]\n", cpuInfo.cores(), cpusWithAes));
+        out.append(String.format("[[ cpu architecture: %s aes feature: %s carry-less multiply feature: %s]]\n\n",
+                cpuInfo.architecture().displayName(), cpuInfo.architecture().aesFeature().flag(),
+                cpuInfo.architecture().clmulFeature().flag()));
+
+        logCpuFeatureSummary(cpuInfo);
+
+        return cpusWithAes > 0 && cpuInfo.cores() == cpusWithAes;
+    }
+
+    private void logMissingFile(final String key, final String data, final String procFilePath)
+            throws IOException {
+        final String message = String.format("Could not find %s data at path: %s", data, procFilePath);
+
+        out.append(message).append("\n");
+        out.append("[[End ").append(procFilePath).append("]]\n\n");
+        report.fact(key, message);
+    }
+
+    private void logCpuFeatureSummary(final CpuInfo cpuInfo) throws IOException {
+        out.append("[[Start cpu feature summary]]\n");
+
+        for (CpuFeature feature : cpuInfo.architecture().features()) {
+            final int coresWith = cpuInfo.coresWith(feature);
+            out.append(String.format("%-12s %d/%d", feature.flag(), coresWith, cpuInfo.cores()));
+
+            // List the processors that lack a feature the others have
+            if (coresWith > 0 && coresWith < cpuInfo.cores()) {
+                out.append(" missing on processors:");
+                for (int core = 0; core < cpuInfo.cores(); core++) {
+                    if ((cpuInfo.features(core) & feature.mask()) == 0) {
+                        out.append(' ').append(Integer.toString(cpuInfo.processorId(core)));
                     }
                 }
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("Could not find cpuinfo data at path: " + procFilePath);
-            return false;
+            out.append("\n");
         }
 
-        out.append("[[End ").append(procFilePath).append("]]\n");
-        out.append(String.format("[[ cpus: %d cpus with aes: %d]]\n\n",
-                cpuFlagCountLines, cpuFlagCountLinesWithAes));
+        out.append("[[End cpu feature summary]]\n");
+        out.append(String.format("[[ heterogeneous cpu features: %b]]\n\n",
+                cpuInfo.isHeterogeneous()));
+
+        final Map<String, Integer> coresWithFeature = new LinkedHashMap<>();
+        for (CpuFeature feature : cpuInfo.architecture().features()) {
+            coresWithFeature.put(feature.flag(), cpuInfo.coresWith(feature));
+        }
+
+        report.fact("cpu.architecture", cpuInfo.architecture().displayName());
+        report.fact("cpu.cores", cpuInfo.cores());
+        report.fact("cpu.features", coresWithFeature);
+        report.fact("cpu.heterogeneous", cpuInfo.isHeterogeneous());
 
-        return cpuFlagCountLinesWithAes > 0 && cpuFlagCountLines == cpuFlagCountLinesWithAes;
+        if (cpuInfo.isHeterogeneous()) {
+            report.verdict("cpu.heterogeneous", "CPU features differ between processors "
+                    + "(see the cpu feature summary)", true);
+        }
     }
 
-    private boolean hasSupportAsDetectedByProcCrypto() throws IOException {
-        final String procFilePath = "/proc/crypto";
-        final File procFile = new File(procFilePath);
+    boolean hasSupportAsDetectedByProcCrypto(final String procFilePath) throws IOException {
+        final String contents;
 
         out.append("[[Start ").append(procFilePath).append("]]\n");
 
+        try (Probe probe = Probe.start(Probe.FILE, procFilePath)) {
+            final byte[] bytes = Files.readAllBytes(Paths.get(procFilePath));
+            probe.bytes(bytes.length);
+            contents = new String(bytes, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            logMissingFile("proc.crypto.error", "crypto", procFilePath);
+            return false;
+        }
+
+        out.append(contents);
+        out.append("[[End ").append(procFilePath).append("]]\n\n");
+
+        final ProcCrypto procCrypto = ProcCrypto.parse(contents);
+        final List<Map<String, Object>> selectedFacts = new ArrayList<>();
+        final List<String> genericWinners = new ArrayList<>();
         boolean hasAesniIntel = false;
-        boolean hasAes86_64 = false;
 
-        try (Scanner s = new Scanner(procFile)) {
-            String line;
-            while (s.hasNextLine()) {
-                line = s.nextLine();
-                out.append(line).append("\n");
+        for (ProcCrypto.Entry entry : procCrypto.entries()) {
+            if ("aesni_intel".equals(entry.module)) {
+                hasAesniIntel = true;
+            }
+        }
 
-                if (line.endsWith(": aesni_intel")) {
-                    hasAesniIntel = true;
-                }
-                if (line.endsWith(": aes_x86_64")) {
-                    hasAes86_64 = true;
+        out.append("[[Start kernel crypto drivers]]\n");
+        out.append(String.format("%-10s %-40s %-14s %8s %-10s %s\n",
+                "algorithm", "selected driver", "module", "priority", "type", "generic"));
+
+        for (String algorithm : ProcCrypto.AES_ALGORITHMS) {
+            final ProcCrypto.Entry selected = procCrypto.selected(algorithm);
+
+            if (selected == null) {
+                out.append(String.format("%-10s not instantiated yet, built from a template on first use\n",
+                        algorithm));
+                continue;
+            }
+
+            final List<String> genericParts = selected.genericParts();
+            out.append(String.format("%-10s %-40s %-14s %8d %-10s %s\n", algorithm, selected.driver,
+                    selected.module, selected.priority, selected.type,
+                    genericParts.isEmpty() ? "no" : StringUtils.join(genericParts, ",")));
+
+            for (ProcCrypto.Entry other : procCrypto.registrations(algorithm)) {
+                if (other != selected) {
+                    out.append(String.format("    also registered: %s (%s, priority %d%s%s)\n",
+                            other.driver, other.module, other.priority,
+                            other.internal ? ", internal" : "",
+                            other.isSelectable() ? "" : ", selftest " + other.selftest));
                 }
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("Could not find crypto data at path: " + procFilePath);
-            return false;
+
+            if (!genericParts.isEmpty()) {
+                genericWinners.add(algorithm + " -> " + selected.driver);
+            }
+
+            final Map<String, Object> fact = new LinkedHashMap<>();
+            fact.put("algorithm", algorithm);
+            fact.put("driver", selected.driver);
+            fact.put("module", selected.module);
+            fact.put("priority", selected.priority);
+            fact.put("type", selected.type);
+            fact.put("selftest", selected.selftest);
+            fact.put("generic", genericParts);
+            selectedFacts.add(fact);
         }
 
-        out.append("[[End ").append(procFilePath).append("]]\n");
-        out.append(String.format("[[ aesni_intel: %b aes_x86_64: %b]]\n\n",
-                hasAesniIntel, hasAes86_64));
+        final ProcCrypto.Entry aes = procCrypto.selected("aes");
+        final boolean accelerated = aes != null && !aes.isGeneric() && genericWinners.isEmpty();
+
+        out.append("[[End kernel crypto drivers]]\n");
+        out.append(String.format("[[ kernel aes driver: %s accelerated: %b]]\n\n",
+                aes == null ? "none" : aes.driver, accelerated));
+
+        report.fact("proc.crypto.aesni_intel", hasAesniIntel);
+        report.fact("proc.crypto.selected", selectedFacts);
+
+        if (!genericWinners.isEmpty()) {
+            report.verdict("proc.crypto.generic", "Kernel selects a generic C implementation for",
+                    String.join(", ", genericWinners));
+        }
 
-        return hasAesniIntel && hasAes86_64;
+        return accelerated;
     }
 }
@@ -0,0 +1,106 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class AesThroughputChecker implements Checkable {
+    private final Report report;
+    private final Writer out;
+    private final CipherBenchmark benchmark;
+
+    public AesThroughputChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
+        this.benchmark = CipherBenchmark.fromSystemProperties();
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        final double cpuHz = CipherBenchmark.nominalCpuHz();
+
+        out.append("[[Start AES throughput benchmark]]\n");
+        if (cpuHz > 0.0) {
+            out.append(String.format("Nominal CPU frequency: %.0f MHz\n", cpuHz / 1_000_000.0));
+        } else {
+            out.append("Nominal CPU frequency: unknown (set -Daes.debugger.cpu.mhz)\n");
+        }
+        out.append(String.format("Key size: %d bits, MB = 1,000,000 bytes\n\n",
+                CipherBenchmark.KEY_SIZE_BYTES * 8));
+        out.append(String.format("%-20s %-20s %10s %-13s %12s %12s %12s\n",
+                "provider", "transformation", "buffer", "phase", "ops", "MB/s", "cycles/byte"));
+
+        CipherBenchmark.Result best = null;
+
+        for (Provider provider : Security.getProviders()) {
+            for (String transformation : CipherBenchmark.TRANSFORMATIONS) {
+                if (!CipherBenchmark.supports(provider, transformation)) {
+                    continue;
+                }
+
+                for (int bufferSize : CipherBenchmark.BUFFER_SIZES) {
+                    CipherBenchmark.Result result;
+
+                    try {
+                        result = benchmark.run(provider, transformation, bufferSize);
+                    } catch (GeneralSecurityException | RuntimeException e) {
+                        out.append(String.format("Error benchmarking %s with %s at %d bytes:\n",
+                                transformation, provider.getName(), bufferSize));
+                        out.append(ExceptionUtils.getStackTrace(e));
+                        continue;
+                    }
+
+                    logPhase(result, "warmup", result.warmup, cpuHz);
+                    logPhase(result, "steady-state", result.steadyState, cpuHz);
+                    report.fact("throughput", toFact(result, cpuHz));
+
+                    if (best == null || result.steadyState.megabytesPerSecond()
+                            > best.steadyState.megabytesPerSecond()) {
+                        best = result;
+                    }
+                }
+            }
+        }
+
+        out.append("[[End AES throughput benchmark]]\n\n");
+
+        if (best == null) {
+            report.verdict("throughput.best", "AES throughput",
+                    "no provider could run an AES benchmark");
+        } else {
+            report.verdict("throughput.best", "Best steady-state AES throughput",
+                    String.format("%.1f MB/s (%s, %s, %d byte buffers)",
+                            best.steadyState.megabytesPerSecond(), best.provider,
+                            best.transformation, best.bufferSize));
+        }
+    }
+
+    static Map<String, Object> toFact(final CipherBenchmark.Result result, final double cpuHz) {
+        final Map<String, Object> fact = new LinkedHashMap<>();
+        fact.put("provider", result.provider);
+        fact.put("transformation", result.transformation);
+        fact.put("bufferSize", result.bufferSize);
+        fact.put("warmupMBps", result.warmup.megabytesPerSecond());
+        fact.put("steadyStateMBps", result.steadyState.megabytesPerSecond());
+        fact.put("steadyStateCyclesPerByte", result.steadyState.cyclesPerByte(cpuHz));
+        return fact;
+    }
+
+    private void logPhase(final CipherBenchmark.Result result, final String phaseName,
+                          final CipherBenchmark.Phase phase, final double cpuHz) throws IOException {
+        out.append(String.format("%-20s %-20s %10d %-13s %12d %12.1f %12.2f\n",
+                result.provider, result.transformation, result.bufferSize, phaseName,
+                phase.operations, phase.megabytesPerSecond(), phase.cyclesPerByte(cpuHz)));
+    }
+}
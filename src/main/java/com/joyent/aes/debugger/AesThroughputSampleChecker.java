@@ -0,0 +1,122 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A short cipher throughput sample that is safe to take inside a live JVM.
+ * Each transformation is measured once, through the provider that
+ * Cipher.getInstance resolves it to, on a single minimum priority thread,
+ * and the checker idles for as long as it worked after every run so that it
+ * never keeps more than half of one core busy.
+ */
+public class AesThroughputSampleChecker implements Checkable {
+    static final String[] TRANSFORMATIONS = new String[] {
+            "AES/GCM/NoPadding",
+            "AES/CTR/NoPadding"
+    };
+
+    static final int BUFFER_SIZE = 16384;
+
+    private final Report report;
+    private final Writer out;
+    private final long sampleMillis;
+
+    /**
+     * @param sampleMillis total time spent encrypting across all transformations
+     */
+    AesThroughputSampleChecker(final Report report, final long sampleMillis) {
+        this.report = report;
+        this.out = report.text();
+        this.sampleMillis = sampleMillis;
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        final long perTransformationMillis = Math.max(4, sampleMillis / TRANSFORMATIONS.length);
+        final CipherBenchmark benchmark = new CipherBenchmark(
+                perTransformationMillis / 4, perTransformationMillis - perTransformationMillis / 4);
+        final double cpuHz = CipherBenchmark.nominalCpuHz();
+        final List<String> summary = new ArrayList<>();
+
+        out.append("[[Start AES throughput sample]]\n");
+        out.append(String.format("%d ms per transformation, %d byte buffers, one thread at 50%% duty cycle\n",
+                perTransformationMillis, BUFFER_SIZE));
+
+        final Thread thread = Thread.currentThread();
+        final int priority = thread.getPriority();
+        thread.setPriority(Thread.MIN_PRIORITY);
+
+        try {
+            for (String transformation : TRANSFORMATIONS) {
+                final CipherBenchmark.Result result;
+                final long start = System.nanoTime();
+
+                try {
+                    final Provider provider = Cipher.getInstance(transformation).getProvider();
+                    result = benchmark.run(provider, transformation, BUFFER_SIZE);
+                } catch (GeneralSecurityException | RuntimeException e) {
+                    out.append(String.format("Error sampling %s:\n", transformation));
+                    out.append(ExceptionUtils.getStackTrace(e));
+                    continue;
+                }
+
+                out.append(String.format("%-20s %-20s %12.1f MB/s %8.2f cycles/byte\n",
+                        result.provider, result.transformation,
+                        result.steadyState.megabytesPerSecond(),
+                        result.steadyState.cyclesPerByte(cpuHz)));
+                report.fact("throughput.sample", AesThroughputChecker.toFact(result, cpuHz));
+                summary.add(String.format("%s %.1f MB/s via %s", transformation,
+                        result.steadyState.megabytesPerSecond(), result.provider));
+
+                idle(System.nanoTime() - start);
+            }
+        } finally {
+            thread.setPriority(priority);
+        }
+
+        out.append("[[End AES throughput sample]]\n\n");
+
+        report.verdict("throughput.sample", "Sampled AES throughput",
+                summary.isEmpty() ? "no transformation could be sampled" : String.join(", ", summary));
+    }
+
+    /**
+     * Runs the sampled transformations long enough for C2 to compile them, so
+     * that short samples taken later in the same JVM measure compiled code.
+     * A long-running caller does this once before its first sample.
+     */
+    static void warmUp(final long perTransformationMillis) {
+        final CipherBenchmark benchmark = new CipherBenchmark(perTransformationMillis, 0L);
+
+        for (String transformation : TRANSFORMATIONS) {
+            try {
+                benchmark.run(Cipher.getInstance(transformation).getProvider(), transformation, BUFFER_SIZE);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                // The sample reports the failure
+            }
+        }
+    }
+
+    private static void idle(final long nanos) throws IOException {
+        try {
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while pacing the throughput sample");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the Java side of the checks inside another JVM, either loaded at
+ * startup with -javaagent or into a running process by {@link AttachLauncher}.
+ * Only what can be learned from inside the JVM is collected: security
+ * providers, HotSpot flags, java.security and a short throughput sample.
+ * The host's system properties and environment are left out, as a
+ * service's often hold credentials.
+ * Nothing is printed to the host process's console and no probe JVM or
+ * package manager is started from it.
+ *
+ * <p>Agent arguments are comma separated key=value pairs: {@code out} (the
+ * report file, required), {@code format} ({@code text} or {@code jsonl}) and
+ * {@code sample.ms} (the cipher sampling budget, 0 to skip sampling).</p>
+ */
+public final class Agent {
+    static final long DEFAULT_SAMPLE_MILLIS = 400L;
+
+    private Agent() {
+    }
+
+    /**
+     * Startup entry point. The checks run in the background so that the host
+     * application's start isn't delayed.
+     */
+    public static void premain(final String agentArgs, final Instrumentation instrumentation) {
+        newAgentThread(parseOptions(agentArgs), null).start();
+    }
+
+    /**
+     * Attach entry point. Blocks until the report is written so that the
+     * attaching process knows when it is complete.
+     */
+    public static void agentmain(final String agentArgs, final Instrumentation instrumentation)
+            throws InterruptedException {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread thread = newAgentThread(parseOptions(agentArgs), failure);
+        thread.start();
+        thread.join();
+
+        // Rethrown so that the attaching process sees the load fail
+        if (failure.get() != null) {
+            rethrow(failure.get());
+        }
+    }
+
+    static Map<String, String> parseOptions(final String agentArgs) {
+        final Map<String, String> options = new LinkedHashMap<>();
+
+        if (agentArgs == null) {
+            return options;
+        }
+
+        for (String option : agentArgs.split(",")) {
+            final int equals = option.indexOf('=');
+
+            if (equals > 0) {
+                options.put(option.substring(0, equals).trim(), option.substring(equals + 1));
+            }
+        }
+
+        return options;
+    }
+
+    /**
+     * @param failure receives what made the checks fail, or null to leave
+     *                failures to the thread's uncaught exception handler
+     */
+    private static Thread newAgentThread(final Map<String, String> options,
+                                         final AtomicReference<Throwable> failure) {
+        final Thread thread = new Thread(() -> {
+            try {
+                run(options);
+            } catch (Throwable e) {
+                // Errors too, such as a LinkageError from a class the target also has,
+                // which would otherwise leave a truncated report behind a successful attach
+                if (failure == null) {
+                    rethrow(e);
+                }
+
+                failure.set(e);
+            }
+        }, "aes-debugger-agent");
+        thread.setDaemon(true);
+
+        return thread;
+    }
+
+    private static void rethrow(final Throwable e) {
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+
+        if (e instanceof IOException) {
+            throw new UncheckedIOException((IOException) e);
+        }
+
+        throw new IllegalStateException(e);
+    }
+
+    static void run(final Map<String, String> options) throws IOException {
+        final String reportPath = options.get("out");
+        final String format = options.getOrDefault("format", "text");
+        final long sampleMillis = Long.parseLong(
+                options.getOrDefault("sample.ms", Long.toString(DEFAULT_SAMPLE_MILLIS)));
+
+        if (reportPath == null || reportPath.isEmpty()) {
+            throw new IllegalArgumentException("Agent option out=<report file> is required");
+        }
+
+        if (!ReportRenderer.isKnownFormat(format)) {
+            throw new IllegalArgumentException("Unknown report format: " + format);
+        }
+
+        try (Writer writer = new FileWriter(reportPath, true);
+             PrintStream console = new PrintStream(NullOutputStream.NULL_OUTPUT_STREAM)) {
+            final ReportRenderer renderer = ReportRenderer.forFormat(format, writer, console);
+
+            ReportRenderer.renderHeader(renderer);
+            renderer.render(ReportRecord.text("Agent", String.format("[[ agent loaded into: %s]]\n\n",
+                    ManagementFactory.getRuntimeMXBean().getName())));
+
+            final CheckRunner runner = new CheckRunner(renderer)
+                    .add(report -> new AesJavaChecker(report, false))
+                    .add(CgroupChecker::new)
+                    .add(report -> new LibnssChecker(report, false, false))
+                    .add(report -> new IntrinsicsChecker(report, false));
+
+            if (sampleMillis > 0) {
+                runner.add(report -> new AesThroughputSampleChecker(report, sampleMillis));
+            }
+
+            runner.run();
+        }
+    }
+}
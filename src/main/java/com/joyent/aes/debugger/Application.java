@@ -1,36 +1,166 @@
 package com.joyent.aes.debugger;
 
+import org.apache.commons.lang3.StringUtils;
+
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Application {
     public static void main(final String[] argv) {
-        if (argv.length < 1) {
+        final List<String> args = new ArrayList<>();
+        String format = "text";
+
+        for (String arg : argv) {
+            if (arg.startsWith("--format=")) {
+                format = arg.substring("--format=".length());
+            } else {
+                args.add(arg);
+            }
+        }
+
+        if (args.size() < 1) {
             System.err.println("Debug output file path must be specified as first argument");
             System.exit(1);
         }
 
-        File debugFile = new File(argv[0]);
+        if (!ReportRenderer.isKnownFormat(format)) {
+            System.err.println("Unknown report format: " + format + " (expected text or jsonl)");
+            System.exit(1);
+        }
 
-        try (Writer writer = new FileWriter(debugFile, true)) {
-            writer.append("======================\n");
-            writer.append("AES-NI Support Checker\n");
-            writer.append("======================\n");
-
-            final Checkable[] checkers = new Checkable[] {
-                    new AesJavaChecker(writer),
-                    new AesOsChecker(writer),
-                    new LibnssChecker(writer)
-            };
-
-            for (Checkable checker : checkers) {
-                checker.check();
+        final Mode mode = Mode.named(args.get(0));
+        // Without a mode name the only argument is the report itself
+        final List<String> arguments = mode == Mode.CHECK ? args : args.subList(1, args.size());
+
+        if (arguments.size() < mode.arguments.length) {
+            System.err.println(mode.usage());
+            System.exit(1);
+        }
+
+        final File debugFile = new File(arguments.get(mode.arguments.length - 1));
+
+        if (mode == Mode.ATTACH) {
+            try {
+                final File reportFile = debugFile.getAbsoluteFile();
+                AttachLauncher.attach(arguments.get(0), reportFile, format);
+                System.out.printf("Report for pid %s appended to %s\n", arguments.get(0), reportFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
             }
+
+            return;
+        }
+
+        if (mode == Mode.MONITOR) {
+            // Appends to the report itself, and only when something changed
+            try {
+                new Monitor(debugFile, format).run();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+
+            return;
+        }
+
+        try (Writer writer = new FileWriter(debugFile, true)) {
+            final ReportRenderer renderer = ReportRenderer.forFormat(format, writer, System.out);
+
+            ReportRenderer.renderHeader(renderer);
+
+            mode.checkers.addTo(new CheckRunner(renderer), arguments).run();
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
         }
     }
+
+    private static CheckRunner addDefaultCheckers(final CheckRunner runner, final List<String> arguments) {
+        return runner
+                .add(AesJavaChecker::new)
+                .add(AesOsChecker::new)
+                .add(CgroupChecker::new)
+                .add(LibnssChecker::new)
+                .add(SecureRandomChecker::new)
+                .add(IntrinsicsChecker::new);
+    }
+
+    private interface Checkers {
+        /**
+         * @param arguments the mode's arguments, ending with the report file
+         */
+        CheckRunner addTo(CheckRunner runner, List<String> arguments);
+    }
+
+    /**
+     * The modes this tool runs in, each with the arguments it expects after
+     * its own name, of which the last is always the report file to append
+     * to, and the checkers it runs. Attach and monitor don't run checkers
+     * here, the first in the target JVM and the second on a schedule.
+     */
+    private enum Mode {
+        CHECK("", Application::addDefaultCheckers, "<debug output file path>"),
+        BENCH("bench", (runner, arguments) -> addDefaultCheckers(runner, arguments)
+                .add(ProviderResolutionChecker::new)
+                .add(NssComparisonChecker::new)
+                .add(AesThroughputChecker::new),
+                "<debug output file path>"),
+        SCALE("scale", (runner, arguments) -> runner
+                .add(AesJavaChecker::new)
+                .add(CgroupChecker::new)
+                .add(CipherScalingChecker::new),
+                "<debug output file path>"),
+        EXPERIMENT("experiment", (runner, arguments) -> runner
+                .add(AesJavaChecker::new)
+                .add(IntrinsicsChecker::new)
+                .add(ExperimentChecker::new),
+                "<debug output file path>"),
+        TLS("tls", (runner, arguments) -> runner
+                .add(AesJavaChecker::new)
+                .add(LibnssChecker::new)
+                .add(TlsLoopbackChecker::new),
+                "<debug output file path>"),
+        PATTERNS("patterns", (runner, arguments) -> runner
+                .add(AesJavaChecker::new)
+                .add(CipherPatternChecker::new),
+                "<debug output file path>"),
+        AGGREGATE("aggregate", (runner, arguments) -> runner
+                .add(report -> new ReportAggregator(report, Paths.get(arguments.get(0)))),
+                "<report directory>", "<rollup output file path>"),
+        DIFF("diff", (runner, arguments) -> runner
+                .add(report -> new ReportDiff(report, Paths.get(arguments.get(0)), Paths.get(arguments.get(1)))),
+                "<before report>", "<after report>", "<diff output file path>"),
+        MONITOR("monitor", null, "<debug output file path>"),
+        ATTACH("attach", null, "<pid>", "<debug output file path>");
+
+        private final String command;
+        private final Checkers checkers;
+        private final String[] arguments;
+
+        Mode(final String command, final Checkers checkers, final String... arguments) {
+            this.command = command;
+            this.checkers = checkers;
+            this.arguments = arguments;
+        }
+
+        static Mode named(final String command) {
+            for (Mode mode : values()) {
+                if (!mode.command.isEmpty() && mode.command.equals(command)) {
+                    return mode;
+                }
+            }
+
+            return CHECK;
+        }
+
+        String usage() {
+            return StringUtils.normalizeSpace("Usage: " + command + " " + StringUtils.join(arguments, " "));
+        }
+    }
 }
@@ -0,0 +1,95 @@
+package com.joyent.aes.debugger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Loads this jar as an {@link Agent} into a running JVM. The attach API is
+ * reached by reflection because it lives in tools.jar on Java 8 and in the
+ * jdk.attach module on later releases, and is missing entirely from a JRE.
+ */
+final class AttachLauncher {
+    private static final String VIRTUAL_MACHINE = "com.sun.tools.attach.VirtualMachine";
+
+    private AttachLauncher() {
+    }
+
+    static void attach(final String pid, final File reportFile, final String format) throws IOException {
+        final File agentJar = agentJar();
+        final long sampleMillis = Long.getLong("aes.debugger.agent.sample.ms", Agent.DEFAULT_SAMPLE_MILLIS);
+
+        if (reportFile.getAbsolutePath().indexOf(',') >= 0) {
+            throw new IOException("Report file path can't contain a comma: " + reportFile);
+        }
+
+        final String options = String.format("out=%s,format=%s,sample.ms=%d",
+                reportFile.getAbsolutePath(), format, sampleMillis);
+
+        final Class<?> virtualMachine = loadVirtualMachineClass();
+
+        try {
+            final Object vm = virtualMachine.getMethod("attach", String.class).invoke(null, pid);
+
+            try {
+                final Method loadAgent = virtualMachine.getMethod("loadAgent", String.class, String.class);
+                loadAgent.invoke(vm, agentJar.getAbsolutePath(), options);
+            } finally {
+                virtualMachine.getMethod("detach").invoke(vm);
+            }
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException(String.format("Couldn't load agent into pid %s: %s", pid, cause), cause);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Attach API is not usable on this JVM", e);
+        }
+    }
+
+    private static File agentJar() throws IOException {
+        final File location;
+
+        try {
+            location = new File(Agent.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | RuntimeException e) {
+            throw new IOException("Couldn't find the jar this class was loaded from", e);
+        }
+
+        if (!location.isFile()) {
+            throw new IOException(String.format(
+                    "attach must be run from the jar-with-dependencies, not from %s", location));
+        }
+
+        return location;
+    }
+
+    private static Class<?> loadVirtualMachineClass() throws IOException {
+        try {
+            return Class.forName(VIRTUAL_MACHINE);
+        } catch (ClassNotFoundException e) {
+            // Java 8 ships the attach API in the JDK's tools.jar
+            final File toolsJar = new File(System.getProperty("java.home"),
+                    ".." + File.separator + "lib" + File.separator + "tools.jar");
+
+            if (!toolsJar.isFile()) {
+                throw new IOException("The attach API is not available; run attach with a JDK, not a JRE", e);
+            }
+
+            try {
+                final ClassLoader loader = new URLClassLoader(new URL[] { toolsJar.toURI().toURL() },
+                        AttachLauncher.class.getClassLoader());
+                return Class.forName(VIRTUAL_MACHINE, true, loader);
+            } catch (ClassNotFoundException ex) {
+                throw new IOException("No attach API found in " + toolsJar, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compares the CPUs and memory the container is actually allowed with what
+ * /proc/cpuinfo shows for the host and what the JVM sized itself for, so
+ * that crypto throughput is planned per effective CPU rather than per host
+ * CPU.
+ */
+public class CgroupChecker implements Checkable {
+    private static final String[] JVM_FLAGS = new String[] {
+            "UseContainerSupport",
+            "ActiveProcessorCount",
+            "MaxRAMPercentage"
+    };
+
+    private final Report report;
+    private final Writer out;
+
+    public CgroupChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
+    }
+
+    @Override
+    public void check() throws IOException {
+        out.append("[[Start cgroup limits]]\n");
+
+        final CgroupLimits limits;
+        try {
+            limits = CgroupLimits.read();
+        } catch (IOException | RuntimeException e) {
+            out.append("Error reading cgroup limits:\n");
+            out.append(ExceptionUtils.getStackTrace(e));
+            out.append("[[End cgroup limits]]\n\n");
+            return;
+        }
+
+        for (Map.Entry<String, String> controller : limits.controllerDirectories.entrySet()) {
+            out.append(String.format("%s controller: %s\n", controller.getKey(), controller.getValue()));
+        }
+        for (String note : limits.notes) {
+            out.append(note).append("\n");
+        }
+
+        out.append(String.format("host cpus: %d\n", limits.hostCpus));
+        out.append(limits.quotaMicros > 0
+                ? String.format("cpu quota: %d/%d us = %.2f cpus (%s)\n", limits.quotaMicros,
+                        limits.periodMicros, limits.quotaCpus(), limits.quotaFile)
+                : "cpu quota: unlimited\n");
+        out.append(String.format("cpu shares/weight: %s\n", Objects.toString(limits.shares, "unknown")));
+        out.append(String.format("cpuset: %s (%d cpus)\n", Objects.toString(limits.cpuset, "unknown"),
+                limits.cpusetCpus));
+        out.append(limits.memoryLimitBytes > 0
+                ? String.format("memory limit: %d MiB (%s)\n", limits.memoryLimitBytes >> 20, limits.memoryFile)
+                : "memory limit: unlimited\n");
+
+        final int effectiveCpus = limits.effectiveCpus();
+        final int availableProcessors = Runtime.getRuntime().availableProcessors();
+        final long maxHeap = Runtime.getRuntime().maxMemory();
+        // UseContainerSupport only exists from 8u191 and 10
+        final Map<String, String> jvmFlags = IntrinsicsChecker.readVmFlags(JVM_FLAGS);
+
+        out.append(String.format("effective cpus: %d\n", effectiveCpus));
+        out.append(String.format("Runtime.availableProcessors(): %d\n", availableProcessors));
+        out.append(String.format("Runtime.maxMemory(): %d MiB\n", maxHeap >> 20));
+        for (Map.Entry<String, String> flag : jvmFlags.entrySet()) {
+            out.append(flag.getKey()).append(" : ")
+               .append(Objects.toString(flag.getValue(), "<not supported>")).append("\n");
+        }
+        out.append("[[End cgroup limits]]\n");
+        out.append(String.format("[[ effective cpus: %d jvm cpus: %d host cpus: %d]]\n\n",
+                effectiveCpus, availableProcessors, limits.hostCpus));
+
+        final Map<String, Object> cgroup = new LinkedHashMap<>();
+        cgroup.put("controllers", limits.controllerDirectories);
+        cgroup.put("hostCpus", limits.hostCpus);
+        cgroup.put("quotaMicros", limits.quotaMicros);
+        cgroup.put("periodMicros", limits.periodMicros);
+        cgroup.put("quotaCpus", limits.quotaCpus());
+        cgroup.put("shares", limits.shares);
+        cgroup.put("cpuset", limits.cpuset);
+        cgroup.put("cpusetCpus", limits.cpusetCpus);
+        cgroup.put("memoryLimitBytes", limits.memoryLimitBytes);
+        cgroup.put("effectiveCpus", effectiveCpus);
+        report.fact("cgroup", cgroup);
+
+        final Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("availableProcessors", availableProcessors);
+        jvm.put("maxMemoryBytes", maxHeap);
+        jvm.putAll(IntrinsicsChecker.typedFlagValues(jvmFlags));
+        report.fact("jvm.container", jvm);
+
+        report.verdict("cgroup.cpus", "Effective CPUs for crypto sizing",
+                String.format("%d of %d host CPUs", effectiveCpus, limits.hostCpus));
+
+        if (availableProcessors != effectiveCpus) {
+            report.verdict("cgroup.jvm.cpus", "JVM availableProcessors differs from the container's "
+                    + "effective CPUs", String.format("%d vs %d%s", availableProcessors, effectiveCpus,
+                    StringUtils.startsWith(jvmFlags.get("ActiveProcessorCount"), "-1")
+                            ? "" : " (ActiveProcessorCount is set)"));
+        }
+    }
+}
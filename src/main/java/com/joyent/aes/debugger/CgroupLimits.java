@@ -0,0 +1,337 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The CPU and memory limits of the cgroup this process runs in, read the way
+ * the JVM's container support reads them: the cgroup of each controller
+ * from /proc/self/cgroup, its mount from /proc/self/mountinfo, a v1
+ * hierarchy where the controller has one and the v2 unified hierarchy
+ * otherwise. Unlike JDK 8 and 11, limits set on parent cgroups are honoured
+ * by walking up to the mount point and keeping the tightest one.
+ */
+final class CgroupLimits {
+    static final long UNLIMITED = -1L;
+
+    // v1 reports "no limit" as the largest page aligned long
+    private static final long V1_UNLIMITED_MEMORY = 1L << 60;
+
+    private final Path root;
+    private final Map<String, String> v1Paths = new LinkedHashMap<>();
+    private final Map<String, Mount> v1Mounts = new LinkedHashMap<>();
+    private String v2Path;
+    private Mount v2Mount;
+
+    final List<String> notes = new ArrayList<>();
+    final Map<String, String> controllerDirectories = new LinkedHashMap<>();
+
+    long quotaMicros = UNLIMITED;
+    long periodMicros = UNLIMITED;
+    String quotaFile;
+    String shares;
+    String cpuset;
+    int cpusetCpus = -1;
+    long memoryLimitBytes = UNLIMITED;
+    String memoryFile;
+    int hostCpus;
+
+    private CgroupLimits(final Path root) {
+        this.root = root;
+    }
+
+    static CgroupLimits read() throws IOException {
+        return read(Paths.get("/"));
+    }
+
+    /**
+     * @param root the directory /proc and /sys are resolved against, so that a
+     *             copy of another host's files can be read
+     */
+    static CgroupLimits read(final Path root) throws IOException {
+        final CgroupLimits limits = new CgroupLimits(root);
+
+        limits.parseProcSelfCgroup(readFile(root.resolve("proc/self/cgroup")));
+        limits.parseMountInfo(readFile(root.resolve("proc/self/mountinfo")));
+        limits.readCpu();
+        limits.readCpuset();
+        limits.readMemory();
+        limits.readHostCpus();
+
+        return limits;
+    }
+
+    /**
+     * The processors a parallel workload should use: the CPU quota rounded
+     * up, as the JVM does, capped by the cpuset and the host.
+     */
+    int effectiveCpus() {
+        int cpus = hostCpus > 0 ? hostCpus : Runtime.getRuntime().availableProcessors();
+
+        if (cpusetCpus > 0) {
+            cpus = Math.min(cpus, cpusetCpus);
+        }
+        if (quotaMicros > 0 && periodMicros > 0) {
+            cpus = Math.min(cpus, (int) Math.ceil((double) quotaMicros / periodMicros));
+        }
+
+        return Math.max(1, cpus);
+    }
+
+    double quotaCpus() {
+        return quotaMicros > 0 && periodMicros > 0 ? (double) quotaMicros / periodMicros : UNLIMITED;
+    }
+
+    /**
+     * The parallelism benchmarks should run at, falling back to what the JVM
+     * reports when the cgroup files can't be read.
+     */
+    static int effectiveParallelism() {
+        try {
+            return read().effectiveCpus();
+        } catch (IOException | RuntimeException e) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    private void parseProcSelfCgroup(final String contents) {
+        // hierarchy-id:controller,controller:path, with "0::path" for v2
+        for (String line : StringUtils.split(contents, '\n')) {
+            final String[] fields = line.split(":", 3);
+            if (fields.length < 3) {
+                continue;
+            }
+
+            if (fields[0].equals("0") && fields[1].isEmpty()) {
+                v2Path = fields[2];
+                continue;
+            }
+
+            for (String controller : StringUtils.split(fields[1], ',')) {
+                v1Paths.put(controller, fields[2]);
+            }
+        }
+    }
+
+    private void parseMountInfo(final String contents) {
+        // id parent major:minor root mountpoint options [optional...] - fstype source superoptions
+        for (String line : StringUtils.split(contents, '\n')) {
+            final String[] fields = StringUtils.split(line, ' ');
+            final int separator = indexOf(fields, "-");
+            if (separator < 5 || separator + 3 >= fields.length) {
+                continue;
+            }
+
+            final Mount mount = new Mount(fields[3], fields[4]);
+            final String fsType = fields[separator + 1];
+
+            if (fsType.equals("cgroup2")) {
+                v2Mount = mount;
+            } else if (fsType.equals("cgroup")) {
+                for (String option : StringUtils.split(fields[separator + 3], ',')) {
+                    if (v1Paths.containsKey(option)) {
+                        v1Mounts.put(option, mount);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The directory of the controller's cgroup, or null if the controller
+     * isn't mounted.
+     */
+    private Path directory(final String controller) {
+        final Mount v1Mount = v1Mounts.get(controller);
+
+        if (v1Mount != null) {
+            final Path directory = v1Mount.resolve(root, v1Paths.get(controller));
+            controllerDirectories.put(controller, "v1 " + directory);
+            return directory;
+        }
+
+        if (v2Mount != null && v2Path != null) {
+            final Path directory = v2Mount.resolve(root, v2Path);
+            controllerDirectories.put(controller, "v2 " + directory);
+            return directory;
+        }
+
+        controllerDirectories.put(controller, "not mounted");
+        return null;
+    }
+
+    private boolean isV1(final String controller) {
+        return v1Mounts.containsKey(controller);
+    }
+
+    private void readCpu() throws IOException {
+        final Path leaf = directory("cpu");
+
+        for (Path dir = leaf; isWithinMount(dir, "cpu"); dir = dir.getParent()) {
+            long quota;
+            long period;
+
+            if (isV1("cpu")) {
+                quota = NumberUtils.toLong(readValue(dir.resolve("cpu.cfs_quota_us")), UNLIMITED);
+                period = NumberUtils.toLong(readValue(dir.resolve("cpu.cfs_period_us")), UNLIMITED);
+                if (dir.equals(leaf)) {
+                    shares = readValue(dir.resolve("cpu.shares"));
+                }
+            } else {
+                // "max 100000" or "200000 100000"
+                final String[] max = StringUtils.split(StringUtils.defaultString(
+                        readValue(dir.resolve("cpu.max"))), ' ');
+                quota = max.length == 2 ? NumberUtils.toLong(max[0], UNLIMITED) : UNLIMITED;
+                period = max.length == 2 ? NumberUtils.toLong(max[1], UNLIMITED) : UNLIMITED;
+                if (dir.equals(leaf)) {
+                    shares = readValue(dir.resolve("cpu.weight"));
+                }
+            }
+
+            if (quota > 0 && period > 0 && (quotaMicros <= 0
+                    || (double) quota / period < (double) quotaMicros / periodMicros)) {
+                quotaMicros = quota;
+                periodMicros = period;
+                quotaFile = dir.toString();
+            }
+        }
+    }
+
+    private void readCpuset() throws IOException {
+        final Path dir = directory("cpuset");
+        if (dir == null) {
+            return;
+        }
+
+        // The effective set already accounts for the parents
+        final String[] candidates = isV1("cpuset")
+                ? new String[] { "cpuset.effective_cpus", "cpuset.cpus" }
+                : new String[] { "cpuset.cpus.effective", "cpuset.cpus" };
+
+        for (String candidate : candidates) {
+            final String value = readValue(dir.resolve(candidate));
+            if (StringUtils.isNotBlank(value)) {
+                cpuset = value;
+                cpusetCpus = countCpuList(value);
+                return;
+            }
+        }
+    }
+
+    private void readMemory() throws IOException {
+        final Path leaf = directory("memory");
+
+        for (Path dir = leaf; isWithinMount(dir, "memory"); dir = dir.getParent()) {
+            final String value = readValue(dir.resolve(isV1("memory") ? "memory.limit_in_bytes" : "memory.max"));
+            final long limit = NumberUtils.toLong(value, UNLIMITED);
+
+            if (limit > 0 && limit < V1_UNLIMITED_MEMORY
+                    && (memoryLimitBytes == UNLIMITED || limit < memoryLimitBytes)) {
+                memoryLimitBytes = limit;
+                memoryFile = dir.toString();
+            }
+        }
+    }
+
+    private void readHostCpus() throws IOException {
+        final String online = readValue(root.resolve("sys/devices/system/cpu/online"));
+
+        if (StringUtils.isNotBlank(online)) {
+            hostCpus = countCpuList(online);
+        } else {
+            notes.add("sys/devices/system/cpu/online is not readable, using /proc/cpuinfo");
+            final String cpuinfo = readFile(root.resolve("proc/cpuinfo"));
+            final byte[] bytes = cpuinfo.getBytes(StandardCharsets.US_ASCII);
+            hostCpus = CpuInfo.parse(bytes, bytes.length).cores();
+        }
+    }
+
+    private boolean isWithinMount(final Path dir, final String controller) {
+        if (dir == null) {
+            return false;
+        }
+
+        final Mount mount = isV1(controller) ? v1Mounts.get(controller) : v2Mount;
+        return mount != null && dir.startsWith(root.resolve(StringUtils.removeStart(mount.mountPoint, "/")));
+    }
+
+    /**
+     * Counts the processors in a kernel CPU list such as "0-3,8,10-11".
+     */
+    static int countCpuList(final String list) {
+        int count = 0;
+
+        for (String range : StringUtils.split(list.trim(), ',')) {
+            final int dash = range.indexOf('-');
+
+            if (dash < 0) {
+                count++;
+            } else {
+                count += NumberUtils.toInt(range.substring(dash + 1)) - NumberUtils.toInt(range.substring(0, dash)) + 1;
+            }
+        }
+
+        return count;
+    }
+
+    private static int indexOf(final String[] fields, final String value) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(value)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static String readValue(final Path file) throws IOException {
+        final String contents = readFile(file);
+        return contents.isEmpty() ? null : contents.trim();
+    }
+
+    private static String readFile(final Path file) throws IOException {
+        try (Probe probe = Probe.start(Probe.FILE, file.toString())) {
+            final byte[] bytes = Files.readAllBytes(file);
+            probe.bytes(bytes.length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return "";
+        }
+    }
+
+    private static final class Mount {
+        final String root;
+        final String mountPoint;
+
+        Mount(final String root, final String mountPoint) {
+            this.root = root;
+            this.mountPoint = mountPoint;
+        }
+
+        /**
+         * Maps a cgroup path onto this mount; inside a container the mount's
+         * root is usually the container's own cgroup.
+         */
+        Path resolve(final Path fileSystemRoot, final String cgroupPath) {
+            String relative = cgroupPath;
+
+            if (!root.equals("/")) {
+                relative = cgroupPath.startsWith(root) ? cgroupPath.substring(root.length()) : "";
+            }
+
+            return fileSystemRoot.resolve(StringUtils.removeStart(mountPoint, "/"))
+                    .resolve(StringUtils.removeStart(relative, "/"));
+        }
+    }
+}
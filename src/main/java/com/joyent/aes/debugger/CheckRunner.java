@@ -0,0 +1,242 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Runs checkers concurrently, each recording into its own section, and
+ * passes the sections to the renderer in the order the checkers were added
+ * so that the report is identical to a serial run. The section at the head
+ * of the queue is streamed to the renderer as it is produced.
+ */
+class CheckRunner {
+    // Individual probes listed in the text summary; the structured formats get all of them
+    private static final int SLOWEST_PROBES = 15;
+
+    private final List<Function<Report, Checkable>> factories = new ArrayList<>();
+    private final ReportRenderer renderer;
+
+    CheckRunner(final ReportRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    CheckRunner add(final Function<Report, Checkable> factory) {
+        factories.add(factory);
+        return this;
+    }
+
+    void run() throws IOException {
+        final List<Section> sections = new ArrayList<>(factories.size());
+        final List<Future<?>> futures = new ArrayList<>(factories.size());
+
+        for (Function<Report, Checkable> factory : factories) {
+            sections.add(new Section(factory));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, sections.size()), runnable -> {
+                    Thread thread = new Thread(runnable, "checker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        try {
+            for (Section section : sections) {
+                if (section.checker.isExclusive()) {
+                    futures.add(null);
+                } else {
+                    futures.add(executor.submit(() -> {
+                        section.check();
+                        return null;
+                    }));
+                }
+            }
+
+            for (int i = 0; i < sections.size(); i++) {
+                final Section section = sections.get(i);
+                section.goLive();
+
+                try {
+                    if (section.checker.isExclusive()) {
+                        awaitAll(futures);
+                        section.check();
+                    } else {
+                        await(futures.get(i));
+                    }
+                } finally {
+                    section.finish();
+                    renderer.flush();
+                }
+            }
+
+            renderTimings();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Summarises the probes recorded during the run: totals per checker and
+     * kind of work, then the slowest probes. Every probe is also a timing
+     * record for the structured formats.
+     */
+    private void renderTimings() throws IOException {
+        final List<Probe.Totals> probes = Probe.drain();
+        if (probes.isEmpty()) {
+            return;
+        }
+
+        final Report report = new Report("Timings", record -> {
+            synchronized (renderer) {
+                renderer.render(record);
+            }
+        });
+        final Writer out = report.text();
+        final Map<String, Probe.Totals> byKind = new LinkedHashMap<>();
+
+        for (Probe.Totals probe : probes) {
+            byKind.computeIfAbsent(probe.checker + " " + probe.kind,
+                    key -> new Probe.Totals(probe.checker, probe.kind, null)).merge(probe);
+        }
+
+        out.append("[[Start timings]]\n");
+        out.append(String.format("%-28s %-10s %7s %10s %10s %12s\n",
+                "checker", "kind", "count", "wall ms", "cpu ms", "bytes"));
+        for (Probe.Totals totals : byKind.values()) {
+            out.append(String.format("%-28s %-10s %7d %10.1f %10s %12d\n", totals.checker, totals.kind,
+                    totals.count, totals.wallNanos / 1e6, cpuMillis(totals), totals.bytes));
+        }
+
+        out.append(String.format("\nslowest %d probes\n", Math.min(SLOWEST_PROBES, probes.size())));
+        for (Probe.Totals probe : probes.subList(0, Math.min(SLOWEST_PROBES, probes.size()))) {
+            out.append(String.format("%-28s %-10s %7d %10.1f %10s %12d %s\n", probe.checker, probe.kind,
+                    probe.count, probe.wallNanos / 1e6, cpuMillis(probe), probe.bytes,
+                    StringUtils.abbreviateMiddle(probe.name, "...", 80)));
+        }
+        out.append("[[End timings]]\n\n");
+
+        for (Probe.Totals probe : probes) {
+            final Map<String, Object> timing = new LinkedHashMap<>();
+            timing.put("checker", probe.checker);
+            timing.put("kind", probe.kind);
+            timing.put("name", probe.name);
+            timing.put("count", probe.count);
+            timing.put("wallNanos", probe.wallNanos);
+            timing.put("cpuNanos", probe.cpuNanos < 0 ? null : probe.cpuNanos);
+            timing.put("bytes", probe.bytes);
+            report.timing("probe", timing);
+        }
+
+        report.finish();
+        renderer.flush();
+    }
+
+    private static String cpuMillis(final Probe.Totals totals) {
+        return totals.cpuNanos < 0 ? "n/a" : String.format("%.1f", totals.cpuNanos / 1e6);
+    }
+
+    private class Section implements Report.Sink {
+        private final Report report;
+        private final Checkable checker;
+        private final List<ReportRecord> pending = new ArrayList<>();
+        private boolean live = false;
+        private long elapsedNanos;
+
+        Section(final Function<Report, Checkable> factory) {
+            this.report = new Report("", this);
+            this.checker = factory.apply(report);
+            report.setChecker(checker.getClass().getSimpleName());
+        }
+
+        void check() throws IOException {
+            final long start = System.nanoTime();
+            Probe.attribute(report.checker());
+
+            final Probe probe = Probe.start(Probe.CHECKER, report.checker());
+            try {
+                checker.check();
+            } finally {
+                probe.close();
+                elapsedNanos = System.nanoTime() - start;
+                Probe.attribute(null);
+            }
+        }
+
+        @Override
+        public synchronized void accept(final ReportRecord record) throws IOException {
+            if (live) {
+                synchronized (renderer) {
+                    renderer.render(record);
+                }
+            } else {
+                pending.add(record);
+            }
+        }
+
+        synchronized void goLive() throws IOException {
+            synchronized (renderer) {
+                for (ReportRecord record : pending) {
+                    renderer.render(record);
+                }
+            }
+
+            pending.clear();
+            live = true;
+        }
+
+        void finish() throws IOException {
+            report.finish();
+            report.timing("elapsed.ms", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+    }
+
+    private static void awaitAll(final List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            if (future == null) {
+                continue;
+            }
+
+            // Failures are reported when the checker's own section is merged
+            try {
+                await(future);
+            } catch (IOException | RuntimeException e) {
+                continue;
+            }
+        }
+    }
+
+    private static void await(final Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for checker", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+}
@@ -4,4 +4,12 @@ import java.io.IOException;
 
 public interface Checkable {
     void check() throws IOException;
+
+    /**
+     * Checkers that measure performance return true so that they are run on
+     * their own rather than alongside the other checkers.
+     */
+    default boolean isExclusive() {
+        return false;
+    }
 }
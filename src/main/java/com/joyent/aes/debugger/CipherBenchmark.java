@@ -0,0 +1,250 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a single AES transformation through a single provider for a fixed
+ * amount of time and reports the warmup and steady-state phases separately.
+ */
+class CipherBenchmark {
+    static final String[] TRANSFORMATIONS = new String[] {
+            "AES/GCM/NoPadding",
+            "AES/CTR/NoPadding",
+            "AES/CBC/NoPadding"
+    };
+
+    static final int[] BUFFER_SIZES = new int[] { 64, 1024, 16384, 1048576 };
+
+    static final int KEY_SIZE_BYTES = 16;
+
+    private static final int GCM_TAG_BITS = 128;
+    private static final int IV_SIZE_BYTES = 16;
+    private static final int GCM_IV_SIZE_BYTES = 12;
+
+    private final long warmupNanos;
+    private final long measureNanos;
+
+    // Written to so that the JIT can't discard the cipher output
+    private volatile int sink;
+
+    CipherBenchmark(final long warmupMillis, final long measureMillis) {
+        this.warmupNanos = TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        this.measureNanos = TimeUnit.MILLISECONDS.toNanos(measureMillis);
+    }
+
+    static CipherBenchmark fromSystemProperties() {
+        return new CipherBenchmark(
+                Long.getLong("aes.debugger.bench.warmup.ms", 300L),
+                Long.getLong("aes.debugger.bench.measure.ms", 700L));
+    }
+
+    static boolean supports(final Provider provider, final String transformation) {
+        try {
+            Cipher.getInstance(transformation, provider);
+            return true;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            return false;
+        } catch (RuntimeException e) {
+            // A PKCS#11 token can fail with a ProviderException instead
+            return false;
+        }
+    }
+
+    Result run(final Provider provider, final String transformation,
+               final int bufferSize) throws GeneralSecurityException {
+        final Workload workload = new Workload(provider, transformation, bufferSize);
+
+        final String name = String.format("%s %s %d", provider.getName(), transformation, bufferSize);
+        final Phase warmup = probedRun(workload, warmupNanos, name + " warmup");
+        final Phase steadyState = probedRun(workload, measureNanos, name + " steady state");
+
+        return new Result(provider.getName(), transformation, bufferSize, warmup, steadyState);
+    }
+
+    private static Phase probedRun(final Workload workload, final long durationNanos,
+                                   final String name) throws GeneralSecurityException {
+        try (Probe probe = Probe.start(Probe.BENCHMARK, name)) {
+            final Phase phase = workload.runFor(durationNanos);
+            probe.bytes(phase.bytes);
+            return phase;
+        }
+    }
+
+    /**
+     * A zeroed IV of the size the transformation's mode expects, or null for
+     * ECB, which takes none.
+     */
+    static byte[] newIv(final String transformation) {
+        if (transformation.contains("/ECB/")) {
+            return null;
+        }
+
+        return new byte[transformation.contains("/GCM/") ? GCM_IV_SIZE_BYTES : IV_SIZE_BYTES];
+    }
+
+    static void initEncrypt(final Cipher cipher, final SecretKey key, final String transformation,
+                            final byte[] iv) throws GeneralSecurityException {
+        if (iv == null) {
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+            return;
+        }
+
+        final AlgorithmParameterSpec params = transformation.contains("/GCM/")
+                ? new GCMParameterSpec(GCM_TAG_BITS, iv)
+                : new IvParameterSpec(iv);
+
+        cipher.init(Cipher.ENCRYPT_MODE, key, params);
+    }
+
+    /**
+     * Steps a big-endian counter IV, so that GCM never sees the same key and
+     * IV twice.
+     */
+    static void nextIv(final byte[] iv) {
+        for (int i = iv.length - 1; i >= 0; i--) {
+            if (++iv[i] != 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Nominal CPU frequency used to convert throughput into cycles per byte.
+     * This is the frequency reported by the kernel, so turbo and power
+     * management make it an approximation rather than a measured cycle count.
+     */
+    static double nominalCpuHz() {
+        // A malformed or non-positive override falls back to /proc/cpuinfo
+        final double overrideMhz = NumberUtils.toDouble(System.getProperty("aes.debugger.cpu.mhz"), 0.0);
+
+        if (overrideMhz > 0.0) {
+            return overrideMhz * 1_000_000.0;
+        }
+
+        try {
+            return CpuInfo.read().maxMhz() * 1_000_000.0;
+        } catch (IOException e) {
+            return 0.0;
+        }
+    }
+
+    private class Workload {
+        private final Cipher cipher;
+        private final SecretKey key;
+        private final String transformation;
+        private final boolean gcm;
+        private final byte[] iv;
+        private final byte[] input;
+        private final byte[] output;
+        private final int batchSize;
+
+        Workload(final Provider provider, final String transformation,
+                 final int bufferSize) throws GeneralSecurityException {
+            final Random random = new Random(bufferSize);
+            final byte[] keyBytes = new byte[KEY_SIZE_BYTES];
+            random.nextBytes(keyBytes);
+
+            this.cipher = Cipher.getInstance(transformation, provider);
+            this.key = new SecretKeySpec(keyBytes, "AES");
+            this.transformation = transformation;
+            this.gcm = transformation.contains("/GCM/");
+            this.iv = newIv(transformation);
+            this.input = new byte[bufferSize];
+            random.nextBytes(input);
+
+            init();
+            this.output = new byte[cipher.getOutputSize(bufferSize)];
+            // Check the clock roughly every 64KiB of work
+            this.batchSize = Math.max(1, 65536 / bufferSize);
+        }
+
+        private void init() throws GeneralSecurityException {
+            initEncrypt(cipher, key, transformation, iv);
+        }
+
+        Phase runFor(final long durationNanos) throws GeneralSecurityException {
+            long operations = 0;
+            int acc = 0;
+            final long start = System.nanoTime();
+            final long deadline = start + durationNanos;
+            long now;
+
+            do {
+                for (int i = 0; i < batchSize; i++) {
+                    // GCM refuses to encrypt twice with the same key and IV
+                    if (gcm) {
+                        nextIv(iv);
+                        init();
+                    }
+                    cipher.doFinal(input, 0, input.length, output, 0);
+                    acc += output[0];
+                }
+                operations += batchSize;
+                now = System.nanoTime();
+            } while (now < deadline);
+
+            sink = acc;
+
+            return new Phase(operations, operations * input.length, now - start);
+        }
+    }
+
+    static class Result {
+        final String provider;
+        final String transformation;
+        final int bufferSize;
+        final Phase warmup;
+        final Phase steadyState;
+
+        Result(final String provider, final String transformation, final int bufferSize,
+               final Phase warmup, final Phase steadyState) {
+            this.provider = provider;
+            this.transformation = transformation;
+            this.bufferSize = bufferSize;
+            this.warmup = warmup;
+            this.steadyState = steadyState;
+        }
+    }
+
+    static class Phase {
+        final long operations;
+        final long bytes;
+        final long nanos;
+
+        Phase(final long operations, final long bytes, final long nanos) {
+            this.operations = operations;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        double megabytesPerSecond() {
+            if (nanos == 0) {
+                return 0.0;
+            }
+
+            return (bytes / 1_000_000.0) / (nanos / 1_000_000_000.0);
+        }
+
+        double cyclesPerByte(final double cpuHz) {
+            if (bytes == 0 || cpuHz <= 0.0) {
+                return Double.NaN;
+            }
+
+            return cpuHz * (nanos / 1_000_000_000.0) / bytes;
+        }
+    }
+}
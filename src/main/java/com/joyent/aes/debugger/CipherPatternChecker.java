@@ -0,0 +1,422 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AES through the ways services call the JCE: byte arrays, heap
+ * ByteBuffers or direct ByteBuffers, with a Cipher created for every message
+ * or taken from a thread-local pool and re-initialised. The buffer type
+ * decides whether a provider works in place, copies to or from the Java heap,
+ * or, for SunPKCS11, hands NSS native memory directly, and creating a Cipher
+ * costs a provider lookup and, for SunPKCS11, a session. Throughput and the
+ * bytes allocated per message are reported for every provider, and the
+ * fastest pattern recommended, preferring the one that allocates least when
+ * several are about as fast.
+ */
+public class CipherPatternChecker implements Checkable {
+    static final String[] TRANSFORMATIONS = new String[] {
+            "AES/GCM/NoPadding",
+            "AES/CTR/NoPadding"
+    };
+
+    static final int[] BUFFER_SIZES = new int[] { 1024, 16384 };
+
+    static final String BYTE_ARRAY = "byte[]";
+    static final String HEAP = "heap ByteBuffer";
+    static final String DIRECT = "direct ByteBuffer";
+    static final String[] BUFFER_TYPES = new String[] { BYTE_ARRAY, HEAP, DIRECT };
+
+    static final String PER_MESSAGE = "new per message";
+    static final String POOLED = "thread-local pool";
+    static final String[] LIFECYCLES = new String[] { PER_MESSAGE, POOLED };
+
+    // Patterns within this share of the fastest count as equally fast
+    static final double NEAR_FASTEST = 0.95;
+
+    private final Report report;
+    private final Writer out;
+    private final long warmupNanos;
+    private final long measureNanos;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    // Written to so that the JIT can't discard the cipher output
+    private volatile int sink;
+
+    public CipherPatternChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
+        this.warmupNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("aes.debugger.patterns.warmup.ms", 200L));
+        this.measureNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("aes.debugger.patterns.measure.ms", 500L));
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        final List<String> recommendations = new ArrayList<>();
+        final Map<String, Sample> fastestPerTransformation = new LinkedHashMap<>();
+
+        out.append("[[Start cipher usage patterns]]\n");
+        final boolean allocationMeasured = enableAllocationMeasurement();
+        final List<Provider> providers = providers();
+        out.append(String.format("allocation measured: %s, MB = 1,000,000 bytes\n\n",
+                allocationMeasured ? "yes" : "no (needs HotSpot thread allocation accounting)"));
+        out.append(String.format("%-20s %-18s %7s %-18s %-18s %10s %10s %12s\n", "provider",
+                "transformation", "buffer", "buffer type", "lifecycle", "MB/s", "B/message", "alloc MB/s"));
+
+        for (Provider provider : providers) {
+            for (String transformation : TRANSFORMATIONS) {
+                if (!CipherBenchmark.supports(provider, transformation)) {
+                    continue;
+                }
+
+                for (int bufferSize : BUFFER_SIZES) {
+                    final List<Sample> samples = new ArrayList<>();
+
+                    for (String bufferType : BUFFER_TYPES) {
+                        for (String lifecycle : LIFECYCLES) {
+                            final Sample sample = measure(provider, transformation, bufferSize, bufferType,
+                                    lifecycle);
+                            if (sample != null) {
+                                samples.add(sample);
+                            }
+                        }
+                    }
+
+                    final Sample best = recommend(samples);
+                    if (best == null) {
+                        continue;
+                    }
+
+                    final Map<String, Object> fact = best.toFact();
+                    fact.put("fastestMBps", fastest(samples).megabytesPerSecond);
+                    report.fact("patterns.best", fact);
+
+                    // The largest buffers, where the pattern rather than per-call overhead dominates
+                    if (bufferSize == BUFFER_SIZES[BUFFER_SIZES.length - 1]) {
+                        recommendations.add(String.format("%s %s: %s", provider.getName(), transformation,
+                                best.pattern()));
+
+                        final Sample fastest = fastestPerTransformation.get(transformation);
+                        if (fastest == null || best.megabytesPerSecond > fastest.megabytesPerSecond) {
+                            fastestPerTransformation.put(transformation, best);
+                        }
+                    }
+                }
+            }
+        }
+
+        out.append("\n");
+        for (String recommendation : recommendations) {
+            out.append(String.format("recommended for %s\n", recommendation));
+        }
+        out.append("[[End cipher usage patterns]]\n\n");
+
+        final List<String> summary = new ArrayList<>();
+        for (Map.Entry<String, Sample> fastest : fastestPerTransformation.entrySet()) {
+            summary.add(String.format("%s: %s with %s (%.1f MB/s, %d B/message)", fastest.getKey(),
+                    fastest.getValue().provider, fastest.getValue().pattern(),
+                    fastest.getValue().megabytesPerSecond, fastest.getValue().bytesPerMessage));
+        }
+
+        report.verdict("patterns", "Fastest Cipher usage pattern for " + BUFFER_SIZES[BUFFER_SIZES.length - 1]
+                        + " byte messages",
+                summary.isEmpty() ? "no provider could be measured" : String.join(", ", summary));
+    }
+
+    /**
+     * The installed providers and, if none of them is SunPKCS11 with AES, one
+     * loaded from a generated config for the system libnss3, as SunPKCS11 is
+     * where the buffer type matters most.
+     */
+    private List<Provider> providers() throws IOException {
+        final List<Provider> providers = new ArrayList<>();
+        boolean pkcs11 = false;
+
+        for (Provider provider : Security.getProviders()) {
+            providers.add(provider);
+            pkcs11 |= provider.getName().startsWith(Pkcs11ProviderLoader.PROVIDER_NAME)
+                    && CipherBenchmark.supports(provider, TRANSFORMATIONS[0]);
+        }
+
+        if (!pkcs11) {
+            try {
+                final String config = Pkcs11ProviderLoader.generateNssConfig();
+                if (config != null) {
+                    final Provider nss = Pkcs11ProviderLoader.load(config, null);
+                    out.append(String.format("No NSS provider is installed, loaded %s from %s\n",
+                            nss.getName(), config));
+                    providers.add(nss);
+                }
+            } catch (GeneralSecurityException | RuntimeException e) {
+                out.append(String.format("Error loading NSS, only installed providers measured: %s\n", e));
+            }
+        }
+
+        return providers;
+    }
+
+    private Sample measure(final Provider provider, final String transformation, final int bufferSize,
+                           final String bufferType, final String lifecycle) throws IOException {
+        final String name = String.format("%s %s %d %s %s", provider.getName(), transformation, bufferSize,
+                bufferType, lifecycle);
+
+        try (Probe probe = Probe.start(Probe.BENCHMARK, name)) {
+            final Workload workload = new Workload(provider, transformation, bufferSize, bufferType, lifecycle);
+
+            workload.runFor(warmupNanos);
+
+            final long allocatedBefore = allocatedBytes();
+            final long[] run = workload.runFor(measureNanos);
+            final long allocated = allocatedBefore < 0 ? -1L : allocatedBytes() - allocatedBefore;
+            probe.bytes(run[0] * bufferSize);
+
+            final Sample sample = new Sample(provider.getName(), transformation, bufferSize, bufferType,
+                    lifecycle, run[0], run[1], allocated);
+
+            out.append(String.format("%-20s %-18s %7d %-18s %-18s %10.1f %10s %12s\n", sample.provider,
+                    transformation, bufferSize, bufferType, lifecycle, sample.megabytesPerSecond,
+                    allocated < 0 ? "-" : Long.toString(sample.bytesPerMessage),
+                    allocated < 0 ? "-" : String.format("%.1f", sample.allocatedMegabytesPerSecond)));
+            report.fact("patterns", sample.toFact());
+
+            return sample;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            out.append(String.format("Error measuring %s:\n", name));
+            out.append(ExceptionUtils.getStackTrace(e));
+            return null;
+        }
+    }
+
+    /**
+     * The fastest sample, unless another within {@link #NEAR_FASTEST} of it
+     * allocates less.
+     */
+    static Sample recommend(final List<Sample> samples) {
+        final Sample fastest = fastest(samples);
+        if (fastest == null) {
+            return null;
+        }
+
+        Sample best = fastest;
+        for (Sample sample : samples) {
+            if (sample.megabytesPerSecond >= fastest.megabytesPerSecond * NEAR_FASTEST
+                    && sample.bytesPerMessage >= 0 && sample.bytesPerMessage < best.bytesPerMessage) {
+                best = sample;
+            }
+        }
+
+        return best;
+    }
+
+    private static Sample fastest(final List<Sample> samples) {
+        Sample fastest = null;
+
+        for (Sample sample : samples) {
+            if (fastest == null || sample.megabytesPerSecond > fastest.megabytesPerSecond) {
+                fastest = sample;
+            }
+        }
+
+        return fastest;
+    }
+
+    private boolean enableAllocationMeasurement() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+
+        final com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        try {
+            if (hotspot.isThreadAllocatedMemorySupported() && !hotspot.isThreadAllocatedMemoryEnabled()) {
+                hotspot.setThreadAllocatedMemoryEnabled(true);
+            }
+            return hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled();
+        } catch (UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, or -1 if the JVM doesn't
+     * count them.
+     */
+    private long allocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1L;
+        }
+
+        try {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        } catch (UnsupportedOperationException e) {
+            return -1L;
+        }
+    }
+
+    private class Workload {
+        private final Provider provider;
+        private final String transformation;
+        private final boolean perMessage;
+        private final SecretKey key;
+        private final byte[] iv;
+        private final ThreadLocal<Cipher> pool;
+
+        private final byte[] inputArray;
+        private final byte[] outputArray;
+        private final ByteBuffer inputBuffer;
+        private final ByteBuffer outputBuffer;
+        private final int batchSize;
+
+        Workload(final Provider provider, final String transformation, final int bufferSize,
+                 final String bufferType, final String lifecycle) throws GeneralSecurityException {
+            final Random random = new Random(bufferSize);
+            final byte[] keyBytes = new byte[CipherBenchmark.KEY_SIZE_BYTES];
+            random.nextBytes(keyBytes);
+
+            this.provider = provider;
+            this.transformation = transformation;
+            this.perMessage = lifecycle.equals(PER_MESSAGE);
+            this.key = new SecretKeySpec(keyBytes, "AES");
+            this.iv = CipherBenchmark.newIv(transformation);
+            this.pool = new ThreadLocal<>();
+
+            final Cipher cipher = Cipher.getInstance(transformation, provider);
+            CipherBenchmark.initEncrypt(cipher, key, transformation, iv);
+            final int outputSize = cipher.getOutputSize(bufferSize);
+
+            this.inputArray = new byte[bufferSize];
+            random.nextBytes(inputArray);
+            this.outputArray = new byte[outputSize];
+
+            if (bufferType.equals(BYTE_ARRAY)) {
+                this.inputBuffer = null;
+                this.outputBuffer = null;
+            } else if (bufferType.equals(HEAP)) {
+                this.inputBuffer = ByteBuffer.wrap(inputArray.clone());
+                this.outputBuffer = ByteBuffer.allocate(outputSize);
+            } else {
+                this.inputBuffer = ByteBuffer.allocateDirect(bufferSize);
+                this.inputBuffer.put(inputArray).flip();
+                this.outputBuffer = ByteBuffer.allocateDirect(outputSize);
+            }
+
+            // Check the clock roughly every 64KiB of work
+            this.batchSize = Math.max(1, 65536 / bufferSize);
+        }
+
+        private Cipher cipher() throws GeneralSecurityException {
+            if (perMessage) {
+                return Cipher.getInstance(transformation, provider);
+            }
+
+            Cipher cipher = pool.get();
+            if (cipher == null) {
+                cipher = Cipher.getInstance(transformation, provider);
+                pool.set(cipher);
+            }
+            return cipher;
+        }
+
+        /**
+         * @return the messages encrypted and the nanoseconds taken
+         */
+        long[] runFor(final long durationNanos) throws GeneralSecurityException {
+            long messages = 0;
+            int acc = 0;
+            final long start = System.nanoTime();
+            final long deadline = start + durationNanos;
+            long now;
+
+            do {
+                for (int i = 0; i < batchSize; i++) {
+                    // Every message gets an IV of its own, as GCM requires
+                    final Cipher cipher = cipher();
+                    CipherBenchmark.nextIv(iv);
+                    CipherBenchmark.initEncrypt(cipher, key, transformation, iv);
+
+                    if (inputBuffer == null) {
+                        cipher.doFinal(inputArray, 0, inputArray.length, outputArray, 0);
+                        acc += outputArray[0];
+                    } else {
+                        inputBuffer.rewind();
+                        outputBuffer.clear();
+                        cipher.doFinal(inputBuffer, outputBuffer);
+                        acc += outputBuffer.get(0);
+                    }
+                }
+                messages += batchSize;
+                now = System.nanoTime();
+            } while (now < deadline);
+
+            sink = acc;
+
+            return new long[] { messages, now - start };
+        }
+    }
+
+    static class Sample {
+        final String provider;
+        final String transformation;
+        final int bufferSize;
+        final String bufferType;
+        final String lifecycle;
+        final double megabytesPerSecond;
+        // -1 when the JVM doesn't count allocations
+        final long bytesPerMessage;
+        final double allocatedMegabytesPerSecond;
+
+        Sample(final String provider, final String transformation, final int bufferSize, final String bufferType,
+               final String lifecycle, final long messages, final long nanos, final long allocated) {
+            this.provider = provider;
+            this.transformation = transformation;
+            this.bufferSize = bufferSize;
+            this.bufferType = bufferType;
+            this.lifecycle = lifecycle;
+            this.megabytesPerSecond = nanos == 0 ? 0.0 : (messages * (double) bufferSize / 1_000_000.0)
+                    / (nanos / 1_000_000_000.0);
+            this.bytesPerMessage = allocated < 0 || messages == 0 ? -1L : allocated / messages;
+            this.allocatedMegabytesPerSecond = allocated < 0 || nanos == 0 ? Double.NaN
+                    : (allocated / 1_000_000.0) / (nanos / 1_000_000_000.0);
+        }
+
+        String pattern() {
+            return bufferType + ", " + lifecycle;
+        }
+
+        Map<String, Object> toFact() {
+            final Map<String, Object> fact = new LinkedHashMap<>();
+            fact.put("provider", provider);
+            fact.put("transformation", transformation);
+            fact.put("bufferSize", bufferSize);
+            fact.put("bufferType", bufferType);
+            fact.put("lifecycle", lifecycle);
+            fact.put("MBps", megabytesPerSecond);
+            fact.put("bytesPerMessage", bytesPerMessage < 0 ? null : bytesPerMessage);
+            fact.put("allocatedMBps", Double.isNaN(allocatedMegabytesPerSecond) ? null
+                    : allocatedMegabytesPerSecond);
+            return fact;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the AES workloads on 1..N threads at once, each with its own cipher
+ * as a connection would have, and reports how aggregate throughput scales.
+ * N defaults to twice the container's effective CPUs, so the curve shows
+ * both where a provider stops scaling on the CPUs it has and what
+ * oversubscription costs. Virtual threads are used as well as platform
+ * threads when the JVM has them. For platform threads the time each thread
+ * spent blocked or waiting while encrypting is also reported, which is
+ * where lock contention, such as SunPKCS11's session pool, shows up.
+ */
+public class CipherScalingChecker implements Checkable {
+    static final String[] TRANSFORMATIONS = new String[] {
+            "AES/GCM/NoPadding",
+            "AES/CTR/NoPadding"
+    };
+
+    static final int[] BUFFER_SIZES = new int[] { 1024, 16384 };
+
+    static final String PLATFORM = "platform";
+    static final String VIRTUAL = "virtual";
+
+    // Below this share of linear scaling the threads are getting in each other's way
+    static final double CONTENDED_EFFICIENCY = 0.75;
+
+    private final Report report;
+    private final Writer out;
+    private final CipherBenchmark benchmark;
+    // Read in check() so that the cgroup reads are attributed to this checker
+    private int effectiveCpus;
+    private int maxThreads;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public CipherScalingChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
+        this.benchmark = new CipherBenchmark(
+                Long.getLong("aes.debugger.scale.warmup.ms", 100L),
+                Long.getLong("aes.debugger.scale.measure.ms", 200L));
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        effectiveCpus = CgroupLimits.effectiveParallelism();
+        maxThreads = Math.max(1, Integer.getInteger("aes.debugger.scale.max.threads", effectiveCpus * 2));
+
+        final List<Integer> threadCounts = threadCounts(effectiveCpus, maxThreads);
+        final List<String> kinds = new ArrayList<>();
+        final List<String> summary = new ArrayList<>();
+
+        final ExecutorService virtualThreads = newVirtualThreadExecutor();
+        kinds.add(PLATFORM);
+        if (virtualThreads != null) {
+            virtualThreads.shutdown();
+            kinds.add(VIRTUAL);
+        }
+
+        // Contention monitoring slows every lock and wait in the JVM, so it is only on while measuring
+        final boolean contentionMonitoring = threads.isThreadContentionMonitoringSupported()
+                && threads.isThreadContentionMonitoringEnabled();
+        if (threads.isThreadContentionMonitoringSupported()) {
+            threads.setThreadContentionMonitoringEnabled(true);
+        }
+
+        out.append("[[Start AES scaling]]\n");
+        out.append(String.format("effective cpus: %d threads: %s thread kinds: %s\n\n",
+                effectiveCpus, threadCounts, String.join(", ", kinds)));
+        out.append(String.format("%-20s %-18s %7s %-8s %7s %10s %12s %10s %8s\n", "provider", "transformation",
+                "buffer", "kind", "threads", "MB/s", "MB/s/thread", "efficiency", "blocked"));
+
+        try {
+            for (Provider provider : Security.getProviders()) {
+                for (String transformation : TRANSFORMATIONS) {
+                    if (!CipherBenchmark.supports(provider, transformation)) {
+                        continue;
+                    }
+
+                    for (int bufferSize : BUFFER_SIZES) {
+                        for (String kind : kinds) {
+                            final String outcome = scale(provider, transformation, bufferSize, kind, threadCounts);
+                            if (outcome != null && bufferSize == BUFFER_SIZES[BUFFER_SIZES.length - 1]
+                                    && kind.equals(PLATFORM)) {
+                                summary.add(String.format("%s %s %s", provider.getName(), transformation, outcome));
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (!contentionMonitoring && threads.isThreadContentionMonitoringSupported()) {
+                threads.setThreadContentionMonitoringEnabled(false);
+            }
+        }
+
+        out.append("[[End AES scaling]]\n\n");
+
+        report.verdict("scaling", "AES scaling on platform threads",
+                summary.isEmpty() ? "no provider could be measured" : String.join(", ", summary));
+    }
+
+    /**
+     * Powers of two up to the effective CPUs, the effective CPUs themselves,
+     * then on up to the maximum.
+     */
+    static List<Integer> threadCounts(final int effectiveCpus, final int maxThreads) {
+        final TreeSet<Integer> counts = new TreeSet<>();
+
+        for (int count = 1; count <= maxThreads; count *= 2) {
+            counts.add(count);
+        }
+        if (effectiveCpus <= maxThreads) {
+            counts.add(effectiveCpus);
+        }
+        counts.add(maxThreads);
+
+        return new ArrayList<>(counts);
+    }
+
+    /**
+     * @return where the series peaked and where it became contended, or null
+     * if it couldn't be run
+     */
+    private String scale(final Provider provider, final String transformation, final int bufferSize,
+                         final String kind, final List<Integer> threadCounts) throws IOException {
+        double singleThread = 0.0;
+        double peak = 0.0;
+        int peakThreads = 0;
+        int contendedFrom = -1;
+
+        for (int count : threadCounts) {
+            final Sample sample;
+
+            try {
+                // A discarded single threaded pass, so the first row isn't measuring the JIT
+                if (count == threadCounts.get(0)) {
+                    run(provider, transformation, bufferSize, kind, 1);
+                }
+                sample = run(provider, transformation, bufferSize, kind, count);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                out.append(String.format("Error running %s with %s on %d %s threads:\n", transformation,
+                        provider.getName(), count, kind));
+                out.append(ExceptionUtils.getStackTrace(e));
+                return null;
+            }
+
+            if (count == 1) {
+                singleThread = sample.megabytesPerSecond;
+            }
+
+            final double efficiency = singleThread > 0.0
+                    ? sample.megabytesPerSecond / (singleThread * count) : Double.NaN;
+
+            if (sample.megabytesPerSecond > peak) {
+                peak = sample.megabytesPerSecond;
+                peakThreads = count;
+            }
+            if (contendedFrom < 0 && count <= effectiveCpus && efficiency < CONTENDED_EFFICIENCY) {
+                contendedFrom = count;
+            }
+
+            out.append(String.format("%-20s %-18s %7d %-8s %7d %10.1f %12.1f %10.2f %8s\n", provider.getName(),
+                    transformation, bufferSize, kind, count, sample.megabytesPerSecond,
+                    sample.megabytesPerSecond / count, efficiency,
+                    Double.isNaN(sample.blockedShare) ? "n/a"
+                            : String.format("%.1f%%", sample.blockedShare * 100.0)));
+
+            final Map<String, Object> fact = new LinkedHashMap<>();
+            fact.put("provider", provider.getName());
+            fact.put("transformation", transformation);
+            fact.put("bufferSize", bufferSize);
+            fact.put("kind", kind);
+            fact.put("threads", count);
+            fact.put("MBps", sample.megabytesPerSecond);
+            fact.put("efficiency", efficiency);
+            fact.put("blockedShare", Double.isNaN(sample.blockedShare) ? null : sample.blockedShare);
+            report.fact("scaling", fact);
+        }
+
+        final String outcome = String.format("peaks at %d threads (%.1f MB/s)%s", peakThreads, peak,
+                contendedFrom < 0 ? "" : String.format(", below %.0f%% efficiency from %d threads",
+                        CONTENDED_EFFICIENCY * 100.0, contendedFrom));
+
+        out.append(String.format("%s %s %d byte buffers on %s threads %s\n\n", provider.getName(),
+                transformation, bufferSize, kind, outcome));
+
+        final Map<String, Object> fact = new LinkedHashMap<>();
+        fact.put("provider", provider.getName());
+        fact.put("transformation", transformation);
+        fact.put("bufferSize", bufferSize);
+        fact.put("kind", kind);
+        fact.put("peakThreads", peakThreads);
+        fact.put("peakMBps", peak);
+        fact.put("contendedFromThreads", contendedFrom < 0 ? null : contendedFrom);
+        report.fact("scaling.summary", fact);
+
+        return outcome;
+    }
+
+    private Sample run(final Provider provider, final String transformation, final int bufferSize,
+                       final String kind, final int count) throws GeneralSecurityException, IOException {
+        final ExecutorService executor = kind.equals(VIRTUAL)
+                ? newVirtualThreadExecutor() : Executors.newFixedThreadPool(count);
+        final CyclicBarrier start = new CyclicBarrier(count);
+        final List<Future<double[]>> futures = new ArrayList<>(count);
+
+        try {
+            for (int i = 0; i < count; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+
+                    final long blockedBefore = blockedMillis();
+                    final CipherBenchmark.Result result = benchmark.run(provider, transformation, bufferSize);
+                    final long blockedAfter = blockedMillis();
+
+                    final double blockedShare = blockedBefore < 0 || blockedAfter < 0 ? Double.NaN
+                            : (blockedAfter - blockedBefore) / (double) TimeUnit.NANOSECONDS.toMillis(
+                                    result.warmup.nanos + result.steadyState.nanos);
+
+                    return new double[] { result.steadyState.megabytesPerSecond(), blockedShare };
+                }));
+            }
+
+            double megabytesPerSecond = 0.0;
+            double blockedShare = 0.0;
+
+            for (Future<double[]> future : futures) {
+                final double[] threadResult = future.get();
+                megabytesPerSecond += threadResult[0];
+                blockedShare += threadResult[1] / count;
+            }
+
+            return new Sample(megabytesPerSecond, blockedShare);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running the scaling benchmark", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Time the current thread has spent blocked on monitors or waiting on
+     * locks, or -1 if the JVM doesn't track it for this thread, as it doesn't
+     * for virtual threads.
+     */
+    private long blockedMillis() {
+        if (!threads.isThreadContentionMonitoringEnabled()) {
+            return -1L;
+        }
+
+        final ThreadInfo info = threads.getThreadInfo(Thread.currentThread().getId());
+        if (info == null || info.getBlockedTime() < 0) {
+            return -1L;
+        }
+
+        return info.getBlockedTime() + info.getWaitedTime();
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() on Java 21 and later, by
+     * reflection as this is built for Java 8, or null.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static class Sample {
+        final double megabytesPerSecond;
+        final double blockedShare;
+
+        Sample(final double megabytesPerSecond, final double blockedShare) {
+            this.megabytesPerSecond = megabytesPerSecond;
+            this.blockedShare = blockedShare;
+        }
+    }
+}
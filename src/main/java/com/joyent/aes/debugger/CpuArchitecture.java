@@ -0,0 +1,94 @@
+package com.joyent.aes.debugger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The architectures HotSpot has AES intrinsics for, with the CPU features
+ * that back them. UseAESIntrinsics and UseGHASHIntrinsics have the same
+ * names everywhere, but the instructions they need differ: AES-NI and
+ * PCLMULQDQ on x86, the ARMv8 crypto extension's AES and PMULL on aarch64,
+ * vcipher and vpmsumd (POWER8 and later) on ppc64, and the CPACF message
+ * security assist on s390x, which does both AES and GHASH.
+ */
+enum CpuArchitecture {
+    X86_64(CpuFeature.AES, CpuFeature.PCLMULQDQ, true,
+            CpuFeature.AES, CpuFeature.PCLMULQDQ, CpuFeature.SSSE3, CpuFeature.SSE4_1,
+            CpuFeature.SSE4_2, CpuFeature.AVX, CpuFeature.AVX2, CpuFeature.BMI2, CpuFeature.ADX,
+            CpuFeature.VAES, CpuFeature.VPCLMULQDQ, CpuFeature.AVX512F, CpuFeature.AVX512BW,
+            CpuFeature.AVX512VL, CpuFeature.SHA_NI, CpuFeature.HYPERVISOR),
+    AARCH64(CpuFeature.AES, CpuFeature.PMULL, true,
+            CpuFeature.AES, CpuFeature.PMULL, CpuFeature.ASIMD, CpuFeature.SHA2,
+            CpuFeature.SHA512, CpuFeature.SHA3),
+    PPC64(CpuFeature.VCRYPTO, CpuFeature.VCRYPTO, false,
+            CpuFeature.VCRYPTO),
+    S390X(CpuFeature.MSA, CpuFeature.MSA, true,
+            CpuFeature.MSA, CpuFeature.VX);
+
+    private final CpuFeature aesFeature;
+    private final CpuFeature clmulFeature;
+    private final boolean lscpuListsFlags;
+    private final List<CpuFeature> features;
+
+    CpuArchitecture(final CpuFeature aesFeature, final CpuFeature clmulFeature,
+                    final boolean lscpuListsFlags, final CpuFeature... features) {
+        this.aesFeature = aesFeature;
+        this.clmulFeature = clmulFeature;
+        this.lscpuListsFlags = lscpuListsFlags;
+        this.features = Collections.unmodifiableList(Arrays.asList(features));
+    }
+
+    /**
+     * The architecture of this JVM, assuming x86 for anything unrecognised.
+     */
+    static CpuArchitecture current() {
+        return fromOsArch(System.getProperty("os.arch", ""));
+    }
+
+    static CpuArchitecture fromOsArch(final String osArch) {
+        final String arch = osArch.toLowerCase(Locale.ROOT);
+
+        if (arch.equals("aarch64") || arch.equals("arm64")) {
+            return AARCH64;
+        }
+        if (arch.startsWith("ppc64")) {
+            return PPC64;
+        }
+        if (arch.equals("s390x")) {
+            return S390X;
+        }
+
+        return X86_64;
+    }
+
+    /**
+     * The feature that AESCrypt's block intrinsic needs.
+     */
+    CpuFeature aesFeature() {
+        return aesFeature;
+    }
+
+    /**
+     * The feature that the GHASH intrinsic needs for AES/GCM.
+     */
+    CpuFeature clmulFeature() {
+        return clmulFeature;
+    }
+
+    /**
+     * Whether lscpu prints a Flags line; it has none on ppc64.
+     */
+    boolean lscpuListsFlags() {
+        return lscpuListsFlags;
+    }
+
+    List<CpuFeature> features() {
+        return features;
+    }
+
+    String displayName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
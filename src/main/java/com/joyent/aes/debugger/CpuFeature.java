@@ -0,0 +1,84 @@
+package com.joyent.aes.debugger;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CPU features relevant to AES, GCM and the other crypto intrinsics, keyed
+ * by the flag name the kernel uses in /proc/cpuinfo. The ordinal is the bit
+ * position used in {@link CpuInfo} feature masks. aes is shared by x86 and
+ * aarch64; the rest belong to one architecture, see {@link CpuArchitecture}.
+ */
+enum CpuFeature {
+    AES("aes"),
+    // x86
+    PCLMULQDQ("pclmulqdq"),
+    SSSE3("ssse3"),
+    SSE4_1("sse4_1"),
+    SSE4_2("sse4_2"),
+    AVX("avx"),
+    AVX2("avx2"),
+    BMI2("bmi2"),
+    ADX("adx"),
+    VAES("vaes"),
+    VPCLMULQDQ("vpclmulqdq"),
+    AVX512F("avx512f"),
+    AVX512BW("avx512bw"),
+    AVX512VL("avx512vl"),
+    SHA_NI("sha_ni"),
+    HYPERVISOR("hypervisor"),
+    // aarch64
+    ASIMD("asimd"),
+    PMULL("pmull"),
+    SHA2("sha2"),
+    SHA512("sha512"),
+    SHA3("sha3"),
+    // ppc64, derived from the POWER generation as /proc/cpuinfo lists no flags
+    VCRYPTO("vcrypto"),
+    // s390x, the message security assist (CPACF) and vector facility
+    MSA("msa"),
+    VX("vx");
+
+    private final String flag;
+    private final byte[] flagBytes;
+
+    CpuFeature(final String flag) {
+        this.flag = flag;
+        this.flagBytes = flag.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    String flag() {
+        return flag;
+    }
+
+    long mask() {
+        return 1L << ordinal();
+    }
+
+    /**
+     * Returns the feature whose flag equals the given byte range, or null.
+     */
+    static CpuFeature match(final byte[] buf, final int start, final int end) {
+        final int length = end - start;
+
+        for (CpuFeature feature : VALUES) {
+            final byte[] candidate = feature.flagBytes;
+
+            if (candidate.length != length || candidate[0] != buf[start]) {
+                continue;
+            }
+
+            int i = 1;
+            while (i < length && candidate[i] == buf[start + i]) {
+                i++;
+            }
+
+            if (i == length) {
+                return feature;
+            }
+        }
+
+        return null;
+    }
+
+    private static final CpuFeature[] VALUES = values();
+}
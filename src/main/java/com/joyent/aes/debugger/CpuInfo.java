@@ -0,0 +1,348 @@
+package com.joyent.aes.debugger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Per-processor CPU features parsed from /proc/cpuinfo. The parser works on
+ * the raw bytes of the file and keeps one bitset per processor, so it does
+ * not allocate a String per flag even on hosts with hundreds of vCPUs.
+ */
+final class CpuInfo {
+    static final String PROC_CPUINFO = "/proc/cpuinfo";
+
+    private static final byte[] PROCESSOR_KEY = "processor".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FLAGS_KEY = "flags".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AARCH64_FEATURES_KEY = "Features".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] S390X_FEATURES_KEY = "features".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PPC64_CPU_KEY = "cpu".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] POWER = "POWER".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] MHZ_KEYS = new byte[][] {
+            "cpu MHz".getBytes(StandardCharsets.US_ASCII),
+            "cpu MHz static".getBytes(StandardCharsets.US_ASCII),
+            "clock".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    // vcipher and vpmsumd arrived with POWER8 (ISA 2.07)
+    private static final int FIRST_POWER_WITH_VCRYPTO = 8;
+
+    private final int[] processorIds;
+    private final long[] features;
+    private final int cores;
+    private final double maxMhz;
+    private final CpuArchitecture architecture;
+
+    private CpuInfo(final int[] processorIds, final long[] features, final int cores,
+                    final double maxMhz, final CpuArchitecture architecture) {
+        this.processorIds = processorIds;
+        this.features = features;
+        this.cores = cores;
+        this.maxMhz = maxMhz;
+        this.architecture = architecture;
+    }
+
+    static CpuInfo read() throws IOException {
+        return read(PROC_CPUINFO);
+    }
+
+    static CpuInfo read(final String path) throws IOException {
+        final byte[] buf;
+
+        try (Probe probe = Probe.start(Probe.FILE, path)) {
+            buf = Files.readAllBytes(Paths.get(path));
+            probe.bytes(buf.length);
+        }
+
+        return parse(buf, buf.length);
+    }
+
+    /**
+     * Parses the x86 (flags), aarch64 (Features), ppc64 (cpu) and s390x
+     * (features) layouts. s390x lists its features once, ahead of lines like
+     * "processor 0: version = ...", so features seen before any processor
+     * apply to all of them.
+     */
+    static CpuInfo parse(final byte[] buf, final int length) {
+        int[] processorIds = new int[64];
+        long[] features = new long[64];
+        long sharedFeatures = 0L;
+        int core = -1;
+        double maxMhz = 0.0;
+        CpuArchitecture architecture = null;
+
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && buf[lineEnd] != '\n') {
+                lineEnd++;
+            }
+
+            int colon = lineStart;
+            while (colon < lineEnd && buf[colon] != ':') {
+                colon++;
+            }
+
+            if (colon < lineEnd) {
+                int keyEnd = colon;
+                while (keyEnd > lineStart && (buf[keyEnd - 1] == ' ' || buf[keyEnd - 1] == '\t')) {
+                    keyEnd--;
+                }
+
+                final CpuArchitecture featureKey = featureKey(buf, lineStart, keyEnd);
+
+                if (keyStartsWith(buf, lineStart, keyEnd, PROCESSOR_KEY)) {
+                    core++;
+                    if (core == features.length) {
+                        features = Arrays.copyOf(features, core * 2);
+                        processorIds = Arrays.copyOf(processorIds, core * 2);
+                    }
+                    // "processor : 3", or "processor 3: version = ..." on s390x
+                    processorIds[core] = keyEnd - lineStart > PROCESSOR_KEY.length
+                            ? (int) parseNumber(buf, lineStart + PROCESSOR_KEY.length, keyEnd)
+                            : (int) parseNumber(buf, colon + 1, lineEnd);
+                } else if (featureKey != null) {
+                    final long mask = lineFeatures(featureKey, buf, colon + 1, lineEnd);
+
+                    // ppc64 has a cpu line without a POWER model under some hypervisors
+                    if (featureKey != CpuArchitecture.PPC64 || mask != 0L) {
+                        architecture = featureKey;
+                    }
+
+                    if (core < 0) {
+                        sharedFeatures |= mask;
+                    } else {
+                        features[core] |= mask;
+                    }
+                } else if (isMhzKey(buf, lineStart, keyEnd)) {
+                    maxMhz = Math.max(maxMhz, parseNumber(buf, colon + 1, lineEnd));
+                }
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        // Some kernels list flags without a preceding processor line
+        if (core < 0 && sharedFeatures != 0L) {
+            core = 0;
+            processorIds[0] = 0;
+        }
+        for (int i = 0; i <= core; i++) {
+            features[i] |= sharedFeatures;
+        }
+
+        return new CpuInfo(processorIds, features, core + 1, maxMhz,
+                architecture == null ? CpuArchitecture.current() : architecture);
+    }
+
+    /**
+     * Returns the features on a single /proc/cpuinfo line, or -1 if the line
+     * doesn't carry any, such as the processor number or model name.
+     */
+    static long parseFeatureLine(final byte[] buf, final int start, final int end) {
+        int colon = start;
+        while (colon < end && buf[colon] != ':') {
+            colon++;
+        }
+
+        int keyEnd = colon;
+        while (keyEnd > start && (buf[keyEnd - 1] == ' ' || buf[keyEnd - 1] == '\t')) {
+            keyEnd--;
+        }
+
+        final CpuArchitecture featureKey = colon < end ? featureKey(buf, start, keyEnd) : null;
+
+        return featureKey == null ? -1L : lineFeatures(featureKey, buf, colon + 1, end);
+    }
+
+    private static CpuArchitecture featureKey(final byte[] buf, final int start, final int keyEnd) {
+        if (keyEquals(buf, start, keyEnd, FLAGS_KEY)) {
+            return CpuArchitecture.X86_64;
+        }
+        if (keyEquals(buf, start, keyEnd, AARCH64_FEATURES_KEY)) {
+            return CpuArchitecture.AARCH64;
+        }
+        if (keyEquals(buf, start, keyEnd, S390X_FEATURES_KEY)) {
+            return CpuArchitecture.S390X;
+        }
+        if (keyEquals(buf, start, keyEnd, PPC64_CPU_KEY)) {
+            return CpuArchitecture.PPC64;
+        }
+
+        return null;
+    }
+
+    private static long lineFeatures(final CpuArchitecture architecture, final byte[] buf,
+                                     final int start, final int end) {
+        if (architecture != CpuArchitecture.PPC64) {
+            return parseFlags(buf, start, end);
+        }
+
+        // "cpu : POWER9 (raw), altivec supported"
+        for (int i = start; i + POWER.length < end; i++) {
+            if (keyStartsWith(buf, i, end, POWER)) {
+                final double generation = parseNumber(buf, i + POWER.length, end);
+                return generation >= FIRST_POWER_WITH_VCRYPTO ? CpuFeature.VCRYPTO.mask() : 0L;
+            }
+        }
+
+        return 0L;
+    }
+
+    private static boolean isMhzKey(final byte[] buf, final int start, final int end) {
+        for (byte[] key : MHZ_KEYS) {
+            if (keyEquals(buf, start, end, key)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean keyStartsWith(final byte[] buf, final int start, final int end,
+                                         final byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean keyEquals(final byte[] buf, final int start, final int end,
+                                     final byte[] key) {
+        if (end - start != key.length) {
+            return false;
+        }
+
+        for (int i = 0; i < key.length; i++) {
+            if (buf[start + i] != key[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static long parseFlags(final byte[] buf, final int start, final int end) {
+        long mask = 0L;
+        int pos = start;
+
+        while (pos < end) {
+            while (pos < end && (buf[pos] == ' ' || buf[pos] == '\t')) {
+                pos++;
+            }
+
+            int tokenEnd = pos;
+            while (tokenEnd < end && buf[tokenEnd] != ' ' && buf[tokenEnd] != '\t') {
+                tokenEnd++;
+            }
+
+            if (tokenEnd > pos) {
+                CpuFeature feature = CpuFeature.match(buf, pos, tokenEnd);
+                if (feature != null) {
+                    mask |= feature.mask();
+                }
+            }
+
+            pos = tokenEnd;
+        }
+
+        return mask;
+    }
+
+    private static double parseNumber(final byte[] buf, final int start, final int end) {
+        double value = 0.0;
+        double scale = 0.0;
+
+        for (int i = start; i < end; i++) {
+            final byte b = buf[i];
+
+            if (b >= '0' && b <= '9') {
+                if (scale == 0.0) {
+                    value = value * 10 + (b - '0');
+                } else {
+                    value += (b - '0') * scale;
+                    scale /= 10;
+                }
+            } else if (b == '.' && scale == 0.0) {
+                scale = 0.1;
+            } else if (b != ' ' && b != '\t') {
+                break;
+            }
+        }
+
+        return value;
+    }
+
+    int cores() {
+        return cores;
+    }
+
+    int processorId(final int core) {
+        return processorIds[core];
+    }
+
+    long features(final int core) {
+        return features[core];
+    }
+
+    double maxMhz() {
+        return maxMhz;
+    }
+
+    /**
+     * The architecture the file was written by, or this JVM's if the file
+     * had nothing to tell it by.
+     */
+    CpuArchitecture architecture() {
+        return architecture;
+    }
+
+    /** Features present on every processor. */
+    long commonFeatures() {
+        if (cores == 0) {
+            return 0L;
+        }
+
+        long mask = -1L;
+        for (int i = 0; i < cores; i++) {
+            mask &= features[i];
+        }
+        return mask;
+    }
+
+    /** Features present on at least one processor. */
+    long anyFeatures() {
+        long mask = 0L;
+        for (int i = 0; i < cores; i++) {
+            mask |= features[i];
+        }
+        return mask;
+    }
+
+    boolean allCoresHave(final CpuFeature feature) {
+        return cores > 0 && (commonFeatures() & feature.mask()) != 0;
+    }
+
+    int coresWith(final CpuFeature feature) {
+        int count = 0;
+        for (int i = 0; i < cores; i++) {
+            if ((features[i] & feature.mask()) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    boolean isHeterogeneous() {
+        return commonFeatures() != anyFeatures();
+    }
+}
@@ -0,0 +1,190 @@
+package com.joyent.aes.debugger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the stanzas for a few packages in the dpkg status database without
+ * running dpkg. The file is memory-mapped and each stanza's Package field is
+ * compared as bytes against the wanted names, indexed by their length, so
+ * stanzas for other packages are skipped without being decoded.
+ */
+final class DpkgStatusReader {
+    static final String STATUS_PATH = "/var/lib/dpkg/status";
+
+    private static final long NEWLINES = 0x0a0a0a0a0a0a0a0aL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private static final byte[] PACKAGE_FIELD = "Package: ".getBytes(StandardCharsets.US_ASCII);
+
+    // Wanted package names as bytes, indexed by name length
+    private final byte[][][] wantedByLength;
+
+    DpkgStatusReader(final Collection<String> packageNames) {
+        int longest = 0;
+        for (String name : packageNames) {
+            longest = Math.max(longest, name.length());
+        }
+
+        final List<List<byte[]>> index = new ArrayList<>();
+        for (int i = 0; i <= longest; i++) {
+            index.add(new ArrayList<>());
+        }
+        for (String name : packageNames) {
+            index.get(name.length()).add(name.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        wantedByLength = new byte[longest + 1][][];
+        for (int i = 0; i <= longest; i++) {
+            wantedByLength[i] = index.get(i).toArray(new byte[0][]);
+        }
+    }
+
+    /**
+     * Returns the fields of every stanza for one of the wanted packages, in
+     * file order. A package can appear once per architecture. Continuation
+     * lines are kept in the field value, including their leading space.
+     */
+    List<Map<String, String>> read(final Path statusFile) throws IOException {
+        try (Probe probe = Probe.start(Probe.FILE, statusFile.toString());
+             FileChannel channel = FileChannel.open(statusFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(statusFile + " is too large to map");
+            }
+
+            final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            probe.bytes(buf.limit());
+            return read(buf, buf.limit());
+        }
+    }
+
+    List<Map<String, String>> read(final ByteBuffer buffer, final int length) {
+        final ByteBuffer buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final List<Map<String, String>> stanzas = new ArrayList<>();
+        int stanza = 0;
+
+        while (stanza < length) {
+            final int end = stanzaEnd(buf, stanza, length);
+
+            if (isWanted(buf, stanza, end)) {
+                stanzas.add(parseStanza(buf, stanza, end));
+            }
+
+            // Skip the blank lines separating stanzas
+            stanza = end;
+            while (stanza < length && buf.get(stanza) == '\n') {
+                stanza++;
+            }
+        }
+
+        return stanzas;
+    }
+
+    /**
+     * Finds the blank line ending a stanza, eight bytes at a time: a word
+     * with no newline in it, which is most of them, costs one comparison.
+     */
+    private static int stanzaEnd(final ByteBuffer buf, final int start, final int length) {
+        int i = start;
+
+        while (i + Long.BYTES <= length) {
+            final long word = buf.getLong(i) ^ NEWLINES;
+            final long newlines = (word - LOW_BITS) & ~word & HIGH_BITS;
+
+            if (newlines == 0) {
+                i += Long.BYTES;
+                continue;
+            }
+
+            // The lowest flagged byte is always a real newline
+            final int newline = i + (Long.numberOfTrailingZeros(newlines) >>> 3);
+            if (newline + 1 < length && buf.get(newline + 1) == '\n') {
+                return newline + 1;
+            }
+
+            i = newline + 1;
+        }
+
+        for (; i < length - 1; i++) {
+            if (buf.get(i) == '\n' && buf.get(i + 1) == '\n') {
+                return i + 1;
+            }
+        }
+
+        return length;
+    }
+
+    private boolean isWanted(final ByteBuffer buf, final int start, final int end) {
+        // dpkg always writes Package as the first field of a stanza
+        for (int i = 0; i < PACKAGE_FIELD.length; i++) {
+            if (start + i >= end || buf.get(start + i) != PACKAGE_FIELD[i]) {
+                return false;
+            }
+        }
+
+        final int nameStart = start + PACKAGE_FIELD.length;
+        int nameEnd = nameStart;
+        while (nameEnd < end && buf.get(nameEnd) != '\n') {
+            nameEnd++;
+        }
+
+        final int nameLength = nameEnd - nameStart;
+        if (nameLength >= wantedByLength.length) {
+            return false;
+        }
+
+        outer:
+        for (byte[] wanted : wantedByLength[nameLength]) {
+            for (int i = 0; i < nameLength; i++) {
+                if (buf.get(nameStart + i) != wanted[i]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private static Map<String, String> parseStanza(final ByteBuffer buf, final int start,
+                                                   final int end) {
+        final byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+
+        final Map<String, String> fields = new LinkedHashMap<>();
+        String field = null;
+
+        for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && field != null) {
+                fields.put(field, fields.get(field) + "\n" + line);
+                continue;
+            }
+
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                field = line.substring(0, colon);
+                fields.put(field, line.substring(colon + 1).trim());
+            }
+        }
+
+        return fields;
+    }
+}
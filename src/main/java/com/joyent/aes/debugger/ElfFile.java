@@ -0,0 +1,428 @@
+package com.joyent.aes.debugger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A minimal read-only view of an ELF shared object, enough to answer what a
+ * library links against, what it exports and whether its code uses the AES
+ * and carry-less multiply instructions. The file is memory-mapped and only
+ * the headers, the dynamic section, the dynamic symbol table and, when asked
+ * for, the executable segments are touched.
+ */
+final class ElfFile {
+    static final int EM_386 = 3;
+    static final int EM_PPC64 = 21;
+    static final int EM_S390 = 22;
+    static final int EM_X86_64 = 62;
+    static final int EM_AARCH64 = 183;
+
+    private static final int PT_LOAD = 1;
+    private static final int PT_DYNAMIC = 2;
+    private static final int PF_X = 1;
+    private static final int SHT_DYNSYM = 11;
+
+    private static final long DT_NULL = 0;
+    private static final long DT_NEEDED = 1;
+    private static final long DT_STRTAB = 5;
+    private static final long DT_SONAME = 14;
+    private static final long DT_RPATH = 15;
+    private static final long DT_RUNPATH = 29;
+
+    private final Path path;
+    private final ByteBuffer buf;
+    private final boolean is64;
+    private final boolean bigEndian;
+    private final int machine;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private String soname;
+    private final List<String> needed = new ArrayList<>();
+    private final List<String> runPaths = new ArrayList<>();
+
+    private ElfFile(final Path path, final ByteBuffer buf) throws IOException {
+        this.path = path;
+        this.buf = buf;
+
+        if (buf.limit() < 52 || buf.get(0) != 0x7f || buf.get(1) != 'E'
+                || buf.get(2) != 'L' || buf.get(3) != 'F') {
+            throw new IOException(path + " is not an ELF file");
+        }
+
+        this.is64 = buf.get(4) == 2;
+        this.bigEndian = buf.get(5) == 2;
+        buf.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        this.machine = buf.getShort(18) & 0xffff;
+
+        readProgramHeaders();
+        readDynamicSection();
+    }
+
+    static ElfFile open(final Path path) throws IOException {
+        try (Probe probe = Probe.start(Probe.FILE, path.toString());
+             FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to be a shared library");
+            }
+
+            // Only the headers and the dynamic section are touched, but the whole file is mapped
+            probe.bytes(channel.size());
+            return new ElfFile(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException(path + " is a truncated or corrupt ELF file", e);
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int machine() {
+        return machine;
+    }
+
+    boolean is64() {
+        return is64;
+    }
+
+    String machineName() {
+        switch (machine) {
+            case EM_386:
+                return "i386";
+            case EM_X86_64:
+                return "x86_64";
+            case EM_AARCH64:
+                return "aarch64";
+            case EM_PPC64:
+                return bigEndian ? "ppc64" : "ppc64le";
+            case EM_S390:
+                return is64 ? "s390x" : "s390";
+            default:
+                return "machine " + machine;
+        }
+    }
+
+    /**
+     * Whether {@link #countCryptoInstructions()} knows this machine's
+     * encodings; for any other machine it finds nothing, which says nothing.
+     */
+    boolean canCountCryptoInstructions() {
+        return machine == EM_X86_64 || machine == EM_386 || machine == EM_AARCH64;
+    }
+
+    String soname() {
+        return soname;
+    }
+
+    List<String> needed() {
+        return Collections.unmodifiableList(needed);
+    }
+
+    /**
+     * DT_RUNPATH or DT_RPATH entries, with $ORIGIN left unexpanded.
+     */
+    List<String> runPaths() {
+        return Collections.unmodifiableList(runPaths);
+    }
+
+    /**
+     * Names of the functions and objects this library defines and exports.
+     * Symbol versions are not included in the names.
+     */
+    List<String> exportedSymbols() {
+        final List<String> symbols = new ArrayList<>();
+        final long sectionHeaders = word(is64 ? 40 : 32);
+        final int entrySize = buf.getShort(is64 ? 58 : 46) & 0xffff;
+        final int count = buf.getShort(is64 ? 60 : 48) & 0xffff;
+
+        for (int i = 0; i < count; i++) {
+            final int header = (int) (sectionHeaders + (long) i * entrySize);
+
+            if (buf.getInt(header + 4) != SHT_DYNSYM) {
+                continue;
+            }
+
+            final long offset = is64 ? buf.getLong(header + 24) : buf.getInt(header + 16) & 0xffffffffL;
+            final long size = is64 ? buf.getLong(header + 32) : buf.getInt(header + 20) & 0xffffffffL;
+            final int link = buf.getInt(header + (is64 ? 40 : 24));
+            final long symbolSize = is64 ? buf.getLong(header + 56) : buf.getInt(header + 36) & 0xffffffffL;
+            final int strings = (int) sectionOffset(sectionHeaders, entrySize, link);
+
+            for (long symbol = offset; symbol + symbolSize <= offset + size; symbol += symbolSize) {
+                final int at = (int) symbol;
+                final int name = buf.getInt(at);
+                final int info = buf.get(at + (is64 ? 4 : 12)) & 0xff;
+                final int sectionIndex = buf.getShort(at + (is64 ? 6 : 14)) & 0xffff;
+                final int binding = info >> 4;
+
+                // Defined (section index not SHN_UNDEF), GLOBAL or WEAK binding
+                if (name != 0 && sectionIndex != 0 && (binding == 1 || binding == 2)) {
+                    symbols.add(string(strings + name));
+                }
+            }
+        }
+
+        return symbols;
+    }
+
+    /**
+     * Whether the raw bytes of the file contain the given ASCII string, for
+     * finding build markers such as environment variable names in .rodata.
+     */
+    boolean containsString(final String value) {
+        return indexOf(value.getBytes(StandardCharsets.US_ASCII)) >= 0;
+    }
+
+    /**
+     * The rest of the first NUL terminated string in the file that starts
+     * with the given prefix, for reading embedded version strings.
+     */
+    String stringAfter(final String prefix) {
+        final int at = indexOf(prefix.getBytes(StandardCharsets.US_ASCII));
+        return at < 0 ? null : string(at + prefix.length());
+    }
+
+    private int indexOf(final byte[] needle) {
+        final int end = buf.limit() - needle.length;
+
+        outer:
+        for (int i = 0; i <= end; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (buf.get(i + j) != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Counts AES round and carry-less multiply instruction encodings in the
+     * executable segments. This is a byte pattern scan rather than a
+     * disassembly, so a handful of false positives are possible, but a
+     * library built with hardware AES support has hundreds of them. Only
+     * x86 and aarch64 code is scanned.
+     *
+     * @return the AES count followed by the carry-less multiply count
+     */
+    long[] countCryptoInstructions() {
+        final long[] counts = new long[2];
+
+        for (Segment segment : segments) {
+            if (!segment.executable) {
+                continue;
+            }
+
+            final int start = (int) segment.offset;
+            final int end = (int) Math.min(buf.limit(), segment.offset + segment.fileSize);
+
+            if (machine == EM_X86_64 || machine == EM_386) {
+                countX86(start, end, counts);
+            } else if (machine == EM_AARCH64) {
+                countAarch64(start, end, counts);
+            }
+        }
+
+        return counts;
+    }
+
+    private void countX86(final int start, final int end, final long[] counts) {
+        for (int i = start; i + 5 < end; i++) {
+            final int b = buf.get(i) & 0xff;
+
+            if (b == 0x66) {
+                // Legacy SSE encoding, 66 [REX] 0F 38|3A opcode
+                int j = i + 1;
+                if ((buf.get(j) & 0xf0) == 0x40) {
+                    j++;
+                }
+
+                if (buf.get(j) != 0x0f) {
+                    continue;
+                }
+
+                final int map = buf.get(j + 1) & 0xff;
+                final int opcode = buf.get(j + 2) & 0xff;
+
+                if (map == 0x38 && opcode >= 0xdb && opcode <= 0xdf) {
+                    counts[0]++;
+                } else if (map == 0x3a && opcode == 0x44) {
+                    counts[1]++;
+                }
+            } else if (b == 0xc4) {
+                // Three byte VEX prefix, pp = 01 (66)
+                final int p0 = buf.get(i + 1) & 0xff;
+                final int p1 = buf.get(i + 2) & 0xff;
+                final int opcode = buf.get(i + 3) & 0xff;
+                countVexOrEvex(p0 & 0x1f, p1 & 0x03, opcode, counts);
+            } else if (b == 0x62 && (buf.get(i + 2) & 0x04) != 0) {
+                // EVEX prefix, used by VAES and VPCLMULQDQ on zmm registers
+                final int p0 = buf.get(i + 1) & 0xff;
+                final int p1 = buf.get(i + 2) & 0xff;
+                final int opcode = buf.get(i + 4) & 0xff;
+                countVexOrEvex(p0 & 0x07, p1 & 0x03, opcode, counts);
+            }
+        }
+    }
+
+    private static void countVexOrEvex(final int map, final int prefix, final int opcode,
+                                       final long[] counts) {
+        if (prefix != 1) {
+            return;
+        }
+
+        if (map == 2 && opcode >= 0xdb && opcode <= 0xdf) {
+            counts[0]++;
+        } else if (map == 3 && opcode == 0x44) {
+            counts[1]++;
+        }
+    }
+
+    private void countAarch64(final int start, final int end, final long[] counts) {
+        for (int i = (start + 3) & ~3; i + 4 <= end; i += 4) {
+            final int word = buf.getInt(i);
+
+            // AESE, AESD, AESMC and AESIMC
+            if ((word & 0xffffcc00) == 0x4e284800) {
+                counts[0]++;
+            // PMULL and PMULL2 on 64-bit lanes
+            } else if ((word & 0xbfe0fc00) == 0x0ee0e000) {
+                counts[1]++;
+            }
+        }
+    }
+
+    private void readProgramHeaders() {
+        final long programHeaders = word(is64 ? 32 : 28);
+        final int entrySize = buf.getShort(is64 ? 54 : 42) & 0xffff;
+        final int count = buf.getShort(is64 ? 56 : 44) & 0xffff;
+
+        for (int i = 0; i < count; i++) {
+            final int header = (int) (programHeaders + (long) i * entrySize);
+            final int type = buf.getInt(header);
+            final Segment segment = new Segment();
+
+            if (is64) {
+                segment.executable = (buf.getInt(header + 4) & PF_X) != 0;
+                segment.offset = buf.getLong(header + 8);
+                segment.vaddr = buf.getLong(header + 16);
+                segment.fileSize = buf.getLong(header + 32);
+            } else {
+                segment.offset = buf.getInt(header + 4) & 0xffffffffL;
+                segment.vaddr = buf.getInt(header + 8) & 0xffffffffL;
+                segment.fileSize = buf.getInt(header + 16) & 0xffffffffL;
+                segment.executable = (buf.getInt(header + 24) & PF_X) != 0;
+            }
+
+            if (type == PT_LOAD) {
+                segments.add(segment);
+            } else if (type == PT_DYNAMIC) {
+                segment.dynamic = true;
+                segments.add(segment);
+            }
+        }
+    }
+
+    private void readDynamicSection() throws IOException {
+        Segment dynamic = null;
+        for (Segment segment : segments) {
+            if (segment.dynamic) {
+                dynamic = segment;
+            }
+        }
+
+        if (dynamic == null) {
+            return;
+        }
+
+        final int entrySize = is64 ? 16 : 8;
+        final List<long[]> entries = new ArrayList<>();
+        long stringTable = -1;
+
+        for (long at = dynamic.offset; at + entrySize <= dynamic.offset + dynamic.fileSize; at += entrySize) {
+            final long tag = word((int) at);
+            final long value = word((int) at + entrySize / 2);
+
+            if (tag == DT_NULL) {
+                break;
+            }
+            if (tag == DT_STRTAB) {
+                stringTable = fileOffset(value);
+            }
+
+            entries.add(new long[] { tag, value });
+        }
+
+        if (stringTable < 0) {
+            throw new IOException(path + " has a dynamic section without a string table");
+        }
+
+        for (long[] entry : entries) {
+            final long tag = entry[0];
+            final int name = (int) (stringTable + entry[1]);
+
+            if (tag == DT_NEEDED) {
+                needed.add(string(name));
+            } else if (tag == DT_SONAME) {
+                soname = string(name);
+            } else if (tag == DT_RUNPATH || tag == DT_RPATH) {
+                for (String runPath : string(name).split(":")) {
+                    if (!runPath.isEmpty()) {
+                        runPaths.add(runPath);
+                    }
+                }
+            }
+        }
+    }
+
+    private long sectionOffset(final long sectionHeaders, final int entrySize, final int index) {
+        final int header = (int) (sectionHeaders + (long) index * entrySize);
+        return is64 ? buf.getLong(header + 24) : buf.getInt(header + 16) & 0xffffffffL;
+    }
+
+    private long fileOffset(final long vaddr) throws IOException {
+        for (Segment segment : segments) {
+            if (!segment.dynamic && vaddr >= segment.vaddr && vaddr < segment.vaddr + segment.fileSize) {
+                return segment.offset + (vaddr - segment.vaddr);
+            }
+        }
+
+        throw new IOException(String.format("%s: address 0x%x is not in any loaded segment", path, vaddr));
+    }
+
+    private long word(final int offset) {
+        return is64 ? buf.getLong(offset) : buf.getInt(offset) & 0xffffffffL;
+    }
+
+    private String string(final int offset) {
+        int end = offset;
+        while (end < buf.limit() && buf.get(end) != 0) {
+            end++;
+        }
+
+        final byte[] bytes = new byte[end - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(offset + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Segment {
+        long offset;
+        long vaddr;
+        long fileSize;
+        boolean executable;
+        boolean dynamic;
+    }
+}
@@ -0,0 +1,289 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link ExperimentProbe} in child JVMs that differ in one setting each
+ * and tabulates the results against a baseline, so the share of AES
+ * throughput owed to each intrinsic and to the provider choice can be read
+ * off for this machine. The children get none of this JVM's options, only
+ * the variant's, so a run can be repeated from the commands in the report.
+ */
+public class ExperimentChecker implements Checkable {
+    static final String BASELINE = "baseline";
+
+    private static final String UNLOCK = "-XX:+UnlockDiagnosticVMOptions";
+
+    // The measurement the verdict attributes speedups with
+    private static final String VERDICT_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int VERDICT_BUFFER_SIZE = 16384;
+
+    private static final long CHILD_TIMEOUT_SECONDS = 300;
+
+    private final Report report;
+    private final Writer out;
+    private final int runs;
+
+    public ExperimentChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
+        this.runs = Math.max(1, Integer.getInteger("aes.debugger.experiment.runs", 1));
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        out.append("[[Start flag experiment]]\n");
+
+        final Map<String, List<String>> variants = variants();
+        // variant -> "transformation buffer" -> MB/s of each run
+        final Map<String, Map<String, List<Double>>> results = new LinkedHashMap<>();
+        final Map<String, String> providers = new LinkedHashMap<>();
+
+        for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+            final Map<String, List<Double>> measurements = new LinkedHashMap<>();
+            results.put(variant.getKey(), measurements);
+
+            for (int run = 0; run < runs; run++) {
+                runVariant(variant.getKey(), variant.getValue(), measurements, providers);
+            }
+        }
+
+        logTable(results, providers);
+        out.append("[[End flag experiment]]\n\n");
+
+        final Double baseline = median(results.get(BASELINE).get(key(VERDICT_TRANSFORMATION, VERDICT_BUFFER_SIZE)));
+        final List<String> speedups = new ArrayList<>();
+
+        for (Map.Entry<String, Map<String, List<Double>>> variant : results.entrySet()) {
+            final Double value = median(variant.getValue().get(key(VERDICT_TRANSFORMATION, VERDICT_BUFFER_SIZE)));
+
+            if (!variant.getKey().equals(BASELINE) && baseline != null && value != null && value > 0.0) {
+                speedups.add(String.format("%s %.2fx", variant.getKey(), baseline / value));
+            }
+        }
+
+        report.verdict("experiment", String.format("Baseline speedup over each variant (%s, %d bytes)",
+                VERDICT_TRANSFORMATION, VERDICT_BUFFER_SIZE),
+                speedups.isEmpty() ? "no variant could be compared" : String.join(", ", speedups));
+    }
+
+    /**
+     * The JVM options of each variant, in run order.
+     */
+    private Map<String, List<String>> variants() throws IOException {
+        final Map<String, List<String>> variants = new LinkedHashMap<>();
+
+        variants.put(BASELINE, Collections.<String>emptyList());
+        variants.put("-UseAES", Collections.singletonList("-XX:-UseAES"));
+        variants.put("-UseAESIntrinsics", Arrays.asList(UNLOCK, "-XX:-UseAESIntrinsics"));
+        variants.put("-UseAESCTRIntrinsics", Arrays.asList(UNLOCK, "-XX:-UseAESCTRIntrinsics"));
+        variants.put("-UseGHASHIntrinsics", Arrays.asList(UNLOCK, "-XX:-UseGHASHIntrinsics"));
+
+        try {
+            addProviderOrderVariants(variants);
+        } catch (IOException | RuntimeException e) {
+            out.append("Error preparing the provider order variants:\n");
+            out.append(ExceptionUtils.getStackTrace(e));
+        }
+
+        return variants;
+    }
+
+    /**
+     * NSS first and NSS removed, each as a complete replacement java.security
+     * so that the renumbered providers leave no gap.
+     */
+    private void addProviderOrderVariants(final Map<String, List<String>> variants) throws IOException {
+        final JavaSecurityResolver.Settings settings = JavaSecurityResolver.resolve();
+
+        if ("false".equalsIgnoreCase(settings.properties.get("security.overridePropertiesFile"))) {
+            out.append("security.overridePropertiesFile is false, so provider order can't be varied\n");
+            return;
+        }
+
+        final List<String> nss = new ArrayList<>();
+        final List<String> others = new ArrayList<>();
+
+        for (LibnssChecker.ProviderLine provider : settings.providers()) {
+            final String value = StringUtils.isBlank(provider.config)
+                    ? provider.name : provider.name + " " + provider.config;
+
+            if (provider.isPkcs11() && StringUtils.isNotBlank(provider.config) && nss.isEmpty()
+                    && LibnssChecker.NSSConfig.parseFromFilePath(JavaSecurityResolver.expand(
+                            provider.config, SystemUtils.JAVA_HOME)).nssLibraryInstalled) {
+                nss.add(value);
+            } else {
+                others.add(value);
+            }
+        }
+
+        if (nss.isEmpty()) {
+            final String generated = Pkcs11ProviderLoader.generateNssConfig();
+            if (generated == null) {
+                out.append("No NSS provider is configured and libnss3 wasn't found, skipping the NSS variants\n");
+                return;
+            }
+
+            out.append(String.format("No NSS provider is configured, using %s for the NSS variant\n", generated));
+            final String name = Security.getProvider(Pkcs11ProviderLoader.PROVIDER_NAME) != null
+                    ? Pkcs11ProviderLoader.PROVIDER_NAME : Pkcs11ProviderLoader.JAVA8_CLASS;
+            nss.add(name + " " + generated);
+        } else {
+            variants.put("nss-off", securityOverride(settings, others));
+        }
+
+        final List<String> nssFirst = new ArrayList<>(nss);
+        nssFirst.addAll(others);
+        variants.put("nss-first", securityOverride(settings, nssFirst));
+    }
+
+    private List<String> securityOverride(final JavaSecurityResolver.Settings settings,
+                                          final List<String> providers) throws IOException {
+        final Properties properties = new Properties();
+
+        for (Map.Entry<String, String> property : settings.properties.entrySet()) {
+            if (!property.getKey().startsWith(JavaSecurityResolver.PROVIDER_PREFIX)) {
+                properties.setProperty(property.getKey(), property.getValue());
+            }
+        }
+        for (int i = 0; i < providers.size(); i++) {
+            properties.setProperty(JavaSecurityResolver.PROVIDER_PREFIX + (i + 1), providers.get(i));
+        }
+
+        final Path file = Files.createTempFile("aes-debugger-java", ".security");
+        file.toFile().deleteOnExit();
+        try (OutputStream stream = Files.newOutputStream(file)) {
+            properties.store(stream, "Provider order variant written by aes-debugger");
+        }
+
+        // "==" replaces java.security rather than adding to it
+        return Collections.singletonList("-Djava.security.properties==" + file);
+    }
+
+    private void runVariant(final String name, final List<String> options,
+                            final Map<String, List<Double>> measurements,
+                            final Map<String, String> providers) throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(options);
+
+        // Pass the benchmark timing on, as the children share nothing else with this JVM
+        for (String property : new String[] { "aes.debugger.bench.warmup.ms", "aes.debugger.bench.measure.ms" }) {
+            if (System.getProperty(property) != null) {
+                command.add("-D" + property + "=" + System.getProperty(property));
+            }
+        }
+
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ExperimentProbe.class.getName());
+
+        out.append(String.format("%s: %s\n", name, StringUtils.join(command, " ")));
+
+        final ProcessRunner.Result result;
+        try {
+            result = new ProcessRunner(CHILD_TIMEOUT_SECONDS, TimeUnit.SECONDS).run(line -> {
+                if (!line.startsWith(ExperimentProbe.RESULT_PREFIX)) {
+                    out.append("    ").append(line).append("\n");
+                    return;
+                }
+
+                // [[experiment AES/GCM/NoPadding 16384 SunJCE 5123.4]]
+                final String[] fields = StringUtils.split(StringUtils.substringBetween(
+                        line, ExperimentProbe.RESULT_PREFIX, "]]"), ' ');
+                if (fields.length == 4) {
+                    final String key = key(fields[0], NumberUtils.toInt(fields[1]));
+                    measurements.computeIfAbsent(key, k -> new ArrayList<>())
+                            .add(NumberUtils.toDouble(fields[3]));
+                    providers.put(name + " " + key, fields[2]);
+                }
+            }, line -> out.append("    [stderr] ").append(line).append("\n"), command.toArray(new String[0]));
+        } catch (IOException e) {
+            out.append(String.format("Error running variant %s:\n", name));
+            out.append(ExceptionUtils.getStackTrace(e));
+            return;
+        }
+
+        if (result.exitCode != 0) {
+            out.append("    ").append(result.toString());
+        }
+    }
+
+    private void logTable(final Map<String, Map<String, List<Double>>> results,
+                          final Map<String, String> providers) throws IOException {
+        final Map<String, List<Double>> baseline = results.get(BASELINE);
+        final TreeMap<String, Boolean> keys = new TreeMap<>();
+        for (Map<String, List<Double>> measurements : results.values()) {
+            for (String key : measurements.keySet()) {
+                keys.put(key, true);
+            }
+        }
+
+        out.append(String.format("\nmedian MB/s of %d run(s), with the ratio to the baseline\n", runs));
+        out.append(String.format("%-20s %-24s %-16s %10s %8s\n",
+                "variant", "transformation/buffer", "provider", "MB/s", "ratio"));
+
+        for (String key : keys.keySet()) {
+            final Double base = median(baseline.get(key));
+
+            for (Map.Entry<String, Map<String, List<Double>>> variant : results.entrySet()) {
+                final Double value = median(variant.getValue().get(key));
+
+                out.append(String.format("%-20s %-24s %-16s %10s %8s\n", variant.getKey(), key,
+                        StringUtils.defaultString(providers.get(variant.getKey() + " " + key), "-"),
+                        value == null ? "failed" : String.format("%.1f", value),
+                        value == null || base == null || base == 0.0 ? "-" : String.format("%.2f", value / base)));
+
+                final Map<String, Object> fact = new LinkedHashMap<>();
+                fact.put("variant", variant.getKey());
+                fact.put("transformation", StringUtils.substringBefore(key, " "));
+                fact.put("bufferSize", NumberUtils.toInt(StringUtils.substringAfter(key, " ")));
+                fact.put("provider", providers.get(variant.getKey() + " " + key));
+                fact.put("MBps", value);
+                fact.put("runs", variant.getValue().containsKey(key) ? variant.getValue().get(key) : null);
+                report.fact("experiment", fact);
+            }
+        }
+    }
+
+    private static String key(final String transformation, final int bufferSize) {
+        return transformation + " " + bufferSize;
+    }
+
+    static Double median(final List<Double> values) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+
+        final List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        final int middle = sorted.size() / 2;
+
+        return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2.0;
+    }
+}
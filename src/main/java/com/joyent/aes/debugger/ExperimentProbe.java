@@ -0,0 +1,37 @@
+package com.joyent.aes.debugger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.util.Locale;
+
+/**
+ * Entry point for the child JVMs launched by {@link ExperimentChecker}. Each
+ * transformation goes through the provider the default resolution picks, so
+ * that provider order overrides take effect, and one line per measurement is
+ * printed for the parent to collect.
+ */
+public class ExperimentProbe {
+    static final String RESULT_PREFIX = "[[experiment ";
+
+    static final int[] BUFFER_SIZES = new int[] { 1024, 16384 };
+
+    public static void main(final String[] argv) throws GeneralSecurityException {
+        final CipherBenchmark benchmark = CipherBenchmark.fromSystemProperties();
+
+        for (String transformation : CipherBenchmark.TRANSFORMATIONS) {
+            final Cipher cipher = Cipher.getInstance(transformation);
+            CipherBenchmark.initEncrypt(cipher, new SecretKeySpec(new byte[CipherBenchmark.KEY_SIZE_BYTES], "AES"),
+                    transformation, CipherBenchmark.newIv(transformation));
+            final Provider provider = cipher.getProvider();
+
+            for (int bufferSize : BUFFER_SIZES) {
+                final CipherBenchmark.Result result = benchmark.run(provider, transformation, bufferSize);
+                // Parsed by the parent, so no locale specific decimal separator
+                System.out.printf(Locale.ROOT, "%s%s %d %s %.1f]]\n", RESULT_PREFIX, transformation, bufferSize,
+                        result.provider, result.steadyState.megabytesPerSecond());
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.joyent.aes.debugger;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.VMOption;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class IntrinsicsChecker implements Checkable {
+    static final String[] FLAGS = new String[] {
+            "UseAES",
+            "UseAESIntrinsics",
+            "UseAESCTRIntrinsics",
+            "UseGHASHIntrinsics",
+            "UseCLMUL",
+            "UseSSE",
+            "UseAVX",
+            "UseSHA",
+            "UseChaCha20Intrinsics",
+            "UsePoly1305Intrinsics",
+            "TieredCompilation"
+    };
+
+    // JDK 8 intrinsifies AESCrypt::encryptBlock, JDK 9 and later its implEncryptBlock helper
+    private static final String[] AES_BLOCK_INTRINSICS = new String[] {
+            "com.sun.crypto.provider.AESCrypt::encryptBlock",
+            "com.sun.crypto.provider.AESCrypt::implEncryptBlock"
+    };
+
+    // JDK 8 has no CTR intrinsic at all
+    private static final String[] CTR_INTRINSICS = new String[] {
+            "com.sun.crypto.provider.CounterMode::implCrypt"
+    };
+
+    // JDK 18 and later may run GCM through a combined AES/GHASH stub instead of GHASH::processBlocks
+    private static final String[] GHASH_INTRINSICS = new String[] {
+            "com.sun.crypto.provider.GHASH::processBlocks",
+            "com.sun.crypto.provider.GaloisCounterMode::implGCMCrypt0"
+    };
+
+    private static final Pattern INTRINSIC_LINE = Pattern.compile(
+            "(com\\.sun\\.crypto\\.provider\\.\\S+::\\S+) .*\\(intrinsic");
+
+    // Matches -XX:+PrintFlagsFinal lines such as "bool UseAES = true {product} {default}"
+    private static final Pattern FLAG_LINE = Pattern.compile(
+            "^\\s*\\w+\\s+(\\w+)\\s+:?=\\s+(\\S*)\\s+(\\{.*)$");
+
+    private static final long PROBE_TIMEOUT_SECONDS = 60;
+
+    private final Report report;
+    private final Writer out;
+    private final boolean runProbe;
+
+    public IntrinsicsChecker(final Report report) {
+        this(report, true);
+    }
+
+    /**
+     * @param runProbe whether to launch a probe JVM to observe which intrinsics
+     *                 get compiled; the agent turns this off so that nothing is
+     *                 forked from the JVM it is inspecting
+     */
+    IntrinsicsChecker(final Report report, final boolean runProbe) {
+        this.report = report;
+        this.out = report.text();
+        this.runProbe = runProbe;
+    }
+
+    @Override
+    public void check() throws IOException {
+        final Map<String, String> flags = readVmFlags(FLAGS);
+        final CpuInfo cpuInfo = readCpuInfo();
+        final Set<String> compiledIntrinsics = runProbe ? new TreeSet<>() : null;
+        final Map<String, String> probeFlags = new LinkedHashMap<>();
+
+        if (runProbe) {
+            runIntrinsicsProbe(compiledIntrinsics, probeFlags);
+        }
+
+        out.append("[[Start HotSpot intrinsic flags]]\n");
+        if (flags.isEmpty()) {
+            out.append("HotSpotDiagnosticMXBean is not available on this JVM\n");
+        }
+        for (Map.Entry<String, String> flag : flags.entrySet()) {
+            // Diagnostic flags are hidden unless this JVM was started with
+            // -XX:+UnlockDiagnosticVMOptions, so use the probe JVM's value instead
+            if (flag.getValue() == null && probeFlags.containsKey(flag.getKey())) {
+                flag.setValue(probeFlags.get(flag.getKey()));
+            }
+
+            out.append(flag.getKey()).append(" : ")
+               .append(Objects.toString(flag.getValue(), "<not supported>")).append("\n");
+        }
+        out.append("[[End HotSpot intrinsic flags]]\n\n");
+
+        final String verdict = verdict(flags, cpuInfo, compiledIntrinsics);
+        final CpuArchitecture architecture = cpuInfo.architecture();
+        final boolean cpuAes = cpuInfo.allCoresHave(architecture.aesFeature());
+        final boolean cpuClmul = cpuInfo.allCoresHave(architecture.clmulFeature());
+        final boolean ghashHidden = !runProbe && flags.get("UseGHASHIntrinsics") == null;
+        final Object ghashOk = cpuClmul && ghashHidden
+                ? "unknown" : !cpuClmul || isEnabled(flags, "UseGHASHIntrinsics");
+
+        out.append(String.format("[[intrinsics verdict: %s]]\n", verdict));
+        out.append(String.format("[[ cpu %s aes (%s): %b carry-less multiply (%s): %b ghash intrinsics usable: %s]]\n\n",
+                architecture.displayName(), architecture.aesFeature().flag(), cpuAes,
+                architecture.clmulFeature().flag(), cpuClmul, ghashOk));
+
+        report.fact("jvm.flags", typedFlagValues(flags));
+        report.fact("jvm.compiled.intrinsics", compiledIntrinsics);
+        report.verdict("intrinsics", "AES intrinsics verdict", verdict);
+        report.verdict("intrinsics.ghash", "GHASH intrinsics usable for AES/GCM", ghashOk);
+    }
+
+    /**
+     * The value and origin of each HotSpot flag, such as "true (DEFAULT)",
+     * null for flags this JVM doesn't have, or no flags at all if it isn't
+     * HotSpot.
+     */
+    static Map<String, String> readVmFlags(final String[] names) {
+        final Map<String, String> flags = new LinkedHashMap<>();
+        final HotSpotDiagnosticMXBean bean;
+
+        try {
+            bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        } catch (RuntimeException e) {
+            return flags;
+        }
+
+        if (bean == null) {
+            return flags;
+        }
+
+        for (String name : names) {
+            try {
+                final VMOption option = bean.getVMOption(name);
+                flags.put(name, String.format("%s (%s)", option.getValue(), option.getOrigin()));
+            } catch (IllegalArgumentException e) {
+                // The flag doesn't exist on this JVM version or architecture
+                flags.put(name, null);
+            }
+        }
+
+        return flags;
+    }
+
+    /**
+     * Strips the origin from each flag value and converts booleans and
+     * numbers so the structured report carries typed values.
+     */
+    static Map<String, Object> typedFlagValues(final Map<String, String> flags) {
+        final Map<String, Object> typed = new LinkedHashMap<>();
+
+        for (Map.Entry<String, String> flag : flags.entrySet()) {
+            final String value = StringUtils.substringBefore(flag.getValue(), " ");
+
+            if (value == null) {
+                typed.put(flag.getKey(), null);
+            } else if (value.equals("true") || value.equals("false")) {
+                typed.put(flag.getKey(), Boolean.valueOf(value));
+            } else if (NumberUtils.isDigits(value)) {
+                typed.put(flag.getKey(), Long.valueOf(value));
+            } else {
+                typed.put(flag.getKey(), value);
+            }
+        }
+
+        return typed;
+    }
+
+    static boolean isEnabled(final Map<String, String> flags, final String name) {
+        final String value = flags.get(name);
+        return value != null && value.startsWith("true");
+    }
+
+    static boolean compiledAny(final Set<String> compiledIntrinsics, final String[] names) {
+        for (String name : names) {
+            if (compiledIntrinsics.contains(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Whether the probe JVM has compiled every intrinsic it has enabled, at
+     * which point there is nothing left to wait for. PrintFlagsFinal is
+     * written before any code is compiled, so the probe's flags are known.
+     */
+    static boolean allCompiled(final Set<String> compiledIntrinsics,
+                               final Map<String, String> probeFlags) {
+        return compiledAny(compiledIntrinsics, AES_BLOCK_INTRINSICS)
+                && (!isEnabled(probeFlags, "UseAESCTRIntrinsics")
+                        || compiledAny(compiledIntrinsics, CTR_INTRINSICS))
+                && (!isEnabled(probeFlags, "UseGHASHIntrinsics")
+                        || compiledAny(compiledIntrinsics, GHASH_INTRINSICS));
+    }
+
+    /**
+     * Records a line of the probe JVM's stdout, which is either a
+     * -XX:+PrintIntrinsics line or a -XX:+PrintFlagsFinal line.
+     *
+     * @return whether the line named a newly compiled crypto intrinsic
+     */
+    static boolean readProbeLine(final String line, final Set<String> compiledIntrinsics,
+                                 final Map<String, String> probeFlags) {
+        final Matcher matcher = INTRINSIC_LINE.matcher(line);
+        if (matcher.find()) {
+            return compiledIntrinsics.add(matcher.group(1));
+        }
+
+        final Matcher flagMatcher = FLAG_LINE.matcher(line);
+        if (flagMatcher.find() && ArrayUtils.contains(FLAGS, flagMatcher.group(1))) {
+            probeFlags.put(flagMatcher.group(1), String.format("%s (%s, from probe JVM)",
+                    flagMatcher.group(2), flagMatcher.group(3).trim()));
+        }
+
+        return false;
+    }
+
+    private static CpuInfo readCpuInfo() {
+        try {
+            return CpuInfo.read();
+        } catch (IOException e) {
+            return CpuInfo.parse(new byte[0], 0);
+        }
+    }
+
+    private static String verdict(final Map<String, String> flags, final CpuInfo cpuInfo,
+                                  final Set<String> compiledIntrinsics) {
+        if (flags.isEmpty()) {
+            return "UNKNOWN - HotSpot flags are not available on this JVM";
+        }
+
+        if (cpuInfo.cores() == 0) {
+            return "UNKNOWN - CPU flags could not be read";
+        }
+
+        if (!cpuInfo.allCoresHave(cpuInfo.architecture().aesFeature())) {
+            return String.format("NO_CPU_SUPPORT - CPU does not advertise AES instructions (%s on %s)",
+                    cpuInfo.architecture().aesFeature().flag(), cpuInfo.architecture().displayName());
+        }
+
+        if (!isEnabled(flags, "UseAES")) {
+            return "DISABLED - CPU supports AES but UseAES is off";
+        }
+
+        // UseAESIntrinsics is a diagnostic flag, so a JVM started without
+        // -XX:+UnlockDiagnosticVMOptions and no probe to ask leaves it unknown
+        if (flags.get("UseAESIntrinsics") == null && compiledIntrinsics == null) {
+            return "UNKNOWN - UseAES is on but this JVM does not expose UseAESIntrinsics";
+        }
+
+        if (!isEnabled(flags, "UseAESIntrinsics")) {
+            return "DISABLED - CPU supports AES but UseAESIntrinsics is off";
+        }
+
+        if (compiledIntrinsics == null) {
+            return "OK - AES intrinsics are enabled in this running JVM";
+        }
+
+        if (!compiledAny(compiledIntrinsics, AES_BLOCK_INTRINSICS)) {
+            return "NOT_COMPILED - AES intrinsics are enabled but the JIT never used them";
+        }
+
+        return "OK - AES intrinsics are enabled and were compiled in";
+    }
+
+    private void runIntrinsicsProbe(final Set<String> compiledIntrinsics,
+                                    final Map<String, String> probeFlags) throws IOException {
+        out.append("[[Start intrinsics probe output]]\n");
+
+        final List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+        // Keep the same -XX tuning as this JVM so the probe is representative, but
+        // not a recording, which would overwrite this JVM's recording file
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-XX:") && !arg.contains("PrintFlagsFinal")
+                    && !arg.contains("FlightRecord")) {
+                command.add(arg);
+            }
+        }
+
+        command.add("-XX:+UnlockDiagnosticVMOptions");
+        command.add("-XX:+PrintIntrinsics");
+        command.add("-XX:+PrintFlagsFinal");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(IntrinsicsProbe.class.getName());
+
+        out.append(StringUtils.join(command, " ")).append("\n");
+
+        // The JIT and PrintFlagsFinal write to stdout, the probe's own results and errors to stderr
+        final AtomicBoolean allCompiled = new AtomicBoolean();
+        final ProcessRunner.LineHandler vmOutput = line -> {
+            if (readProbeLine(line, compiledIntrinsics, probeFlags)) {
+                allCompiled.set(allCompiled(compiledIntrinsics, probeFlags));
+            }
+        };
+
+        try {
+            out.append(new ProcessRunner(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .run(vmOutput, line -> out.append(line).append("\n"), allCompiled::get,
+                            command.toArray(new String[0])).toString());
+        } catch (IOException e) {
+            out.append("Error running intrinsics probe:\n");
+            out.append(ExceptionUtils.getStackTrace(e));
+            out.append("[[End intrinsics probe output]]\n\n");
+            return;
+        }
+
+        out.append("Intrinsics compiled into crypto code:\n");
+        for (String intrinsic : compiledIntrinsics) {
+            out.append("    ").append(intrinsic).append("\n");
+        }
+        out.append(String.format("[[ aes block: %b ctr: %b ghash: %b]]\n",
+                compiledAny(compiledIntrinsics, AES_BLOCK_INTRINSICS),
+                compiledAny(compiledIntrinsics, CTR_INTRINSICS),
+                compiledAny(compiledIntrinsics, GHASH_INTRINSICS)));
+        out.append("[[End intrinsics probe output]]\n\n");
+    }
+}
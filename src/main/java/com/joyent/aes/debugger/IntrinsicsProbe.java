@@ -0,0 +1,35 @@
+package com.joyent.aes.debugger;
+
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * Entry point for the child JVM launched by {@link IntrinsicsChecker}. It
+ * runs a short SunJCE cipher loop per transformation, long enough for C2 to
+ * compile the AES code paths so that the parent can see which intrinsics
+ * were used; the parent stops it as soon as they all have been. Results
+ * go to stderr, as -XX:+PrintIntrinsics has the JIT write to stdout at any
+ * moment and would split the lines.
+ */
+public class IntrinsicsProbe {
+    static final int BUFFER_SIZE = 1024;
+
+    public static void main(final String[] argv) throws GeneralSecurityException {
+        final Provider provider = Security.getProvider("SunJCE");
+
+        if (provider == null) {
+            System.err.println("SunJCE provider is not installed");
+            System.exit(1);
+        }
+
+        final CipherBenchmark benchmark = new CipherBenchmark(
+                Long.getLong("aes.debugger.intrinsics.warmup.ms", 800L), 50L);
+
+        for (String transformation : CipherBenchmark.TRANSFORMATIONS) {
+            CipherBenchmark.Result result = benchmark.run(provider, transformation, BUFFER_SIZE);
+            System.err.printf("[[probe %s: %.1f MB/s]]\n", transformation,
+                    result.steadyState.megabytesPerSecond());
+        }
+    }
+}
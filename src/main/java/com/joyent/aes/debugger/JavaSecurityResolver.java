@@ -0,0 +1,463 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the java.security configuration a JVM actually runs with: the
+ * master file from its known location under java.home, any files it
+ * includes, and the file named by -Djava.security.properties when the
+ * master file allows overrides. Results are cached in memory, and on disk
+ * when a cache directory is configured, keyed on the modification time and
+ * size of every file that was looked at, so a repeated run only has to stat
+ * them. The disk cache is opt-in so that nothing is written by default,
+ * least of all from inside a JVM the agent is attached to.
+ */
+final class JavaSecurityResolver {
+    // Java 9 and later, then a Java 8 JRE home, then a Java 8 JDK home
+    static final String[] MASTER_LOCATIONS = new String[] {
+            "conf/security/java.security",
+            "lib/security/java.security",
+            "jre/lib/security/java.security"
+    };
+
+    static final String PROVIDER_PREFIX = "security.provider.";
+
+    private static final String CACHE_FILE_PREFIX = "java-security-";
+    private static final int MAX_INCLUDE_DEPTH = 8;
+    private static final Pattern INCLUDE = Pattern.compile("^include\\s+(.+)$");
+    private static final Pattern PROPERTY_REFERENCE = Pattern.compile("\\$\\{([^}]+)}");
+
+    private static volatile Settings memo;
+
+    private JavaSecurityResolver() {
+    }
+
+    /**
+     * The settings of this JVM.
+     */
+    static Settings resolve() throws IOException {
+        return resolve(System.getProperty("java.home"), System.getProperty("java.security.properties"),
+                cacheDirectory());
+    }
+
+    /**
+     * @param overrides the value of java.security.properties, or null
+     * @param cacheDirectory where to keep the on-disk cache, or null for none
+     */
+    static Settings resolve(final String javaHome, final String overrides,
+                            final File cacheDirectory) throws IOException {
+        final String context = javaHome + "\n" + Objects.toString(overrides, "");
+
+        final Settings remembered = memo;
+        if (remembered != null && remembered.context.equals(context) && remembered.isCurrent()) {
+            return remembered;
+        }
+
+        final Settings cached = readCache(cacheDirectory, context);
+        if (cached != null && cached.isCurrent()) {
+            memo = cached;
+            return cached;
+        }
+
+        final Settings settings = new Settings(context);
+        Path master = null;
+
+        for (String location : MASTER_LOCATIONS) {
+            final Path candidate = Paths.get(javaHome, location);
+            settings.stamp(candidate);
+
+            if (Files.isRegularFile(candidate)) {
+                master = candidate;
+                break;
+            }
+        }
+
+        if (master == null) {
+            settings.notes.add("No java.security found under " + javaHome);
+        } else {
+            load(settings, master, overrides, javaHome);
+        }
+
+        writeCache(cacheDirectory, settings);
+        memo = settings;
+
+        return settings;
+    }
+
+    /**
+     * Resolves from a known master file, without caching.
+     */
+    static Settings resolve(final Path master, final String overrides) throws IOException {
+        final Settings settings = new Settings("");
+        load(settings, master, overrides, System.getProperty("java.home"));
+        return settings;
+    }
+
+    private static void load(final Settings settings, final Path master, final String overrides,
+                             final String javaHome) throws IOException {
+        settings.masterFile = master;
+        loadFile(settings, master, javaHome, new HashSet<>(), 0);
+
+        if (StringUtils.isBlank(overrides)) {
+            return;
+        }
+
+        // -Djava.security.properties==file arrives here as "=file" and replaces the master file
+        final boolean replace = overrides.startsWith("=");
+        final String location = expand(replace ? overrides.substring(1) : overrides, javaHome);
+
+        if (!"true".equalsIgnoreCase(settings.properties.get("security.overridePropertiesFile"))) {
+            settings.notes.add(String.format("java.security.properties=%s is ignored because "
+                    + "security.overridePropertiesFile is not true", overrides));
+            return;
+        }
+
+        final Path overrideFile = toPath(location);
+        if (overrideFile == null) {
+            settings.notes.add("java.security.properties is not a local file and was not read: " + location);
+            return;
+        }
+
+        if (replace) {
+            settings.properties.clear();
+            settings.notes.add(overrideFile + " replaces the master file");
+        }
+
+        loadFile(settings, overrideFile, javaHome, new HashSet<>(), 0);
+    }
+
+    private static void loadFile(final Settings settings, final Path file, final String javaHome,
+                                 final Set<Path> including, final int depth) throws IOException {
+        settings.stamp(file);
+
+        if (!Files.isReadable(file)) {
+            settings.notes.add("Can't read: " + file);
+            return;
+        }
+
+        final Path real = file.toRealPath();
+        if (!including.add(real)) {
+            settings.notes.add("Include cycle through " + file + " was not followed");
+            return;
+        }
+
+        settings.files.add(file);
+
+        // Security properties files are read as ISO-8859-1, like Properties.load(InputStream)
+        final String contents;
+        try (Probe probe = Probe.start(Probe.FILE, file.toString())) {
+            final byte[] bytes = Files.readAllBytes(file);
+            probe.bytes(bytes.length);
+            contents = new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        for (String line : logicalLines(contents)) {
+            final Matcher include = INCLUDE.matcher(line);
+
+            if (include.matches()) {
+                Path included = Paths.get(expand(include.group(1).trim(), javaHome));
+                if (!included.isAbsolute()) {
+                    included = file.toAbsolutePath().getParent().resolve(included);
+                }
+
+                if (depth + 1 > MAX_INCLUDE_DEPTH) {
+                    settings.notes.add("Includes nested too deeply at " + included);
+                } else {
+                    loadFile(settings, included, javaHome, including, depth + 1);
+                }
+                continue;
+            }
+
+            final Properties properties = new Properties();
+            properties.load(new StringReader(line));
+
+            for (String key : properties.stringPropertyNames()) {
+                settings.properties.put(key, properties.getProperty(key));
+            }
+        }
+
+        including.remove(real);
+    }
+
+    /**
+     * Joins backslash continued lines and drops blank lines and comments.
+     */
+    private static List<String> logicalLines(final String contents) {
+        final List<String> lines = new ArrayList<>();
+        final StringBuilder logical = new StringBuilder();
+
+        for (String raw : contents.split("\r?\n|\r")) {
+            final String line = logical.length() > 0 ? StringUtils.stripStart(raw, null) : raw.trim();
+
+            if (logical.length() == 0 && (line.isEmpty() || line.startsWith("#") || line.startsWith("!"))) {
+                continue;
+            }
+
+            if (endsWithContinuation(line)) {
+                logical.append(line, 0, line.length() - 1);
+                continue;
+            }
+
+            logical.append(line);
+            lines.add(logical.toString());
+            logical.setLength(0);
+        }
+
+        if (logical.length() > 0) {
+            lines.add(logical.toString());
+        }
+
+        return lines;
+    }
+
+    private static boolean endsWithContinuation(final String line) {
+        int backslashes = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    /**
+     * Expands ${property} references the way the JDK does for these paths,
+     * using the given java.home rather than this JVM's.
+     */
+    static String expand(final String value, final String javaHome) {
+        final Matcher matcher = PROPERTY_REFERENCE.matcher(value);
+        final StringBuffer expanded = new StringBuffer();
+
+        while (matcher.find()) {
+            final String name = matcher.group(1);
+            final String replacement = name.equals("java.home") ? javaHome : System.getProperty(name);
+            matcher.appendReplacement(expanded,
+                    Matcher.quoteReplacement(replacement == null ? matcher.group() : replacement));
+        }
+        matcher.appendTail(expanded);
+
+        return expanded.toString();
+    }
+
+    private static Path toPath(final String location) {
+        if (location.startsWith("file:")) {
+            try {
+                return Paths.get(new URI(location));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        // Other URL schemes would need a network fetch
+        if (location.matches("^[a-zA-Z][a-zA-Z0-9+.-]+:.*") && !new File(location).exists()) {
+            return null;
+        }
+
+        return Paths.get(location);
+    }
+
+    private static File cacheDirectory() {
+        final String configured = System.getProperty("aes.debugger.cache.dir");
+
+        return configured == null || configured.isEmpty() ? null : new File(configured);
+    }
+
+    // One cache file per java.home and override, so several JDKs on a host don't evict each other
+    private static File cacheFile(final File cacheDirectory, final String context) {
+        return new File(cacheDirectory, CACHE_FILE_PREFIX + Integer.toHexString(context.hashCode()) + ".properties");
+    }
+
+    private static Settings readCache(final File cacheDirectory, final String context) {
+        if (cacheDirectory == null) {
+            return null;
+        }
+
+        final File cacheFile = cacheFile(cacheDirectory, context);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        final Properties cache = new Properties();
+        try (Probe probe = Probe.start(Probe.FILE, cacheFile.toString());
+             InputStream in = Files.newInputStream(cacheFile.toPath())) {
+            cache.load(in);
+            probe.bytes(cacheFile.length());
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+
+        if (!context.equals(cache.getProperty("context"))) {
+            return null;
+        }
+
+        try {
+            final Settings settings = new Settings(context);
+            settings.fromCache = true;
+
+            final String master = cache.getProperty("master");
+            settings.masterFile = master == null ? null : Paths.get(master);
+
+            for (int i = 0; cache.containsKey("stamp." + i + ".path"); i++) {
+                settings.stamps.put(cache.getProperty("stamp." + i + ".path"), new long[] {
+                        Long.parseLong(cache.getProperty("stamp." + i + ".mtime")),
+                        Long.parseLong(cache.getProperty("stamp." + i + ".size"))
+                });
+            }
+            for (int i = 0; cache.containsKey("file." + i); i++) {
+                settings.files.add(Paths.get(cache.getProperty("file." + i)));
+            }
+            for (int i = 0; cache.containsKey("note." + i); i++) {
+                settings.notes.add(cache.getProperty("note." + i));
+            }
+            for (String key : cache.stringPropertyNames()) {
+                if (key.startsWith("property.")) {
+                    settings.properties.put(key.substring("property.".length()), cache.getProperty(key));
+                }
+            }
+
+            return settings;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void writeCache(final File cacheDirectory, final Settings settings) {
+        if (cacheDirectory == null) {
+            return;
+        }
+
+        final Properties cache = new Properties();
+        cache.setProperty("context", settings.context);
+        if (settings.masterFile != null) {
+            cache.setProperty("master", settings.masterFile.toString());
+        }
+
+        int i = 0;
+        for (Map.Entry<String, long[]> stamp : settings.stamps.entrySet()) {
+            cache.setProperty("stamp." + i + ".path", stamp.getKey());
+            cache.setProperty("stamp." + i + ".mtime", Long.toString(stamp.getValue()[0]));
+            cache.setProperty("stamp." + i + ".size", Long.toString(stamp.getValue()[1]));
+            i++;
+        }
+        for (i = 0; i < settings.files.size(); i++) {
+            cache.setProperty("file." + i, settings.files.get(i).toString());
+        }
+        for (i = 0; i < settings.notes.size(); i++) {
+            cache.setProperty("note." + i, settings.notes.get(i));
+        }
+        for (Map.Entry<String, String> property : settings.properties.entrySet()) {
+            cache.setProperty("property." + property.getKey(), property.getValue());
+        }
+
+        // The cache is only an optimisation, so failing to write it is not an error
+        try {
+            Files.createDirectories(cacheDirectory.toPath());
+            final Path temp = Files.createTempFile(cacheDirectory.toPath(), CACHE_FILE_PREFIX, ".tmp");
+
+            try (Probe probe = Probe.start(Probe.FILE, temp.toString());
+                 CountingOutputStream out = new CountingOutputStream(Files.newOutputStream(temp))) {
+                cache.store(out, "Resolved java.security settings, see JavaSecurityResolver");
+                probe.bytes(out.getByteCount());
+            }
+
+            Files.move(temp, cacheFile(cacheDirectory, settings.context).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+    }
+
+    static final class Settings {
+        final String context;
+        // Modification time and size of every path looked at, -1 when missing
+        final Map<String, long[]> stamps = new LinkedHashMap<>();
+        final List<Path> files = new ArrayList<>();
+        final List<String> notes = new ArrayList<>();
+        final Map<String, String> properties = new LinkedHashMap<>();
+        Path masterFile;
+        boolean fromCache;
+
+        Settings(final String context) {
+            this.context = context;
+        }
+
+        void stamp(final Path path) {
+            final File file = path.toFile();
+            stamps.put(path.toString(), new long[] {
+                    file.exists() ? file.lastModified() : -1L, file.exists() ? file.length() : -1L
+            });
+        }
+
+        boolean isCurrent() {
+            for (Map.Entry<String, long[]> stamp : stamps.entrySet()) {
+                final File file = new File(stamp.getKey());
+                final long mtime = file.exists() ? file.lastModified() : -1L;
+                final long size = file.exists() ? file.length() : -1L;
+
+                if (mtime != stamp.getValue()[0] || size != stamp.getValue()[1]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * The providers in the order the JVM installs them. Like the JDK, the
+         * list stops at the first missing or empty security.provider.N.
+         */
+        List<LibnssChecker.ProviderLine> providers() {
+            final List<LibnssChecker.ProviderLine> providers = new ArrayList<>();
+
+            for (int rank = 1; ; rank++) {
+                final String value = properties.get(PROVIDER_PREFIX + rank);
+
+                if (StringUtils.isBlank(value)) {
+                    return providers;
+                }
+
+                providers.add(LibnssChecker.ProviderLine.parse(PROVIDER_PREFIX + rank + "=" + value.trim()));
+            }
+        }
+
+        /**
+         * Provider entries the JVM never reaches because of a gap in the numbering.
+         */
+        List<String> unreachableProviders() {
+            final int reachable = providers().size();
+            final List<String> unreachable = new ArrayList<>();
+
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                final String suffix = StringUtils.removeStart(property.getKey(), PROVIDER_PREFIX);
+
+                if (!suffix.equals(property.getKey()) && StringUtils.isNumeric(suffix)
+                        && Integer.parseInt(suffix) > reachable) {
+                    unreachable.add(property.getKey() + "=" + property.getValue());
+                }
+            }
+
+            return unreachable;
+        }
+    }
+}
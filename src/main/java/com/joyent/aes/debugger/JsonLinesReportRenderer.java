@@ -0,0 +1,155 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Renders every record as one JSON object per line so that reports can be
+ * ingested without scraping the free text. Verdicts are also printed to the
+ * console as they are in the text form.
+ */
+class JsonLinesReportRenderer implements ReportRenderer {
+    private final Writer out;
+    private final PrintStream console;
+    private final StringBuilder line = new StringBuilder(256);
+
+    JsonLinesReportRenderer(final Writer writer, final PrintStream console) {
+        this.out = writer;
+        this.console = console;
+    }
+
+    @Override
+    public void render(final ReportRecord record) throws IOException {
+        line.setLength(0);
+        line.append("{\"type\":");
+        appendString(line, record.type.name().toLowerCase(Locale.ROOT));
+        line.append(",\"checker\":");
+        appendString(line, record.checker);
+
+        if (record.key != null) {
+            line.append(",\"key\":");
+            appendString(line, record.key);
+        }
+
+        if (record.label != null) {
+            line.append(",\"label\":");
+            appendString(line, record.label);
+        }
+
+        line.append(",\"value\":");
+        if (record.type == ReportRecord.Type.TEXT) {
+            appendString(line, StringUtils.removeEnd((String) record.value, "\n"));
+        } else {
+            appendValue(line, record.value);
+        }
+        line.append("}\n");
+
+        out.append(line);
+
+        if (record.type == ReportRecord.Type.VERDICT) {
+            console.printf("%s: %s\n", record.label, record.value);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+        console.flush();
+    }
+
+    static void appendValue(final StringBuilder builder, final Object value) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof Boolean) {
+            builder.append(value.toString());
+        } else if (value instanceof Double || value instanceof Float) {
+            final double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                builder.append("null");
+            } else {
+                builder.append(value.toString());
+            }
+        } else if (value instanceof Number) {
+            builder.append(value.toString());
+        } else if (value instanceof Map) {
+            builder.append('{');
+            final Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) value).entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<?, ?> entry = entries.next();
+                appendString(builder, String.valueOf(entry.getKey()));
+                builder.append(':');
+                appendValue(builder, entry.getValue());
+                if (entries.hasNext()) {
+                    builder.append(',');
+                }
+            }
+            builder.append('}');
+        } else if (value instanceof Collection) {
+            builder.append('[');
+            final Iterator<?> items = ((Collection<?>) value).iterator();
+            while (items.hasNext()) {
+                appendValue(builder, items.next());
+                if (items.hasNext()) {
+                    builder.append(',');
+                }
+            }
+            builder.append(']');
+        } else if (value.getClass().isArray()) {
+            builder.append('[');
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                appendValue(builder, Array.get(value, i));
+            }
+            builder.append(']');
+        } else {
+            appendString(builder, value.toString());
+        }
+    }
+
+    static void appendString(final StringBuilder builder, final String value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,40 @@
+package com.joyent.aes.debugger;
+
+import java.util.Arrays;
+
+/**
+ * The distribution of a set of timed operations, such as cipher lookups,
+ * handshakes or SecureRandom calls, summarised as percentiles.
+ */
+final class Latency {
+    final String phase;
+    final int samples;
+    private final long[] sorted;
+
+    Latency(final String phase, final long[] nanos) {
+        this.phase = phase;
+        this.samples = nanos.length;
+        this.sorted = nanos.clone();
+        Arrays.sort(sorted);
+    }
+
+    /**
+     * Nearest-rank percentile.
+     */
+    double percentileMicros(final int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1_000.0;
+    }
+
+    double p50Micros() {
+        return percentileMicros(50);
+    }
+
+    double p99Micros() {
+        return percentileMicros(99);
+    }
+
+    double maxMicros() {
+        return sorted[sorted.length - 1] / 1_000.0;
+    }
+}
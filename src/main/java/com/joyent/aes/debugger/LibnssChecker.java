@@ -1,98 +1,183 @@
 package com.joyent.aes.debugger;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Scanner;
+import java.util.Set;
 
 public class LibnssChecker implements Checkable {
+    private final Report report;
     private final Writer out;
+    static final String[] NSS_PACKAGES = new String[] { "libnss3", "libnspr4" };
 
-    public LibnssChecker(final Writer writer) {
-        this.out = writer;
+    static final String[] RPM_DATABASES = new String[] {
+            "/var/lib/rpm/rpmdb.sqlite", "/var/lib/rpm/Packages.db", "/var/lib/rpm/Packages",
+            "/usr/lib/sysimage/rpm/rpmdb.sqlite"
+    };
+
+    // libnss3 embeds its version as "Version: NSS 3.87.1"
+    private static final String NSS_VERSION_PREFIX = "Version: NSS ";
+
+    // Supported by every NSS softoken that SunPKCS11 can drive
+    private static final String LOAD_CHECK_TRANSFORMATION = "AES/ECB/NoPadding";
+
+    private final boolean queryPackages;
+    private final boolean loadProviders;
+
+    public LibnssChecker(final Report report) {
+        this(report, true, true);
+    }
+
+    /**
+     * @param queryPackages whether to look up the installed libnss packages,
+     *                      which the agent skips inside a live JVM
+     * @param loadProviders whether to instantiate SunPKCS11 from each NSS
+     *                      config, which initialises NSS in this process
+     */
+    LibnssChecker(final Report report, final boolean queryPackages, final boolean loadProviders) {
+        this.report = report;
+        this.out = report.text();
+        this.queryPackages = queryPackages;
+        this.loadProviders = loadProviders;
     }
 
     @Override
     public void check() throws IOException {
-        logLibNssPackage();
-        System.out.printf("Libnss configured in java security settings: %b\n",
+        if (queryPackages) {
+            logLibNssPackage();
+        }
+        report.verdict("nss.java.security", "Libnss configured in java security settings",
                 detectLibNssInJavaSecuritySettings());
     }
 
-    @SuppressWarnings("Duplicates")
     private void logLibNssPackage() throws IOException {
         out.append("[[Libnss package details]]\n");
 
-        ProcessBuilder processBuilder = new ProcessBuilder()
-                .command("dpkg", "-s", "libnss3");
+        final List<Map<String, Object>> packages = new ArrayList<>();
+        final File dpkgStatus = new File(DpkgStatusReader.STATUS_PATH);
 
-        Process process;
-
-        try {
-            process = processBuilder.start();
+        if (dpkgStatus.canRead()) {
+            logDpkgPackages(dpkgStatus, packages);
+        } else {
+            logInstalledNssLibraries(packages);
+        }
 
-            if (process.waitFor() > 0) {
-                out.append(String.format("dpkg exited with code %d\n",
-                        process.exitValue()));
-            }
+        out.append("[[End libnss package details]]\n\n");
 
-            IOUtils.copy(process.getInputStream(), out, StandardCharsets.UTF_8);
+        report.fact("nss.packages", packages);
+    }
 
-            out.append("[[End libnss package details]]\n\n");
+    private void logDpkgPackages(final File dpkgStatus,
+                                 final List<Map<String, Object>> packages) throws IOException {
+        out.append(String.format("[[ package source: %s]]\n", dpkgStatus));
 
-            return;
-        } catch (IOException e) {
-            out.append("Error running dpkg:\n");
+        final List<Map<String, String>> stanzas;
+        try {
+            stanzas = new DpkgStatusReader(Arrays.asList(NSS_PACKAGES)).read(dpkgStatus.toPath());
+        } catch (IOException | RuntimeException e) {
+            out.append("Error reading dpkg status:\n");
             out.append(ExceptionUtils.getStackTrace(e));
-        } catch (InterruptedException e) {
-            System.exit(0);
+            return;
         }
 
-        processBuilder = new ProcessBuilder()
-                .command("yum", "info", "nss", "binutils");
+        if (stanzas.isEmpty()) {
+            out.append(String.format("None of %s are installed\n", StringUtils.join(NSS_PACKAGES, ", ")));
+        }
 
-        try {
-            process = processBuilder.start();
+        for (Map<String, String> stanza : stanzas) {
+            for (Map.Entry<String, String> field : stanza.entrySet()) {
+                out.append(field.getKey()).append(": ").append(field.getValue()).append("\n");
+            }
+            out.append("\n");
+
+            Map<String, Object> packageFact = new LinkedHashMap<>();
+            packageFact.put("source", "dpkg");
+            packageFact.put("package", stanza.get("Package"));
+            packageFact.put("version", stanza.get("Version"));
+            packageFact.put("architecture", stanza.get("Architecture"));
+            packageFact.put("status", stanza.get("Status"));
+            packages.add(packageFact);
+        }
+    }
 
-            if (process.waitFor() > 0) {
-                out.append(String.format("yum exited with code %d\n",
-                        process.exitValue()));
+    /**
+     * Reading the RPM database would mean parsing Berkeley DB, NDB or SQLite
+     * files, and asking yum reaches out to the repositories, so on hosts
+     * without dpkg the NSS version and architecture come from the installed
+     * libnss3 itself.
+     */
+    private void logInstalledNssLibraries(final List<Map<String, Object>> packages) throws IOException {
+        for (String rpmDatabase : RPM_DATABASES) {
+            if (new File(rpmDatabase).exists()) {
+                out.append(String.format("[[ package source: installed libraries, rpm database at %s]]\n",
+                        rpmDatabase));
             }
+        }
 
-            IOUtils.copy(process.getInputStream(), out, StandardCharsets.UTF_8);
+        // /lib is often a symlink to /usr/lib, so only report each file once
+        final Set<String> seen = new HashSet<>();
 
-            out.append("[[End libnss package details]]\n\n");
+        for (String directory : NssLibraryInspector.SYSTEM_LIBRARY_DIRECTORIES) {
+            final File library = new File(directory, NssLibraryInspector.LIBNSS);
 
-            return;
-        } catch (IOException e) {
-            out.append("Error running yum:\n");
-            out.append(ExceptionUtils.getStackTrace(e));
-        } catch (InterruptedException e) {
-            System.exit(0);
+            if (!library.exists() || !seen.add(library.getCanonicalPath())) {
+                continue;
+            }
+
+            final ElfFile elf;
+            try {
+                elf = ElfFile.open(library.toPath());
+            } catch (IOException | RuntimeException e) {
+                out.append(String.format("Error reading %s:\n", library));
+                out.append(ExceptionUtils.getStackTrace(e));
+                continue;
+            }
+
+            final String version = elf.stringAfter(NSS_VERSION_PREFIX);
+            out.append(String.format("%s: NSS %s (%s)\n", library,
+                    Objects.toString(version, "unknown version"), elf.machineName()));
+
+            Map<String, Object> packageFact = new LinkedHashMap<>();
+            packageFact.put("source", "library");
+            packageFact.put("package", "nss");
+            packageFact.put("version", version);
+            packageFact.put("architecture", elf.machineName());
+            packageFact.put("path", library.getPath());
+            packages.add(packageFact);
         }
 
-        out.append("[[End libnss package details]]\n\n");
+        if (packages.isEmpty()) {
+            out.append(String.format("No %s found in %s\n", NssLibraryInspector.LIBNSS,
+                    StringUtils.join(NssLibraryInspector.SYSTEM_LIBRARY_DIRECTORIES, ", ")));
+        }
     }
 
     private boolean detectLibNssInJavaSecuritySettings() throws IOException {
         out.append("[[Security settings file]]\n");
 
-        Optional<Path> settingsPath;
+        JavaSecurityResolver.Settings settings;
 
         try {
-            settingsPath = findJavaSecurityFilePath();
+            settings = JavaSecurityResolver.resolve();
         } catch (IOException | RuntimeException e) {
             out.append(String.format("Error finding java.security file\n"));
             out.append(ExceptionUtils.getStackTrace(e));
@@ -100,78 +185,119 @@ public class LibnssChecker implements Checkable {
             return false;
         }
 
-        if (!settingsPath.isPresent()) {
+        if (settings.masterFile == null) {
             out.append(String.format("Couldn't find java.security file\n"));
+            for (String note : settings.notes) {
+                out.append(note).append("\n");
+            }
             return false;
         }
 
-        File settingsFile = settingsPath.get().toFile();
+        return scanJavaSecuritySettings(settings);
+    }
 
-        if (!settingsFile.exists()) {
-            out.append(String.format("%s doesn't exist\n", settingsFile));
-            return false;
+    boolean scanJavaSecuritySettings(final JavaSecurityResolver.Settings settings) throws IOException {
+        int nssProviderRank = -1;
+        List<NSSConfig> nssConfigs = new ArrayList<>();
+
+        for (Path file : settings.files) {
+            if (!file.equals(settings.masterFile)) {
+                out.append(String.format("[[ also read: %s]]\n", file));
+            }
+
+            try (Probe probe = Probe.start(Probe.FILE, file.toString())) {
+                final byte[] bytes = Files.readAllBytes(file);
+                probe.bytes(bytes.length);
+                String contents = new String(bytes, StandardCharsets.ISO_8859_1);
+                out.append(contents);
+                if (!contents.endsWith("\n")) {
+                    out.append("\n");
+                }
+            } catch (IOException e) {
+                out.append(String.format("Can't read: %s\n", file));
+            }
         }
 
-        if (!settingsFile.canRead()) {
-            out.append(String.format("Can't read: %s\n", settingsFile));
-            return false;
+        out.append("[[End security settings file]]\n\n");
+
+        final List<ProviderLine> providers = settings.providers();
+        final List<String> providerFacts = new ArrayList<>();
+
+        out.append(String.format("[[Start effective security providers: %s%s]]\n",
+                settings.masterFile, settings.fromCache ? " (cached)" : ""));
+        for (String note : settings.notes) {
+            out.append("# ").append(note).append("\n");
+        }
+        for (ProviderLine provider : providers) {
+            String value = StringUtils.isBlank(provider.config)
+                    ? provider.name : provider.name + " " + provider.config;
+            out.append(JavaSecurityResolver.PROVIDER_PREFIX).append(Integer.toString(provider.rank))
+               .append("=").append(value).append("\n");
+            providerFacts.add(value);
         }
+        for (String unreachable : settings.unreachableProviders()) {
+            out.append("# unreachable after a gap in the numbering: ").append(unreachable).append("\n");
+        }
+        out.append("[[End effective security providers]]\n\n");
 
-        boolean foundLibNssDefinition = false;
-        int nssProviderRank = -1;
-        List<NSSConfig> nssConfigs = new ArrayList<>();
+        for (ProviderLine providerLine : providers) {
+            if (!providerLine.isPkcs11()) {
+                continue;
+            }
 
-        try (Scanner scanner = new Scanner(settingsFile)) {
-            String line;
-            while (scanner.hasNextLine()) {
-                line = scanner.nextLine();
-                out.append(line).append("\n");
+            // Without a config the provider is never configured, so it can't be NSS
+            if (StringUtils.isBlank(providerLine.config)) {
+                continue;
+            }
 
-                if (line.startsWith("#")) {
-                    continue;
-                }
+            NSSConfig nssConfig;
 
-                // First, see if a PKCS11 provider is specified
-                if (line.contains("sun.security.pkcs11.SunPKCS11")) {
-                    // See if we can parse the line
-                    try {
-                        ProviderLine providerLine = ProviderLine.parse(line);
-                        // If it has a config specified, then it is probably a NSS provider
-                        if (StringUtils.isNotBlank(providerLine.config)) {
-                            NSSConfig nssConfig;
-
-                            // Try to parse the config file to see if it is a NSS provider
-                            try {
-                                nssConfig = NSSConfig.parseFromFilePath(providerLine.config);
-                            } catch (RuntimeException e) {
-                                out.append("Error parsing NSS config file\n");
-                                out.append(ExceptionUtils.getStackTrace(e));
-                                continue;
-                            }
-
-                            // We always add it to the list of configs, so that we can dump its contents
-                            nssConfigs.add(nssConfig);
-
-                            foundLibNssDefinition = nssConfig.nssLibraryInstalled;
-
-                            if (foundLibNssDefinition && nssProviderRank < 0) {
-                                nssProviderRank = providerLine.rank;
-                            }
-                        } else {
-                            foundLibNssDefinition = false;
-                        }
-                    } catch (RuntimeException e) {
-                        out.append("Problem parsing provider\n");
-                        out.append(ExceptionUtils.getStackTrace(e));
-                    }
-                }
+            // Try to parse the config file to see if it is a NSS provider
+            try {
+                nssConfig = NSSConfig.parseFromFilePath(
+                        JavaSecurityResolver.expand(providerLine.config, SystemUtils.JAVA_HOME));
+            } catch (IOException | RuntimeException e) {
+                out.append("Error parsing NSS config file\n");
+                out.append(ExceptionUtils.getStackTrace(e));
+                continue;
+            }
+
+            // We always add it to the list of configs, so that we can dump its contents
+            nssConfigs.add(nssConfig);
+
+            if (loadProviders && nssConfig.nssLibraryInstalled) {
+                nssConfig.loadProvider();
+            }
+
+            if (nssConfig.nssLibraryInstalled && nssProviderRank < 0) {
+                nssProviderRank = providerLine.rank;
             }
         }
 
-        out.append("[[End security settings file]]\n\n");
+        final List<String> fileFacts = new ArrayList<>();
+        for (Path file : settings.files) {
+            fileFacts.add(file.toString());
+        }
+
+        report.fact("java.security.files", fileFacts);
+        report.fact("java.security.providers", providerFacts);
+
+        final List<Map<String, Object>> configFacts = new ArrayList<>();
 
         if (!nssConfigs.isEmpty()) {
             for (NSSConfig nssConfig : nssConfigs) {
+                Map<String, Object> configFact = new LinkedHashMap<>();
+                configFact.put("file", nssConfig.file);
+                configFact.put("name", nssConfig.name);
+                configFact.put("nssLibraryDirectory", nssConfig.nssLibraryDirectory);
+                configFact.put("nssLibraryInstalled", nssConfig.nssLibraryInstalled);
+                configFact.put("freebl", nssConfig.nssFreebl);
+                configFact.put("hardwareAes", nssConfig.nssHardwareAes);
+                configFact.put("hardwareClmul", nssConfig.nssHardwareClmul);
+                configFact.put("provider", nssConfig.providerName);
+                configFact.put("providerLoaded", nssConfig.providerLoaded);
+                configFacts.add(configFact);
+
                 out.append(String.format("[[Start nss config: %s]]\n", nssConfig.file));
                 out.append(Objects.toString(nssConfig.contents)).append("\n");
                 out.append("[[End nss config]]\n");
@@ -182,10 +308,13 @@ public class LibnssChecker implements Checkable {
             }
         }
 
-        return foundLibNssDefinition && nssProviderRank == 1;
+        report.fact("nss.configs", configFacts);
+        report.fact("nss.provider.rank", nssProviderRank);
+
+        return nssProviderRank == 1;
     }
 
-    private static class ProviderLine {
+    static class ProviderLine {
         int rank;
         String name;
         String config;
@@ -205,15 +334,28 @@ public class LibnssChecker implements Checkable {
 
             return new ProviderLine(Integer.parseInt(rank), provider, config);
         }
+
+        /**
+         * Java 8 names the provider class, later releases the provider name.
+         */
+        boolean isPkcs11() {
+            return name.equals("sun.security.pkcs11.SunPKCS11") || name.equals("SunPKCS11");
+        }
     }
 
-    private static class NSSConfig {
+    static class NSSConfig {
         String file;
         String name;
         String nssLibraryDirectory;
         String contents;
         String nssLibraryDetail;
         boolean nssLibraryInstalled;
+        String nssFreebl;
+        // Null when unknown, as on machines whose instructions aren't scanned
+        Boolean nssHardwareAes = false;
+        Boolean nssHardwareClmul = false;
+        String providerName;
+        boolean providerLoaded;
 
         static NSSConfig parseFromFilePath(final String nssConfigPath) throws IOException {
             File file = new File(nssConfigPath);
@@ -242,7 +384,7 @@ public class LibnssChecker implements Checkable {
             builder.setLength(0);
 
             if (StringUtils.isNotBlank(config.nssLibraryDirectory)) {
-                config.nssLibraryInstalled = nssLibraryIsInstalled(builder, config.nssLibraryDirectory);
+                config.nssLibraryInstalled = nssLibraryIsInstalled(config, builder);
             } else {
                 config.nssLibraryInstalled = false;
                 config.nssLibraryDetail = "";
@@ -253,74 +395,56 @@ public class LibnssChecker implements Checkable {
             return config;
         }
 
-        @SuppressWarnings("Duplicates")
-        private static boolean nssLibraryIsInstalled(final StringBuilder builder,
-                                                     final String nssLibraryDirectory) throws IOException {
-            File nssLibDir = new File(nssLibraryDirectory);
+        /**
+         * Instantiates SunPKCS11 from this config and checks that it can
+         * initialise an AES cipher, appending the outcome to the detail.
+         */
+        void loadProvider() {
+            StringBuilder builder = new StringBuilder(nssLibraryDetail);
 
-            if (!nssLibDir.exists()) {
-                builder.append(nssLibraryDirectory).append(" does not exist");
-                return false;
+            try {
+                Provider provider = Pkcs11ProviderLoader.load(file, name);
+                providerName = provider.getName();
+
+                Cipher cipher = Cipher.getInstance(LOAD_CHECK_TRANSFORMATION, provider);
+                cipher.init(Cipher.ENCRYPT_MODE,
+                        new SecretKeySpec(new byte[CipherBenchmark.KEY_SIZE_BYTES], "AES"));
+                cipher.doFinal(new byte[CipherBenchmark.KEY_SIZE_BYTES]);
+                providerLoaded = true;
+
+                builder.append(String.format("%s %s and initialised %s\n", providerName,
+                        Pkcs11ProviderLoader.isInstalled(provider) ? "is installed" : "loaded",
+                        LOAD_CHECK_TRANSFORMATION));
+            } catch (GeneralSecurityException | RuntimeException e) {
+                builder.append("Error loading SunPKCS11 from ").append(file).append(":\n");
+                builder.append(ExceptionUtils.getStackTrace(e));
             }
 
-            if (!nssLibDir.canRead()) {
-                builder.append("Can't read: ").append(nssLibraryDirectory);
-                return false;
-            }
-            String libNssPath = nssLibraryDirectory + File.separator + "libnss3.so";
-            File libNss = new File(libNssPath);
+            builder.append(String.format("[[ nss provider: %s loaded: %b]]\n", providerName, providerLoaded));
+            nssLibraryDetail = builder.toString();
+        }
 
-            if (!libNss.exists()) {
-                builder.append(nssLibraryDirectory).append(" does not exist");
-                return false;
-            }
+        private static boolean nssLibraryIsInstalled(final NSSConfig config, final StringBuilder builder) {
+            File nssLibDir = new File(config.nssLibraryDirectory);
 
-            if (!libNss.canRead()) {
-                builder.append("Can't read: ").append(libNss);
+            if (!nssLibDir.exists()) {
+                builder.append(config.nssLibraryDirectory).append(" does not exist");
                 return false;
             }
 
-            ProcessBuilder processBuilder = new ProcessBuilder().command("ldd", libNssPath);
-            Process process;
-
-            try {
-                process = processBuilder.start();
-            } catch (IOException e) {
-                builder.append("Error running ldd:\n");
-                builder.append(ExceptionUtils.getStackTrace(e));
-                builder.append("[[End uname -a output]]\n\n");
+            if (!nssLibDir.canRead()) {
+                builder.append("Can't read: ").append(config.nssLibraryDirectory);
                 return false;
             }
 
-            try {
-                if (process.waitFor() > 0) {
-                    builder.append(String.format("ldd exited with code %d\n",
-                            process.exitValue()));
-                }
-            } catch (InterruptedException e) {
-                System.exit(0);
-            }
+            NssLibraryInspector inspector = new NssLibraryInspector(config.nssLibraryDirectory, builder);
+            boolean installed = inspector.inspect();
 
-            try (Scanner scanner = new Scanner(process.getInputStream())) {
-                while (scanner.hasNextLine()) {
-                    builder.append(scanner.nextLine()).append("\n");
-                }
-            }
+            config.nssFreebl = inspector.freebl;
+            config.nssHardwareAes = inspector.hardwareAes;
+            config.nssHardwareClmul = inspector.hardwareClmul;
 
-            return true;
+            return installed;
         }
     }
-
-    private Optional<Path> findJavaSecurityFilePath() throws IOException {
-        final Path basepath = new File(SystemUtils.JAVA_HOME).toPath();
-        final String filename = "java.security";
-
-        return Files.find(basepath, 8, (p, b) -> {
-            if (b.isDirectory()) {
-                return false;
-            }
-
-            return p.endsWith(filename);
-        }).findFirst();
-    }
 }
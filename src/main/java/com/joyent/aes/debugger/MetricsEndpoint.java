@@ -0,0 +1,203 @@
+package com.joyent.aes.debugger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves what {@link Monitor} last found on /metrics in the Prometheus text
+ * format. The page is rebuilt once per cycle, so a scrape never runs a check.
+ */
+final class MetricsEndpoint {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // Long outcomes, such as a list of kernel drivers, are cut to keep series readable
+    static final int MAX_LABEL_LENGTH = 200;
+
+    private final HttpServer server;
+    private volatile String page = "";
+
+    private MetricsEndpoint(final HttpServer server) {
+        this.server = server;
+    }
+
+    static MetricsEndpoint start(final String host, final int port) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        final MetricsEndpoint endpoint = new MetricsEndpoint(server);
+
+        server.createContext("/metrics", endpoint::serve);
+        server.start();
+
+        return endpoint;
+    }
+
+    String url() {
+        final InetSocketAddress address = server.getAddress();
+        return String.format("http://%s:%d/metrics", address.getHostString(), address.getPort());
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    void publish(final List<Monitor.Watched> watched, final Map<String, Object> throughput,
+                 final double cycleSeconds) {
+        final StringBuilder metrics = new StringBuilder();
+
+        header(metrics, "aes_debugger_verdict_info", "gauge",
+                "The outcome of each verdict that has a fixed set of them");
+        for (Monitor.Watched checker : watched) {
+            for (ReportRecord verdict : checker.verdicts) {
+                final String outcome = outcome(verdict.value);
+                if (outcome != null) {
+                    metrics.append("aes_debugger_verdict_info")
+                           .append(labels("checker", checker.name, "key", verdict.key, "value", outcome))
+                           .append(" 1\n");
+                }
+            }
+        }
+
+        header(metrics, "aes_debugger_verdict", "gauge", "Yes/no verdicts as 1 or 0");
+        for (Monitor.Watched checker : watched) {
+            for (ReportRecord verdict : checker.verdicts) {
+                if (verdict.value instanceof Boolean) {
+                    metrics.append("aes_debugger_verdict")
+                           .append(labels("checker", checker.name, "key", verdict.key))
+                           .append((Boolean) verdict.value ? " 1\n" : " 0\n");
+                }
+            }
+        }
+
+        header(metrics, "aes_debugger_throughput_megabytes_per_second", "gauge",
+                "Steady state throughput of the last sample");
+        synchronized (throughput) {
+            for (Object sample : throughput.values()) {
+                final Map<?, ?> fact = (Map<?, ?>) sample;
+                metrics.append("aes_debugger_throughput_megabytes_per_second")
+                       .append(labels("provider", String.valueOf(fact.get("provider")),
+                               "transformation", String.valueOf(fact.get("transformation")),
+                               "buffer_size", String.valueOf(fact.get("bufferSize"))))
+                       .append(' ').append(number(fact.get("steadyStateMBps"))).append('\n');
+            }
+        }
+
+        header(metrics, "aes_debugger_checker_runs_total", "counter", "Times each checker was run");
+        for (Monitor.Watched checker : watched) {
+            metrics.append("aes_debugger_checker_runs_total").append(labels("checker", checker.name))
+                   .append(' ').append(checker.runs).append('\n');
+        }
+
+        header(metrics, "aes_debugger_checker_skipped_total", "counter",
+                "Cycles each checker was skipped as its inputs were unchanged");
+        for (Monitor.Watched checker : watched) {
+            metrics.append("aes_debugger_checker_skipped_total").append(labels("checker", checker.name))
+                   .append(' ').append(checker.skipped).append('\n');
+        }
+
+        header(metrics, "aes_debugger_checker_last_run_timestamp_seconds", "gauge",
+                "When each checker last ran");
+        for (Monitor.Watched checker : watched) {
+            metrics.append("aes_debugger_checker_last_run_timestamp_seconds")
+                   .append(labels("checker", checker.name))
+                   .append(' ').append(number(checker.lastRunMillis / 1000.0)).append('\n');
+        }
+
+        header(metrics, "aes_debugger_cycle_duration_seconds", "gauge", "How long the last cycle took");
+        metrics.append("aes_debugger_cycle_duration_seconds ").append(number(cycleSeconds)).append('\n');
+
+        header(metrics, "aes_debugger_cycle_timestamp_seconds", "gauge", "When the last cycle finished");
+        metrics.append("aes_debugger_cycle_timestamp_seconds ")
+               .append(number(System.currentTimeMillis() / 1000.0)).append('\n');
+
+        page = metrics.toString();
+    }
+
+    /**
+     * The leading outcome of a verdict such as "OK - AES intrinsics are
+     * enabled" or "yes: seeds from /dev/random", or null for a yes/no verdict,
+     * which has its own gauge, or one carrying numbers, which would start a
+     * new series whenever a measurement moved.
+     */
+    static String outcome(final Object value) {
+        if (!(value instanceof String)) {
+            return null;
+        }
+
+        final String outcome = StringUtils.substringBefore(
+                StringUtils.substringBefore((String) value, " - "), ":").trim();
+
+        return outcome.isEmpty() || StringUtils.containsAny(outcome, "0123456789") ? null : outcome;
+    }
+
+    private void serve(final HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            final byte[] body = page.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void header(final StringBuilder metrics, final String name, final String type,
+                               final String help) {
+        metrics.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        metrics.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Label pairs as name, value, name, value...
+     */
+    static String labels(final String... pairs) {
+        final List<String> labels = new ArrayList<>();
+
+        for (int i = 0; i + 1 < pairs.length; i += 2) {
+            labels.add(pairs[i] + "=\"" + escape(StringUtils.abbreviate(pairs[i + 1], MAX_LABEL_LENGTH)) + "\"");
+        }
+
+        return "{" + String.join(",", labels) + "}";
+    }
+
+    static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String number(final Object value) {
+        if (!(value instanceof Number)) {
+            return "NaN";
+        }
+
+        final double number = ((Number) value).doubleValue();
+        if (Double.isNaN(number)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(number)) {
+            return number > 0 ? "+Inf" : "-Inf";
+        }
+
+        return String.format(Locale.ROOT, "%.3f", number);
+    }
+}
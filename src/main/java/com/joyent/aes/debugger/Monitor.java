@@ -0,0 +1,293 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.output.NullWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Re-evaluates the checkers on a schedule and serves the latest verdicts and
+ * throughput sample as Prometheus metrics. A checker whose inputs haven't
+ * changed since it last ran keeps its verdicts instead of being run again:
+ * files are compared by modification time, size and inode, and what only a
+ * reboot can change, such as /proc/cpuinfo, by the kernel's boot ID. The
+ * report file is only appended to when some input changed.
+ */
+class Monitor {
+    static final String BOOT_ID = "/proc/sys/kernel/random/boot_id";
+    static final String PROC_MODULES = "/proc/modules";
+
+    private final File reportFile;
+    private final String format;
+    private final long intervalMillis;
+    private final long sampleMillis;
+    private final long warmupMillis;
+    private final List<Watched> watched = new ArrayList<>();
+    private final Map<String, Object> throughput = new LinkedHashMap<>();
+
+    Monitor(final File reportFile, final String format) {
+        this.reportFile = reportFile;
+        this.format = format;
+        this.intervalMillis = TimeUnit.SECONDS.toMillis(Long.getLong("aes.debugger.monitor.interval.s", 300L));
+        this.sampleMillis = Long.getLong("aes.debugger.monitor.sample.ms", 200L);
+        this.warmupMillis = Long.getLong("aes.debugger.monitor.warmup.ms", 3000L);
+
+        // Inputs of null mean the checker is cheap enough to run every time; an
+        // empty fingerprint that it only looks at this JVM, which can't change
+        watched.add(new Watched("AesJavaChecker", AesJavaChecker::new, () -> ""));
+        watched.add(new Watched("AesOsChecker", AesOsChecker::new, Monitor::osInputs));
+        watched.add(new Watched("CgroupChecker", CgroupChecker::new, null));
+        watched.add(new Watched("LibnssChecker", report -> new LibnssChecker(report, true, false),
+                Monitor::securityInputs));
+        watched.add(new Watched("SecureRandomChecker", SecureRandomChecker::new, null));
+        watched.add(new Watched("IntrinsicsChecker", IntrinsicsChecker::new, Monitor::jdkInputs));
+        watched.add(new Watched("AesThroughputSampleChecker",
+                report -> new AesThroughputSampleChecker(report, sampleMillis), null));
+    }
+
+    void run() throws IOException {
+        final MetricsEndpoint endpoint = MetricsEndpoint.start(
+                System.getProperty("aes.debugger.monitor.host", "127.0.0.1"),
+                Integer.getInteger("aes.debugger.monitor.port", 9464));
+        System.out.printf("Serving metrics on %s, evaluating every %d s\n", endpoint.url(),
+                TimeUnit.MILLISECONDS.toSeconds(intervalMillis));
+
+        // The sample is too short to reach C2 on its own, and would report interpreter speeds
+        Probe.attribute("Monitor");
+        AesThroughputSampleChecker.warmUp(warmupMillis);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            final long start = System.nanoTime();
+
+            try {
+                cycle();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Monitor cycle failed: " + e);
+            }
+
+            endpoint.publish(watched, throughput, (System.nanoTime() - start) / 1e9);
+
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        endpoint.stop();
+    }
+
+    private void cycle() throws IOException {
+        final List<Watched> due = new ArrayList<>();
+        boolean changed = false;
+
+        for (Watched checker : watched) {
+            final String fingerprint = checker.inputs == null ? null : checker.inputs.fingerprint();
+
+            if (checker.runs == 0 || fingerprint == null || !fingerprint.equals(checker.fingerprint)) {
+                changed |= fingerprint != null;
+                checker.fingerprint = fingerprint;
+                due.add(checker);
+            } else {
+                checker.skipped++;
+            }
+        }
+
+        if (changed) {
+            try (Writer writer = new FileWriter(reportFile, true)) {
+                final ReportRenderer renderer = ReportRenderer.forFormat(format, writer, System.out);
+                ReportRenderer.renderHeader(renderer);
+                run(due, renderer);
+            }
+        } else {
+            run(due, ReportRenderer.forFormat(format, NullWriter.NULL_WRITER,
+                    new PrintStream(NullOutputStream.NULL_OUTPUT_STREAM)));
+        }
+    }
+
+    private void run(final List<Watched> due, final ReportRenderer target) throws IOException {
+        final CapturingRenderer renderer = new CapturingRenderer(target);
+        final CheckRunner runner = new CheckRunner(renderer);
+
+        for (Watched checker : due) {
+            runner.add(checker.factory);
+        }
+        runner.run();
+
+        final long now = System.currentTimeMillis();
+        for (Watched checker : due) {
+            checker.runs++;
+            checker.lastRunMillis = now;
+            checker.verdicts = renderer.verdicts.getOrDefault(checker.name, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Distribution release files, and the boot ID and loaded kernel modules,
+     * which cover /proc/cpuinfo, /proc/crypto, uname and lscpu.
+     */
+    static String osInputs() {
+        final List<Path> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> releases = Files.newDirectoryStream(Paths.get("/etc"), "*-release")) {
+            for (Path release : releases) {
+                files.add(release);
+            }
+        } catch (IOException | RuntimeException e) {
+            // No /etc, as on a copied test tree
+        }
+
+        return String.join("\n", read(BOOT_ID), Integer.toHexString(read(PROC_MODULES).hashCode()),
+                stamps(files));
+    }
+
+    /**
+     * The java.security files, the NSS configs they name and the package
+     * databases NSS is looked up in.
+     */
+    static String securityInputs() {
+        final List<Path> files = new ArrayList<>();
+
+        try {
+            final JavaSecurityResolver.Settings settings = JavaSecurityResolver.resolve();
+            for (String path : settings.stamps.keySet()) {
+                files.add(Paths.get(path));
+            }
+            for (LibnssChecker.ProviderLine provider : settings.providers()) {
+                if (provider.isPkcs11() && StringUtils.isNotBlank(provider.config)) {
+                    files.add(Paths.get(JavaSecurityResolver.expand(provider.config, SystemUtils.JAVA_HOME)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Re-evaluate, the checker reports what went wrong
+            return "unresolved " + System.nanoTime();
+        }
+
+        files.add(Paths.get(DpkgStatusReader.STATUS_PATH));
+        for (String rpmDatabase : LibnssChecker.RPM_DATABASES) {
+            files.add(Paths.get(rpmDatabase));
+        }
+
+        return stamps(files);
+    }
+
+    /**
+     * The JDK the intrinsics probe is launched from, which a package update
+     * replaces in place, and the boot ID for the CPU it runs on.
+     */
+    static String jdkInputs() {
+        final List<Path> files = new ArrayList<>();
+        final Path javaHome = Paths.get(SystemUtils.JAVA_HOME);
+
+        for (String file : new String[] { "release", "bin/java", "lib/modules", "lib/rt.jar" }) {
+            files.add(javaHome.resolve(file));
+        }
+
+        return String.join("\n", read(BOOT_ID), stamps(files));
+    }
+
+    /**
+     * Modification time, size and file key (device and inode on Unix) of each
+     * file, following symlinks.
+     */
+    static String stamps(final List<Path> files) {
+        final StringBuilder stamps = new StringBuilder();
+
+        for (Path file : files) {
+            stamps.append(file).append(' ');
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                stamps.append(attributes.lastModifiedTime().toMillis()).append(' ')
+                      .append(attributes.size()).append(' ')
+                      .append(attributes.fileKey());
+            } catch (IOException e) {
+                stamps.append("missing");
+            }
+            stamps.append('\n');
+        }
+
+        return stamps.toString();
+    }
+
+    private static String read(final String path) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.US_ASCII).trim();
+        } catch (NoSuchFileException e) {
+            return "";
+        } catch (IOException e) {
+            return "unreadable";
+        }
+    }
+
+    /**
+     * Keeps the verdicts and throughput samples for the metrics while passing
+     * every record on to the report.
+     */
+    private class CapturingRenderer implements ReportRenderer {
+        private final ReportRenderer target;
+        final Map<String, List<ReportRecord>> verdicts = new LinkedHashMap<>();
+
+        CapturingRenderer(final ReportRenderer target) {
+            this.target = target;
+        }
+
+        @Override
+        public void render(final ReportRecord record) throws IOException {
+            if (record.type == ReportRecord.Type.VERDICT) {
+                verdicts.computeIfAbsent(record.checker, key -> new ArrayList<>()).add(record);
+            } else if (record.type == ReportRecord.Type.FACT && record.key.equals("throughput.sample")) {
+                synchronized (throughput) {
+                    throughput.put(String.valueOf(((Map<?, ?>) record.value).get("transformation")),
+                            record.value);
+                }
+            }
+
+            target.render(record);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+
+    interface Inputs {
+        String fingerprint();
+    }
+
+    static final class Watched {
+        final String name;
+        final Function<Report, Checkable> factory;
+        final Inputs inputs;
+        String fingerprint;
+        List<ReportRecord> verdicts = new ArrayList<>();
+        long runs;
+        long skipped;
+        long lastRunMillis;
+
+        Watched(final String name, final Function<Report, Checkable> factory, final Inputs inputs) {
+            this.name = name;
+            this.factory = factory;
+            this.inputs = inputs;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the same AES workloads through every NSS provider configured in
+ * java.security, or one loaded for the system libnss3 when none is, and
+ * through SunJCE, over a sweep of buffer sizes, and finds the size from
+ * which NSS keeps up with SunJCE. Each NSS call crosses JNI
+ * and copies the buffers, which dominates small operations; SunJCE on a
+ * current JDK uses the AES and GHASH intrinsics directly.
+ */
+public class NssComparisonChecker implements Checkable {
+    static final int[] BUFFER_SIZES = new int[] {
+            16, 64, 256, 1024, 4096, 16384, 65536, 262144, 1048576
+    };
+
+    static final String SUNJCE = "SunJCE";
+
+    private final Report report;
+    private final Writer out;
+    private final CipherBenchmark benchmark;
+
+    public NssComparisonChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
+        this.benchmark = new CipherBenchmark(
+                Long.getLong("aes.debugger.nss.warmup.ms", 150L),
+                Long.getLong("aes.debugger.nss.measure.ms", 250L));
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        out.append("[[Start NSS vs SunJCE comparison]]\n");
+
+        final Provider sunJce = Security.getProvider(SUNJCE);
+        final List<Provider> nssProviders = loadNssProviders();
+        final List<String> summary = new ArrayList<>();
+
+        if (sunJce == null) {
+            out.append("SunJCE is not installed\n");
+        }
+        if (nssProviders.isEmpty()) {
+            final Provider generated = loadSystemNss();
+            if (generated != null) {
+                nssProviders.add(generated);
+            }
+        }
+
+        if (sunJce != null) {
+            for (Provider nss : nssProviders) {
+                for (String transformation : CipherBenchmark.TRANSFORMATIONS) {
+                    if (!CipherBenchmark.supports(nss, transformation)
+                            || !CipherBenchmark.supports(sunJce, transformation)) {
+                        out.append(String.format("%s: not offered by both %s and %s\n\n",
+                                transformation, nss.getName(), SUNJCE));
+                        continue;
+                    }
+
+                    summary.add(compare(sunJce, nss, transformation));
+                }
+            }
+        }
+
+        out.append("[[End NSS vs SunJCE comparison]]\n\n");
+
+        report.verdict("nss.crossover", "NSS vs SunJCE crossover",
+                summary.isEmpty() ? "nothing to compare" : String.join(", ", summary));
+    }
+
+    private List<Provider> loadNssProviders() throws IOException {
+        final List<Provider> providers = new ArrayList<>();
+        final JavaSecurityResolver.Settings settings = JavaSecurityResolver.resolve();
+
+        for (LibnssChecker.ProviderLine providerLine : settings.providers()) {
+            if (!providerLine.isPkcs11() || StringUtils.isBlank(providerLine.config)) {
+                continue;
+            }
+
+            final String configPath = JavaSecurityResolver.expand(providerLine.config, SystemUtils.JAVA_HOME);
+
+            try {
+                final LibnssChecker.NSSConfig config = LibnssChecker.NSSConfig.parseFromFilePath(configPath);
+
+                if (!config.nssLibraryInstalled) {
+                    continue;
+                }
+
+                final Provider provider = Pkcs11ProviderLoader.load(configPath, config.name);
+                out.append(String.format("%s from %s (security.provider.%d)\n",
+                        provider.getName(), configPath, providerLine.rank));
+                providers.add(provider);
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                out.append(String.format("Error loading SunPKCS11 from %s:\n", configPath));
+                out.append(ExceptionUtils.getStackTrace(e));
+            }
+        }
+
+        out.append("\n");
+        return providers;
+    }
+
+    /**
+     * An NSS provider from a generated config for the system libnss3, for
+     * hosts where java.security configures none.
+     */
+    private Provider loadSystemNss() throws IOException {
+        try {
+            final String config = Pkcs11ProviderLoader.generateNssConfig();
+            if (config == null) {
+                out.append("No NSS provider could be loaded from java.security and libnss3 wasn't found\n\n");
+                return null;
+            }
+
+            final Provider provider = Pkcs11ProviderLoader.load(config, null);
+            out.append(String.format("No NSS provider could be loaded from java.security, loaded %s from %s\n\n",
+                    provider.getName(), config));
+            return provider;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            out.append("Error loading NSS for the system libnss3:\n");
+            out.append(ExceptionUtils.getStackTrace(e));
+            return null;
+        }
+    }
+
+    /**
+     * @return a summary of where NSS catches up with SunJCE
+     */
+    private String compare(final Provider sunJce, final Provider nss,
+                           final String transformation) throws IOException {
+        final double[] sunJceMBps = new double[BUFFER_SIZES.length];
+        final double[] nssMBps = new double[BUFFER_SIZES.length];
+
+        out.append(String.format("%s\n", transformation));
+        out.append(String.format("%10s %14s %14s %8s\n",
+                "buffer", SUNJCE + " MB/s", nss.getName() + " MB/s", "ratio"));
+
+        for (int i = 0; i < BUFFER_SIZES.length; i++) {
+            final int bufferSize = BUFFER_SIZES[i];
+
+            try {
+                sunJceMBps[i] = benchmark.run(sunJce, transformation, bufferSize)
+                        .steadyState.megabytesPerSecond();
+                nssMBps[i] = benchmark.run(nss, transformation, bufferSize)
+                        .steadyState.megabytesPerSecond();
+            } catch (GeneralSecurityException | RuntimeException e) {
+                out.append(String.format("Error benchmarking %s at %d bytes:\n", transformation, bufferSize));
+                out.append(ExceptionUtils.getStackTrace(e));
+                sunJceMBps[i] = Double.NaN;
+                nssMBps[i] = Double.NaN;
+                continue;
+            }
+
+            out.append(String.format("%10d %14.1f %14.1f %8.2f\n", bufferSize, sunJceMBps[i], nssMBps[i],
+                    nssMBps[i] / sunJceMBps[i]));
+
+            final Map<String, Object> fact = new LinkedHashMap<>();
+            fact.put("provider", nss.getName());
+            fact.put("transformation", transformation);
+            fact.put("bufferSize", bufferSize);
+            fact.put("sunJceMBps", sunJceMBps[i]);
+            fact.put("nssMBps", nssMBps[i]);
+            report.fact("nss.comparison", fact);
+        }
+
+        final int crossover = crossover(sunJceMBps, nssMBps);
+        final String outcome;
+
+        if (crossover < 0) {
+            outcome = String.format("%s never faster than %s", nss.getName(), SUNJCE);
+        } else if (crossover == 0) {
+            outcome = String.format("%s faster at every size", nss.getName());
+        } else {
+            outcome = String.format("%s faster from %d bytes", nss.getName(), BUFFER_SIZES[crossover]);
+        }
+
+        out.append(String.format("crossover: %s\n\n", outcome));
+
+        final Map<String, Object> fact = new LinkedHashMap<>();
+        fact.put("provider", nss.getName());
+        fact.put("transformation", transformation);
+        fact.put("crossoverBytes", crossover < 0 ? null : BUFFER_SIZES[crossover]);
+        report.fact("nss.crossover", fact);
+
+        return transformation + " " + outcome;
+    }
+
+    /**
+     * The index of the smallest buffer size from which NSS is at least as
+     * fast as SunJCE at every larger size, or -1 if it never is. Sizes that
+     * failed to run don't count either way.
+     */
+    static int crossover(final double[] baseline, final double[] candidate) {
+        int crossover = -1;
+
+        for (int i = baseline.length - 1; i >= 0; i--) {
+            if (Double.isNaN(baseline[i]) || Double.isNaN(candidate[i])) {
+                continue;
+            }
+            if (candidate[i] < baseline[i]) {
+                break;
+            }
+            crossover = i;
+        }
+
+        return crossover;
+    }
+}
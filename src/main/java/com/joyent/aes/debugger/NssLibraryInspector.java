@@ -0,0 +1,199 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Inspects the NSS libraries in an nssLibraryDirectory by reading their ELF
+ * headers in-process, rather than forking ldd for each config. Besides
+ * checking that libnss3 and libsoftokn3 load their dependencies, it looks
+ * into freebl, where NSS keeps its cipher implementations, for the AES and
+ * carry-less multiply instructions that hardware accelerated AES-GCM needs.
+ */
+final class NssLibraryInspector {
+    static final String LIBNSS = "libnss3.so";
+    static final String LIBSOFTOKN = "libsoftokn3.so";
+
+    // Newer NSS builds keep the ciphers in freeblpriv3 and leave freebl3 a stub
+    static final String[] LIBFREEBL = new String[] { "libfreeblpriv3.so", "libfreebl3.so" };
+
+    // freebl only reads these switches when it was built with the accelerated code
+    static final String HW_AES_SWITCH = "NSS_DISABLE_HW_AES";
+    static final String PCLMUL_SWITCH = "NSS_DISABLE_PCLMUL";
+
+    // Older freebl builds export their hardware code paths by name
+    private static final Pattern HARDWARE_EXPORT = Pattern.compile(
+            "(?i)intel_aes|aesni|aes_?hw|clmul|gcm_?hw");
+
+    // Directories searched for DT_NEEDED entries after the NSS directory itself
+    static final List<String> SYSTEM_LIBRARY_DIRECTORIES = Arrays.asList(
+            "/lib64", "/usr/lib64", "/lib/x86_64-linux-gnu", "/usr/lib/x86_64-linux-gnu",
+            "/lib/aarch64-linux-gnu", "/usr/lib/aarch64-linux-gnu",
+            "/lib/powerpc64le-linux-gnu", "/usr/lib/powerpc64le-linux-gnu",
+            "/lib/s390x-linux-gnu", "/usr/lib/s390x-linux-gnu", "/lib", "/usr/lib");
+
+    private final String directory;
+    private final StringBuilder detail;
+
+    // Null when freebl's instructions couldn't be scanned and nothing else tells
+    Boolean hardwareAes;
+    Boolean hardwareClmul;
+    long aesInstructions;
+    long clmulInstructions;
+    String freebl;
+
+    NssLibraryInspector(final String directory, final StringBuilder detail) {
+        this.directory = directory;
+        this.detail = detail;
+    }
+
+    /**
+     * @return whether libnss3 is present and readable as a shared library
+     */
+    boolean inspect() {
+        final boolean nssInstalled = inspectLibrary(LIBNSS) != null;
+        inspectLibrary(LIBSOFTOKN);
+
+        for (String name : LIBFREEBL) {
+            // Only one of the freebl variants needs to be there
+            if (!new File(directory, name).exists()) {
+                continue;
+            }
+
+            final ElfFile elf = inspectLibrary(name);
+
+            if (elf == null) {
+                continue;
+            }
+
+            final long[] counts;
+            final List<String> cipherExports = new ArrayList<>();
+
+            try {
+                counts = elf.countCryptoInstructions();
+
+                for (String symbol : elf.exportedSymbols()) {
+                    if (HARDWARE_EXPORT.matcher(symbol).find()) {
+                        cipherExports.add(symbol);
+                    }
+                }
+            } catch (RuntimeException e) {
+                detail.append("    error scanning code: ").append(e).append("\n");
+                continue;
+            }
+
+            final boolean aesSwitch = elf.containsString(HW_AES_SWITCH);
+            final boolean clmulSwitch = elf.containsString(PCLMUL_SWITCH);
+
+            final boolean scanned = elf.canCountCryptoInstructions();
+
+            if (scanned) {
+                detail.append(String.format("    aes instructions: %d carry-less multiply instructions: %d\n",
+                        counts[0], counts[1]));
+            } else {
+                detail.append(String.format("    aes and carry-less multiply instructions: not scanned on %s\n",
+                        elf.machineName()));
+            }
+            detail.append(String.format("    %s: %b %s: %b\n",
+                    HW_AES_SWITCH, aesSwitch, PCLMUL_SWITCH, clmulSwitch));
+            detail.append("    exported accelerated entry points: ")
+                  .append(cipherExports.isEmpty() ? "none" : StringUtils.join(cipherExports, " "))
+                  .append("\n");
+
+            // A stub freebl3 that only forwards to freeblpriv3 has no cipher code
+            if (freebl == null || counts[0] > aesInstructions) {
+                freebl = name;
+                aesInstructions = counts[0];
+                clmulInstructions = counts[1];
+                hardwareAes = counts[0] > 0 || !cipherExports.isEmpty() ? Boolean.TRUE
+                        : scanned ? Boolean.FALSE : null;
+                hardwareClmul = scanned ? counts[1] > 0 : null;
+            }
+        }
+
+        if (freebl == null) {
+            detail.append(String.format("No freebl library (%s) in %s\n",
+                    StringUtils.join(LIBFREEBL, " or "), directory));
+            hardwareAes = false;
+            hardwareClmul = false;
+        }
+
+        detail.append(String.format("[[ nss freebl: %s hardware aes: %s hardware clmul: %s]]\n",
+                freebl, Objects.toString(hardwareAes, "unknown"), Objects.toString(hardwareClmul, "unknown")));
+
+        return nssInstalled;
+    }
+
+    private ElfFile inspectLibrary(final String name) {
+        final File file = new File(directory, name);
+
+        if (!file.exists()) {
+            detail.append(file).append(" does not exist\n");
+            return null;
+        }
+
+        if (!file.canRead()) {
+            detail.append("Can't read: ").append(file).append("\n");
+            return null;
+        }
+
+        final ElfFile elf;
+        try {
+            elf = ElfFile.open(file.toPath());
+        } catch (IOException | RuntimeException e) {
+            detail.append("Error reading ").append(file).append(":\n");
+            detail.append(ExceptionUtils.getStackTrace(e));
+            return null;
+        }
+
+        detail.append(String.format("%s (%s, %d-bit, soname %s)\n", file, elf.machineName(),
+                elf.is64() ? 64 : 32, StringUtils.defaultString(elf.soname(), "none")));
+
+        for (String needed : elf.needed()) {
+            final File resolved = resolve(elf, needed);
+            detail.append(String.format("    %s => %s\n", needed,
+                    resolved == null ? "not found" : resolved.getPath()));
+        }
+
+        return elf;
+    }
+
+    /**
+     * Resolves a DT_NEEDED entry the way the NSS libraries are normally found:
+     * next to the library, on its run path, then in the system directories.
+     * The ld.so.cache and LD_LIBRARY_PATH are not consulted.
+     */
+    private File resolve(final ElfFile elf, final String needed) {
+        final File origin = elf.path().toAbsolutePath().getParent().toFile();
+        final File sibling = new File(origin, needed);
+
+        if (sibling.exists()) {
+            return sibling;
+        }
+
+        for (String runPath : elf.runPaths()) {
+            final File candidate = new File(runPath.replace("$ORIGIN", origin.getPath())
+                    .replace("${ORIGIN}", origin.getPath()), needed);
+            if (candidate.exists()) {
+                return candidate;
+            }
+        }
+
+        for (String systemDirectory : SYSTEM_LIBRARY_DIRECTORIES) {
+            final File candidate = new File(systemDirectory, needed);
+            if (candidate.exists()) {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+}
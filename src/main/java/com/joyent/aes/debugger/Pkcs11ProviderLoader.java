@@ -0,0 +1,91 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.ProviderException;
+import java.security.Security;
+
+/**
+ * Instantiates SunPKCS11 from a config file in-process, the way the JVM
+ * does for a security.provider entry, without installing it. Java 8 exposes
+ * the provider only as a class taking the config path, later releases as a
+ * template provider that is configured, so both are reached by reflection.
+ * When java.security names no NSS config, one can be generated for the
+ * system libnss3.
+ */
+final class Pkcs11ProviderLoader {
+    static final String PROVIDER_NAME = "SunPKCS11";
+    static final String JAVA8_CLASS = "sun.security.pkcs11.SunPKCS11";
+
+    private Pkcs11ProviderLoader() {
+    }
+
+    /**
+     * @param configPath path of the SunPKCS11 config file
+     * @param configName the config's name attribute, used to find a provider
+     *                   that java.security already installed from the same
+     *                   config, as NSS can only be initialised once per process
+     */
+    static Provider load(final String configPath, final String configName)
+            throws GeneralSecurityException {
+        if (StringUtils.isNotBlank(configName)) {
+            final Provider installed = Security.getProvider(PROVIDER_NAME + "-" + configName);
+            if (installed != null) {
+                return installed;
+            }
+        }
+
+        try {
+            final Provider template = Security.getProvider(PROVIDER_NAME);
+
+            if (template != null) {
+                return (Provider) Provider.class.getMethod("configure", String.class)
+                        .invoke(template, configPath);
+            }
+
+            return (Provider) Class.forName(JAVA8_CLASS).getConstructor(String.class)
+                    .newInstance(configPath);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            throw new GeneralSecurityException("SunPKCS11 failed to load " + configPath + ": " + cause,
+                    cause);
+        } catch (ReflectiveOperationException | ProviderException e) {
+            throw new GeneralSecurityException("SunPKCS11 is not available in this JVM: " + e, e);
+        }
+    }
+
+    /**
+     * Writes a no-database config for the system libnss3, returning its path,
+     * or null if libnss3 isn't installed.
+     */
+    static String generateNssConfig() throws IOException {
+        for (String directory : NssLibraryInspector.SYSTEM_LIBRARY_DIRECTORIES) {
+            if (!new File(directory, NssLibraryInspector.LIBNSS).exists()) {
+                continue;
+            }
+
+            final Path file = Files.createTempFile("aes-debugger-nss", ".cfg");
+            file.toFile().deleteOnExit();
+            Files.write(file, String.format("name = NSS\nnssLibraryDirectory = %s\nnssDbMode = noDb\n"
+                    + "attributes = compatibility\n", directory).getBytes(StandardCharsets.UTF_8));
+            return file.toString();
+        }
+
+        return null;
+    }
+
+    /**
+     * Whether the provider was loaded by java.security rather than by us.
+     */
+    static boolean isInstalled(final Provider provider) {
+        return Security.getProvider(provider.getName()) == provider;
+    }
+}
@@ -0,0 +1,194 @@
+package com.joyent.aes.debugger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Times one unit of work done for a checker: the checker itself, a command,
+ * a file read, a directory walk or a benchmark phase. Wall time, the CPU
+ * time of the calling thread and the bytes read or written are added to
+ * per-checker totals, which {@link CheckRunner} drains into the report, and
+ * a ProbeEvent is committed when Flight Recorder is available.
+ *
+ * <pre>
+ * try (Probe probe = Probe.start(Probe.FILE, path)) {
+ *     contents = Files.readAllBytes(path);
+ *     probe.bytes(contents.length);
+ * }
+ * </pre>
+ */
+final class Probe implements AutoCloseable {
+    static final String CHECKER = "checker";
+    static final String COMMAND = "command";
+    static final String FILE = "file";
+    static final String WALK = "walk";
+    static final String BENCHMARK = "benchmark";
+
+    private static final String UNATTRIBUTED = "unattributed";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = isCpuTimeSupported();
+    private static final Class<?> EVENT_CLASS = eventClass();
+
+    // Threads a checker starts are attributed to it
+    private static final InheritableThreadLocal<String> CURRENT_CHECKER = new InheritableThreadLocal<>();
+
+    private static final ConcurrentMap<String, Totals> TOTALS = new ConcurrentHashMap<>();
+
+    private final String checker;
+    private final String kind;
+    private final String name;
+    private final long startNanos;
+    private final long startCpuNanos;
+    private final Recorded event;
+    private long bytes;
+
+    private Probe(final String kind, final String name) {
+        this.checker = checker();
+        this.kind = kind;
+        this.name = name;
+        this.event = EVENT_CLASS == null ? null : begin();
+        this.startCpuNanos = cpuNanos();
+        this.startNanos = System.nanoTime();
+    }
+
+    static Probe start(final String kind, final String name) {
+        return new Probe(kind, name);
+    }
+
+    /**
+     * Attributes the probes of the current thread, and of the threads it
+     * starts, to the checker.
+     */
+    static void attribute(final String checker) {
+        CURRENT_CHECKER.set(checker);
+    }
+
+    static String checker() {
+        final String checker = CURRENT_CHECKER.get();
+        return checker == null ? UNATTRIBUTED : checker;
+    }
+
+    void bytes(final long count) {
+        bytes += count;
+    }
+
+    @Override
+    public void close() {
+        final long wallNanos = System.nanoTime() - startNanos;
+        final long cpuNanos = startCpuNanos < 0 ? -1L : cpuNanos() - startCpuNanos;
+
+        TOTALS.computeIfAbsent(checker + '\0' + kind + '\0' + name, key -> new Totals(checker, kind, name))
+              .add(wallNanos, cpuNanos, bytes);
+
+        if (event != null) {
+            event.record(checker, kind, name, bytes, cpuNanos);
+        }
+    }
+
+    /**
+     * Removes and returns everything recorded so far, slowest first.
+     */
+    static List<Totals> drain() {
+        final List<Totals> drained = new ArrayList<>();
+
+        for (String key : TOTALS.keySet()) {
+            final Totals totals = TOTALS.remove(key);
+            if (totals != null) {
+                drained.add(totals);
+            }
+        }
+
+        drained.sort(Comparator.comparingLong((Totals totals) -> totals.wallNanos).reversed());
+        return drained;
+    }
+
+    private static long cpuNanos() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : -1L;
+    }
+
+    /**
+     * CPU time is only measured when the JVM already tracks it, as it is by
+     * default on HotSpot; turning it on would add a cost to every thread of
+     * the process, which under the agent is someone else's service.
+     */
+    private static boolean isCpuTimeSupported() {
+        try {
+            return THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+        } catch (UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * jdk.jfr only exists from 8u262 and 11, and ProbeEvent is only built by
+     * a JDK 11 or later, so either may be missing.
+     */
+    private static Class<?> eventClass() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return Class.forName("com.joyent.aes.debugger.ProbeEvent");
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static Recorded begin() {
+        try {
+            final Recorded event = (Recorded) EVENT_CLASS.getDeclaredConstructor().newInstance();
+            event.begin();
+            return event;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    static final class Totals {
+        final String checker;
+        final String kind;
+        final String name;
+        long count;
+        long wallNanos;
+        // -1 when the JVM can't measure thread CPU time
+        long cpuNanos;
+        long bytes;
+
+        Totals(final String checker, final String kind, final String name) {
+            this.checker = checker;
+            this.kind = kind;
+            this.name = name;
+        }
+
+        synchronized void add(final long wall, final long cpu, final long byteCount) {
+            count++;
+            wallNanos += wall;
+            cpuNanos = cpu < 0 || cpuNanos < 0 ? -1L : cpuNanos + cpu;
+            bytes += byteCount;
+        }
+
+        synchronized void merge(final Totals other) {
+            count += other.count;
+            wallNanos += other.wallNanos;
+            cpuNanos = other.cpuNanos < 0 || cpuNanos < 0 ? -1L : cpuNanos + other.cpuNanos;
+            bytes += other.bytes;
+        }
+    }
+
+    /**
+     * What Probe needs of ProbeEvent, so that this class compiles and runs
+     * without jdk.jfr.
+     */
+    interface Recorded {
+        void begin();
+
+        /**
+         * Ends the event and commits it if the recording wants it.
+         */
+        void record(String checker, String kind, String name, long bytes, long cpuNanos);
+    }
+}
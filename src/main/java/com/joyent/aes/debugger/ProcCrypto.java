@@ -0,0 +1,164 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The algorithm registrations in /proc/crypto, one record per blank line
+ * separated block. The kernel resolves an algorithm name to the registered
+ * implementation with the highest priority that isn't internal and passed
+ * its self test, which is what {@link #selected(String)} reproduces.
+ */
+final class ProcCrypto {
+    static final String PROC_CRYPTO = "/proc/crypto";
+
+    /**
+     * The algorithms dm-crypt and kTLS lean on.
+     */
+    static final String[] AES_ALGORITHMS = new String[] {
+            "aes", "gcm(aes)", "ctr(aes)", "xts(aes)", "cbc(aes)"
+    };
+
+    private final List<Entry> entries;
+
+    private ProcCrypto(final List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    static ProcCrypto parse(final String contents) {
+        final List<Entry> entries = new ArrayList<>();
+        Entry entry = null;
+        int start = 0;
+
+        while (start < contents.length()) {
+            int end = contents.indexOf('\n', start);
+            if (end < 0) {
+                end = contents.length();
+            }
+
+            final int colon = contents.indexOf(':', start);
+
+            if (end == start) {
+                entry = null;
+            } else if (colon > start && colon < end) {
+                if (entry == null) {
+                    entry = new Entry();
+                    entries.add(entry);
+                }
+
+                entry.set(contents.substring(start, colon).trim(), contents.substring(colon + 1, end).trim());
+            }
+
+            start = end + 1;
+        }
+
+        return new ProcCrypto(entries);
+    }
+
+    List<Entry> entries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Every registration for an algorithm name, including the ones the
+     * kernel would never pick.
+     */
+    List<Entry> registrations(final String name) {
+        final List<Entry> registrations = new ArrayList<>();
+
+        for (Entry entry : entries) {
+            if (name.equals(entry.name)) {
+                registrations.add(entry);
+            }
+        }
+
+        return registrations;
+    }
+
+    /**
+     * @return the implementation the kernel hands out for the name, or null
+     * if none is registered yet; templates such as gcm(aes) are often only
+     * instantiated on first use
+     */
+    Entry selected(final String name) {
+        Entry selected = null;
+
+        for (Entry entry : registrations(name)) {
+            if (!entry.isSelectable()) {
+                continue;
+            }
+            if (selected == null || entry.priority > selected.priority) {
+                selected = entry;
+            }
+        }
+
+        return selected;
+    }
+
+    static final class Entry {
+        String name;
+        String driver;
+        String module;
+        int priority;
+        String type;
+        String selftest;
+        boolean internal;
+
+        private void set(final String key, final String value) {
+            switch (key) {
+                case "name":
+                    name = value;
+                    break;
+                case "driver":
+                    driver = value;
+                    break;
+                case "module":
+                    module = value;
+                    break;
+                case "priority":
+                    priority = NumberUtils.toInt(value);
+                    break;
+                case "type":
+                    type = value;
+                    break;
+                case "selftest":
+                    selftest = value;
+                    break;
+                case "internal":
+                    internal = value.equals("yes");
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        boolean isSelectable() {
+            return !internal && !"unknown".equals(selftest) && !"failed".equals(selftest);
+        }
+
+        /**
+         * The portable C implementations a driver is built from, if any:
+         * aes-generic, the table-free aes-fixed-time, or a *-generic
+         * building block such as ghash-generic inside a gcm_base template.
+         */
+        List<String> genericParts() {
+            final List<String> generic = new ArrayList<>();
+
+            for (String part : StringUtils.split(StringUtils.defaultString(driver), "(),")) {
+                if (part.endsWith("-generic") || part.equals("aes-fixed-time")) {
+                    generic.add(part);
+                }
+            }
+
+            return generic;
+        }
+
+        boolean isGeneric() {
+            return !genericParts().isEmpty();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs external commands for the checkers. Stdout and stderr are drained
+ * concurrently while the child runs so that it can never block on a full
+ * pipe, and every command is bounded by a deadline.
+ */
+class ProcessRunner {
+    interface LineHandler {
+        void handle(String line) throws IOException;
+    }
+
+    static final long DEFAULT_TIMEOUT_SECONDS = Long.getLong("aes.debugger.command.timeout.s", 30L);
+
+    // Time allowed for the pipes to close after the child has exited or been killed
+    private static final long DRAIN_GRACE_MILLIS = 2000L;
+
+    // How often a command that can finish early is asked whether it has
+    private static final long FINISHED_POLL_MILLIS = 20L;
+
+    private static final ExecutorService DRAINERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "process-drainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long timeoutMillis;
+
+    ProcessRunner(final long timeout, final TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    static ProcessRunner withDefaultTimeout() {
+        return new ProcessRunner(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs the command and streams stdout and stderr line by line into the
+     * writer, prefixing stderr lines so that they can be told apart.
+     */
+    Result run(final Writer out, final String... command) throws IOException {
+        return run(line -> out.append(line).append("\n"),
+                line -> out.append("[stderr] ").append(line).append("\n"),
+                command);
+    }
+
+    Result run(final LineHandler stdout, final LineHandler stderr,
+               final String... command) throws IOException {
+        return run(stdout, stderr, () -> false, command);
+    }
+
+    /**
+     * Runs the command, but stops it as soon as {@code finished} reports that
+     * the handlers have seen everything they need. The condition is polled
+     * while the child runs, so it must be safe to call from this thread
+     * while the drainers are writing.
+     */
+    Result run(final LineHandler stdout, final LineHandler stderr, final BooleanSupplier finished,
+               final String... command) throws IOException {
+        try (Probe probe = Probe.start(Probe.COMMAND, StringUtils.join(command, " "))) {
+            return execute(stdout, stderr, finished, probe, command);
+        }
+    }
+
+    private Result execute(final LineHandler stdout, final LineHandler stderr, final BooleanSupplier finished,
+                           final Probe probe, final String... command) throws IOException {
+        final long start = System.nanoTime();
+        final Process process = new ProcessBuilder().command(command).start();
+        process.getOutputStream().close();
+
+        final CountingInputStream processOut = new CountingInputStream(process.getInputStream());
+        final CountingInputStream processErr = new CountingInputStream(process.getErrorStream());
+
+        // Both drainers feed the same report, so handler calls are serialized
+        final Object lock = new Object();
+        final Future<?> stdoutDrainer = DRAINERS.submit(() -> {
+            drain(process, processOut, stdout, lock);
+            return null;
+        });
+        final Future<?> stderrDrainer = DRAINERS.submit(() -> {
+            drain(process, processErr, stderr, lock);
+            return null;
+        });
+
+        boolean timedOut = false;
+        boolean stopped = false;
+
+        try {
+            if (!waitFor(process, finished)) {
+                stopped = finished.getAsBoolean();
+                timedOut = !stopped;
+                process.destroy();
+
+                if (!process.waitFor(DRAIN_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+
+            awaitDrainer(stdoutDrainer, processOut, lock);
+            awaitDrainer(stderrDrainer, processErr, lock);
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            abandon(stdoutDrainer, processOut, lock);
+            abandon(stderrDrainer, processErr, lock);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running: "
+                    + StringUtils.join(command, " "));
+        }
+
+        probe.bytes(processOut.getByteCount() + processErr.getByteCount());
+
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        final int exitCode = timedOut || stopped ? -1 : process.exitValue();
+
+        return new Result(StringUtils.join(command, " "), exitCode, elapsedMillis, timedOut, stopped);
+    }
+
+    /**
+     * Waits for the child to exit, returning false if it is still running
+     * at the deadline or once {@code finished} holds.
+     */
+    private boolean waitFor(final Process process, final BooleanSupplier finished) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long remaining;
+
+        while ((remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) > 0) {
+            if (process.waitFor(Math.min(remaining, FINISHED_POLL_MILLIS), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+
+            if (finished.getAsBoolean()) {
+                return false;
+            }
+        }
+
+        return !process.isAlive();
+    }
+
+    private static void drain(final Process process, final InputStream stream, final LineHandler handler,
+                              final Object lock) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                synchronized (lock) {
+                    // Abandoned by the caller, which may have returned already
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    handler.handle(line);
+                }
+            }
+        } catch (IOException e) {
+            // The JDK closes the pipe once the child exits, even if a grandchild
+            // still holds it, and the caller closes it when it abandons this drainer
+            if (process.isAlive() && !Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+        }
+    }
+
+    private static void awaitDrainer(final Future<?> drainer, final InputStream stream, final Object lock)
+            throws IOException, InterruptedException {
+        try {
+            drainer.get(DRAIN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // A grandchild may be holding the pipe open; give up on the rest of its output
+            abandon(drainer, stream, lock);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Cancels the drainer, then closes the pipe. A read already blocked on
+     * the pipe doesn't notice the interrupt, but under the lock no further
+     * line reaches the handler, and the drainer's next read fails on the
+     * closed stream, so it ends as soon as the pipe yields anything.
+     */
+    private static void abandon(final Future<?> drainer, final InputStream stream, final Object lock) {
+        synchronized (lock) {
+            drainer.cancel(true);
+
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // The drainer is abandoned along with whatever it had left to read
+            }
+        }
+    }
+
+    static class Result {
+        final String command;
+        final int exitCode;
+        final long elapsedMillis;
+        final boolean timedOut;
+        final boolean stopped;
+
+        Result(final String command, final int exitCode, final long elapsedMillis,
+               final boolean timedOut, final boolean stopped) {
+            this.command = command;
+            this.exitCode = exitCode;
+            this.elapsedMillis = elapsedMillis;
+            this.timedOut = timedOut;
+            this.stopped = stopped;
+        }
+
+        boolean succeeded() {
+            return stopped || !timedOut && exitCode == 0;
+        }
+
+        @Override
+        public String toString() {
+            if (timedOut) {
+                return String.format("[[ command: %s timed out after %d ms]]\n",
+                        command, elapsedMillis);
+            }
+
+            if (stopped) {
+                return String.format("[[ command: %s stopped once finished after %d ms]]\n",
+                        command, elapsedMillis);
+            }
+
+            return String.format("[[ command: %s exit code: %d elapsed ms: %d]]\n",
+                    command, exitCode, elapsedMillis);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports which provider Cipher.getInstance actually hands out for the
+ * common AES transformations, and what creating and initialising a cipher
+ * costs, as a service that builds a cipher per request would pay it.
+ * Without an explicit provider, getInstance defers the choice until init,
+ * where each candidate is tried in order until one accepts the key, so the
+ * winner can be further down the list than the provider ranking suggests
+ * and the lookup cost shows up in init.
+ */
+public class ProviderResolutionChecker implements Checkable {
+    static final String[] TRANSFORMATIONS = new String[] {
+            "AES/GCM/NoPadding",
+            "AES/CTR/NoPadding",
+            "AES/CBC/PKCS5Padding",
+            "AES/ECB/NoPadding"
+    };
+
+    static final String DEFAULT_RESOLUTION = "(default)";
+
+    static final int BUFFER_SIZE = 16384;
+
+    private final Report report;
+    private final Writer out;
+    private final int samples;
+    private final CipherBenchmark benchmark;
+    private final SecretKey key = new SecretKeySpec(new byte[CipherBenchmark.KEY_SIZE_BYTES], "AES");
+
+    public ProviderResolutionChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
+        this.samples = Math.max(1, Integer.getInteger("aes.debugger.resolution.samples", 2000));
+        this.benchmark = CipherBenchmark.fromSystemProperties();
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        final double cpuHz = CipherBenchmark.nominalCpuHz();
+        final List<String> summary = new ArrayList<>();
+
+        out.append("[[Start provider resolution]]\n");
+        out.append(String.format("%d timed samples per provider after as many warmup samples, "
+                + "a new cipher for every sample\n\n", samples));
+
+        for (String transformation : TRANSFORMATIONS) {
+            final List<String> candidates = new ArrayList<>();
+            for (Provider provider : Security.getProviders()) {
+                if (CipherBenchmark.supports(provider, transformation)) {
+                    candidates.add(provider.getName());
+                }
+            }
+
+            final Provider winner;
+            try {
+                final Cipher cipher = Cipher.getInstance(transformation);
+                CipherBenchmark.initEncrypt(cipher, key, transformation,
+                        CipherBenchmark.newIv(transformation));
+                winner = cipher.getProvider();
+            } catch (GeneralSecurityException | RuntimeException e) {
+                out.append(String.format("Error resolving %s:\n", transformation));
+                out.append(ExceptionUtils.getStackTrace(e));
+                summary.add(transformation + " -> none");
+                continue;
+            }
+
+            out.append(String.format("%s: %s wins (candidates in order: %s)\n", transformation,
+                    winner.getName(), candidates.isEmpty() ? "none" : StringUtils.join(candidates, ", ")));
+            if (!candidates.isEmpty() && !candidates.get(0).equals(winner.getName())) {
+                out.append(String.format("    %s is ranked first but did not accept the key\n",
+                        candidates.get(0)));
+            }
+
+            final Map<String, Object> resolution = new LinkedHashMap<>();
+            resolution.put("transformation", transformation);
+            resolution.put("winner", winner.getName());
+            resolution.put("candidates", candidates);
+            report.fact("provider.resolution", resolution);
+
+            out.append(String.format("%-20s %-18s %8s %10s %10s %10s %10s\n",
+                    "provider", "phase", "samples", "p50 us", "p90 us", "p99 us", "max us"));
+
+            Latency[] defaultLatency = null;
+            try {
+                defaultLatency = measure(null, transformation);
+                logLatency(DEFAULT_RESOLUTION, transformation, defaultLatency);
+
+                for (Provider provider : Security.getProviders()) {
+                    if (candidates.contains(provider.getName())) {
+                        logLatency(provider.getName(), transformation, measure(provider, transformation));
+                    }
+                }
+            } catch (GeneralSecurityException | RuntimeException e) {
+                out.append(String.format("Error timing %s:\n", transformation));
+                out.append(ExceptionUtils.getStackTrace(e));
+            }
+
+            CipherBenchmark.Result result = null;
+            try {
+                result = benchmark.run(winner, transformation, BUFFER_SIZE);
+                out.append(String.format("throughput with %s: %.1f MB/s, %.2f cycles/byte (%d byte buffers)\n",
+                        result.provider, result.steadyState.megabytesPerSecond(),
+                        result.steadyState.cyclesPerByte(cpuHz), BUFFER_SIZE));
+                report.fact("throughput.winner", AesThroughputChecker.toFact(result, cpuHz));
+            } catch (GeneralSecurityException | RuntimeException e) {
+                out.append(String.format("Error benchmarking %s with %s:\n", transformation, winner.getName()));
+                out.append(ExceptionUtils.getStackTrace(e));
+            }
+            out.append("\n");
+
+            summary.add(String.format("%s -> %s (p99 getInstance+init %s us, %s MB/s)", transformation,
+                    winner.getName(),
+                    defaultLatency == null ? "?" : String.format("%.1f", defaultLatency[2].p99Micros()),
+                    result == null ? "?" : String.format("%.1f", result.steadyState.megabytesPerSecond())));
+        }
+
+        out.append("[[End provider resolution]]\n\n");
+
+        report.verdict("provider.resolution", "Cipher.getInstance winners", String.join(", ", summary));
+    }
+
+    /**
+     * Times getInstance, init, and the two together, on a new cipher for each
+     * sample. A null provider goes through the default resolution.
+     */
+    private Latency[] measure(final Provider provider, final String transformation)
+            throws GeneralSecurityException {
+        final long[] getInstanceNanos = new long[samples];
+        final long[] initNanos = new long[samples];
+        final long[] totalNanos = new long[samples];
+        final byte[] iv = CipherBenchmark.newIv(transformation);
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < samples; i++) {
+                // GCM rejects a second init with the same key and IV
+                if (iv != null) {
+                    CipherBenchmark.nextIv(iv);
+                }
+
+                final long start = System.nanoTime();
+                final Cipher cipher = provider == null
+                        ? Cipher.getInstance(transformation)
+                        : Cipher.getInstance(transformation, provider);
+                final long created = System.nanoTime();
+                CipherBenchmark.initEncrypt(cipher, key, transformation, iv);
+                final long initialised = System.nanoTime();
+
+                getInstanceNanos[i] = created - start;
+                initNanos[i] = initialised - created;
+                totalNanos[i] = initialised - start;
+            }
+        }
+
+        return new Latency[] {
+                new Latency("getInstance", getInstanceNanos),
+                new Latency("init", initNanos),
+                new Latency("getInstance+init", totalNanos)
+        };
+    }
+
+    private void logLatency(final String provider, final String transformation,
+                            final Latency[] latencies) throws IOException {
+        for (Latency latency : latencies) {
+            out.append(String.format("%-20s %-18s %8d %10.2f %10.2f %10.2f %10.2f\n",
+                    provider, latency.phase, latency.samples, latency.p50Micros(),
+                    latency.percentileMicros(90), latency.p99Micros(), latency.maxMicros()));
+
+            final Map<String, Object> fact = new LinkedHashMap<>();
+            fact.put("transformation", transformation);
+            fact.put("provider", provider);
+            fact.put("phase", latency.phase);
+            fact.put("samples", latency.samples);
+            fact.put("p50Us", latency.p50Micros());
+            fact.put("p90Us", latency.percentileMicros(90));
+            fact.put("p99Us", latency.p99Micros());
+            fact.put("maxUs", latency.maxMicros());
+            report.fact("provider.latency", fact);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.joyent.aes.debugger;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * What a checker writes to. Free text written to {@link #text()} becomes one
+ * text record per line, and verdicts and facts become typed records, all of
+ * which are passed to the sink in the order they were produced.
+ */
+class Report {
+    interface Sink {
+        void accept(ReportRecord record) throws IOException;
+    }
+
+    private final Sink sink;
+    private final LineWriter text = new LineWriter();
+    private String checker;
+
+    Report(final String checker, final Sink sink) {
+        this.checker = checker;
+        this.sink = sink;
+    }
+
+    /**
+     * A report that drops everything, for running checkers outside of a report.
+     */
+    static Report discarding() {
+        return new Report("discarding", record -> { });
+    }
+
+    void setChecker(final String checker) {
+        this.checker = checker;
+    }
+
+    String checker() {
+        return checker;
+    }
+
+    Writer text() {
+        return text;
+    }
+
+    void verdict(final String key, final String label, final Object value) throws IOException {
+        text.flushLine();
+        sink.accept(ReportRecord.verdict(checker, key, label, value));
+    }
+
+    void fact(final String key, final Object value) throws IOException {
+        text.flushLine();
+        sink.accept(ReportRecord.fact(checker, key, value));
+    }
+
+    void timing(final String key, final Object value) throws IOException {
+        text.flushLine();
+        sink.accept(ReportRecord.timing(checker, key, value));
+    }
+
+    /**
+     * Emits any trailing text that wasn't terminated by a newline.
+     */
+    void finish() throws IOException {
+        text.flushLine();
+    }
+
+    private class LineWriter extends Writer {
+        private final StringBuilder pending = new StringBuilder();
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+            synchronized (lock) {
+                int start = off;
+                final int end = off + len;
+
+                for (int i = off; i < end; i++) {
+                    if (cbuf[i] == '\n') {
+                        pending.append(cbuf, start, i + 1 - start);
+                        emit();
+                        start = i + 1;
+                    }
+                }
+
+                pending.append(cbuf, start, end - start);
+            }
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) throws IOException {
+            synchronized (lock) {
+                int start = off;
+                final int end = off + len;
+                int newline;
+
+                while ((newline = str.indexOf('\n', start)) >= 0 && newline < end) {
+                    pending.append(str, start, newline + 1);
+                    emit();
+                    start = newline + 1;
+                }
+
+                pending.append(str, start, end);
+            }
+        }
+
+        @Override
+        public Writer append(final CharSequence csq) throws IOException {
+            final String str = String.valueOf(csq);
+            write(str, 0, str.length());
+            return this;
+        }
+
+        void flushLine() throws IOException {
+            synchronized (lock) {
+                if (pending.length() > 0) {
+                    emit();
+                }
+            }
+        }
+
+        private void emit() throws IOException {
+            sink.accept(ReportRecord.text(checker, pending.toString()));
+            pending.setLength(0);
+        }
+
+        @Override
+        public void flush() {
+            // Lines are emitted as soon as they are complete
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushLine();
+        }
+    }
+}
@@ -0,0 +1,585 @@
+package com.joyent.aes.debugger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Rolls up a directory of per-host reports. Reports are split across a
+ * fork/join pool and scanned as memory-mapped bytes; only the handful of
+ * lines that feed the rollup are decoded, and each host is reduced to a
+ * small summary, so memory stays bounded no matter how large the provider
+ * dumps and environments in the reports are. Both the text and the JSON
+ * Lines formats are read; in the latter only the verdict and fact records
+ * that feed the rollup are looked at, and the text records are skipped.
+ */
+public class ReportAggregator implements Checkable {
+    static final String NSS_NOT_CONFIGURED = "not configured";
+    static final String NSS_LIBRARY_MISSING = "configured, library missing";
+    static final String NSS_NOT_FIRST = "configured, not provider 1";
+    static final String NSS_OK = "configured as provider 1";
+
+    // Verdicts that say a host runs AES without intrinsics; MISSING and
+    // UNKNOWN only say the report couldn't tell
+    static final Set<String> LACKING_INTRINSICS = new HashSet<>(
+            Arrays.asList("NO_CPU_SUPPORT", "DISABLED", "NOT_COMPILED"));
+    static final Set<String> UNDETERMINED_INTRINSICS = new HashSet<>(Arrays.asList("MISSING", "UNKNOWN"));
+
+    // Files per fork/join leaf task
+    private static final int LEAF_SIZE = 8;
+
+    private final Report report;
+    private final Writer out;
+    private final Path reportDirectory;
+
+    public ReportAggregator(final Report report, final Path reportDirectory) {
+        this.report = report;
+        this.out = report.text();
+        this.reportDirectory = reportDirectory;
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    static List<Path> listReports(final Path directory) throws IOException {
+        final Probe probe = Probe.start(Probe.WALK, directory.toString());
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        } finally {
+            probe.close();
+        }
+    }
+
+    @Override
+    public void check() throws IOException {
+        final long start = System.nanoTime();
+        final List<Path> files = listReports(reportDirectory);
+
+        final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        final Rollup rollup;
+
+        try {
+            rollup = pool.invoke(new ParseTask(files, 0, files.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        logRollup(rollup, elapsedMillis);
+    }
+
+    private void logRollup(final Rollup rollup, final long elapsedMillis) throws IOException {
+        out.append(String.format("[[Start fleet rollup: %s]]\n", reportDirectory));
+        out.append(String.format("hosts: %d unreadable: %d bytes scanned: %d elapsed ms: %d\n",
+                rollup.hosts, rollup.unreadable, rollup.bytes, elapsedMillis));
+        out.append("[[End fleet rollup]]\n\n");
+
+        long lackingIntrinsics = 0;
+        long undeterminedIntrinsics = 0;
+        for (Map.Entry<String, Long> verdict : rollup.intrinsicsVerdicts.entrySet()) {
+            if (LACKING_INTRINSICS.contains(verdict.getKey())) {
+                lackingIntrinsics += verdict.getValue();
+            } else if (UNDETERMINED_INTRINSICS.contains(verdict.getKey())) {
+                undeterminedIntrinsics += verdict.getValue();
+            }
+        }
+
+        logCounts("intrinsics verdicts", rollup.intrinsicsVerdicts);
+        out.append(String.format("[[ hosts lacking AES intrinsics: %d]]\n", lackingIntrinsics));
+        out.append(String.format("[[ hosts with undetermined AES intrinsics: %d]]\n\n", undeterminedIntrinsics));
+        logCounts("first ranked provider", rollup.firstProviders);
+        logCounts("nss configuration", rollup.nssStates);
+
+        out.append("[[Start cpu feature distribution]]\n");
+        out.append(String.format("%-12s %10s %10s %10s\n", "feature", "all cores", "some cores", "none"));
+        final Map<String, Map<String, Long>> features = new LinkedHashMap<>();
+        for (CpuFeature feature : CpuFeature.values()) {
+            final int i = feature.ordinal();
+            final long none = rollup.hostsWithCpuInfo - rollup.featureAll[i] - rollup.featureSome[i];
+            out.append(String.format("%-12s %10d %10d %10d\n", feature.flag(),
+                    rollup.featureAll[i], rollup.featureSome[i], none));
+
+            Map<String, Long> counts = new LinkedHashMap<>();
+            counts.put("all", rollup.featureAll[i]);
+            counts.put("some", rollup.featureSome[i]);
+            counts.put("none", none);
+            features.put(feature.flag(), counts);
+        }
+        out.append("[[End cpu feature distribution]]\n\n");
+
+        report.fact("fleet.hosts", rollup.hosts);
+        report.fact("fleet.unreadable", rollup.unreadable);
+        report.fact("fleet.intrinsics.verdicts", rollup.intrinsicsVerdicts);
+        report.fact("fleet.first.providers", rollup.firstProviders);
+        report.fact("fleet.nss", rollup.nssStates);
+        report.fact("fleet.cpu.features", features);
+        report.verdict("fleet.lacking.intrinsics", "Hosts lacking AES intrinsics",
+                String.format("%d of %d", lackingIntrinsics, rollup.hosts));
+        report.verdict("fleet.undetermined.intrinsics", "Hosts with undetermined AES intrinsics",
+                String.format("%d of %d", undeterminedIntrinsics, rollup.hosts));
+    }
+
+    private void logCounts(final String name, final Map<String, Long> counts) throws IOException {
+        out.append(String.format("[[Start %s]]\n", name));
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            out.append(String.format("%-40s %d\n", count.getKey(), count.getValue()));
+        }
+        out.append(String.format("[[End %s]]\n\n", name));
+    }
+
+    static class Rollup {
+        long hosts;
+        long unreadable;
+        long bytes;
+        long hostsWithCpuInfo;
+        final long[] featureAll = new long[CpuFeature.values().length];
+        final long[] featureSome = new long[CpuFeature.values().length];
+        final Map<String, Long> intrinsicsVerdicts = new TreeMap<>();
+        final Map<String, Long> firstProviders = new TreeMap<>();
+        final Map<String, Long> nssStates = new TreeMap<>();
+
+        void add(final HostSummary host) {
+            if (!host.isReport) {
+                unreadable++;
+                return;
+            }
+
+            hosts++;
+            bytes += host.bytes;
+            intrinsicsVerdicts.merge(host.intrinsicsVerdict, 1L, Long::sum);
+            firstProviders.merge(host.firstProvider, 1L, Long::sum);
+            nssStates.merge(host.nssState(), 1L, Long::sum);
+
+            if (host.cpuFlagLines > 0) {
+                hostsWithCpuInfo++;
+                for (CpuFeature feature : CpuFeature.values()) {
+                    if ((host.commonFeatures & feature.mask()) != 0) {
+                        featureAll[feature.ordinal()]++;
+                    } else if ((host.anyFeatures & feature.mask()) != 0) {
+                        featureSome[feature.ordinal()]++;
+                    }
+                }
+            }
+        }
+
+        Rollup merge(final Rollup other) {
+            hosts += other.hosts;
+            unreadable += other.unreadable;
+            bytes += other.bytes;
+            hostsWithCpuInfo += other.hostsWithCpuInfo;
+            for (int i = 0; i < featureAll.length; i++) {
+                featureAll[i] += other.featureAll[i];
+                featureSome[i] += other.featureSome[i];
+            }
+            other.intrinsicsVerdicts.forEach((k, v) -> intrinsicsVerdicts.merge(k, v, Long::sum));
+            other.firstProviders.forEach((k, v) -> firstProviders.merge(k, v, Long::sum));
+            other.nssStates.forEach((k, v) -> nssStates.merge(k, v, Long::sum));
+            return this;
+        }
+    }
+
+    static class HostSummary {
+        long bytes;
+        boolean isReport;
+        String intrinsicsVerdict = "MISSING";
+        String firstProvider = "unknown";
+        int cpuFlagLines;
+        long commonFeatures = -1L;
+        long anyFeatures;
+        boolean nssConfigured;
+        int nssRank = -1;
+        boolean nssLibraryMissing;
+
+        String nssState() {
+            if (!nssConfigured) {
+                return NSS_NOT_CONFIGURED;
+            }
+            if (nssLibraryMissing) {
+                return NSS_LIBRARY_MISSING;
+            }
+            if (nssRank != 1) {
+                return NSS_NOT_FIRST;
+            }
+            return NSS_OK;
+        }
+    }
+
+    private static class ParseTask extends RecursiveTask<Rollup> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Path> files;
+        private final int from;
+        private final int to;
+
+        ParseTask(final List<Path> files, final int from, final int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Rollup compute() {
+            if (to - from <= LEAF_SIZE) {
+                final Rollup rollup = new Rollup();
+                final HostReportScanner scanner = new HostReportScanner();
+
+                for (int i = from; i < to; i++) {
+                    try {
+                        rollup.add(scanner.scan(files.get(i)));
+                    } catch (IOException | RuntimeException e) {
+                        rollup.unreadable++;
+                    }
+                }
+
+                return rollup;
+            }
+
+            final int middle = (from + to) >>> 1;
+            final ParseTask left = new ParseTask(files, from, middle);
+            left.fork();
+            final Rollup right = new ParseTask(files, middle, to).compute();
+
+            return right.merge(left.join());
+        }
+    }
+
+    /**
+     * Scans one report line by line over a memory-mapped view of the file.
+     * Each leaf task owns one scanner so the line buffer is reused.
+     */
+    static class HostReportScanner {
+        private enum Section {
+            NONE, PROVIDERS, CPUINFO, SECURITY_SETTINGS, EFFECTIVE_PROVIDERS, NSS_DETAIL
+        }
+
+        private static final byte[] BANNER = bytes("AES-NI Support Checker");
+        private static final byte[] JSON_BANNER = bytes(
+                "{\"type\":\"text\",\"checker\":\"Application\",\"value\":\"AES-NI Support Checker\"}");
+        private static final byte[] JSON_VERDICT = bytes("{\"type\":\"verdict\",");
+        private static final byte[] JSON_FACT = bytes("{\"type\":\"fact\",");
+        private static final byte[] JSON_VALUE = bytes("\"value\":");
+        private static final byte[] INTRINSICS_KEY = bytes("\"key\":\"intrinsics\",");
+        private static final byte[] PROVIDERS_KEY = bytes("\"key\":\"java.providers\",");
+        private static final byte[] CPU_CORES_KEY = bytes("\"key\":\"cpu.cores\",");
+        private static final byte[] CPU_FEATURES_KEY = bytes("\"key\":\"cpu.features\",");
+        private static final byte[] NSS_RANK_KEY = bytes("\"key\":\"nss.provider.rank\",");
+        private static final byte[] NSS_CONFIGS_KEY = bytes("\"key\":\"nss.configs\",");
+        private static final byte[] JSON_NAME = bytes("\"name\":\"");
+        private static final byte[] NSS_LIBRARY_NOT_INSTALLED = bytes("\"nssLibraryInstalled\":false");
+        private static final byte[] PROVIDER_PREFIX = bytes("security.provider.");
+        private static final byte[] PKCS11 = bytes("SunPKCS11");
+        private static final byte[] DOES_NOT_EXIST = bytes(" does not exist");
+        private static final byte[] CANT_READ = bytes("Can't read: ");
+
+        private byte[] line = new byte[4096];
+
+        HostSummary scan(final Path file) throws IOException {
+            HostSummary host = new HostSummary();
+            Section section = Section.NONE;
+
+            // One probe for all reports rather than a row per host
+            try (Probe probe = Probe.start(Probe.FILE, "report");
+                 FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final long size = Math.min(channel.size(), Integer.MAX_VALUE);
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                host.bytes = size;
+                probe.bytes(size);
+
+                while (buffer.hasRemaining()) {
+                    final int length = readLine(buffer);
+
+                    if (length >= 2 && line[0] == '[' && line[1] == '[') {
+                        final String marker = new String(line, 0, length, StandardCharsets.UTF_8);
+                        section = enterSection(host, section, marker);
+                        continue;
+                    }
+
+                    if (startsWith(length, BANNER) || startsWith(length, JSON_BANNER)) {
+                        // Reports are appended to, so only the latest run counts
+                        final long bytes = host.bytes;
+                        host = new HostSummary();
+                        host.bytes = bytes;
+                        host.isReport = true;
+                        section = Section.NONE;
+                        continue;
+                    }
+
+                    if (startsWith(length, JSON_VERDICT) || startsWith(length, JSON_FACT)) {
+                        scanRecord(host, length);
+                        continue;
+                    }
+
+                    scanLine(host, section, length);
+                }
+            }
+
+            return host;
+        }
+
+        private Section enterSection(final HostSummary host, final Section section,
+                                     final String marker) {
+            if (marker.startsWith("[[intrinsics verdict: ")) {
+                final String verdict = marker.substring("[[intrinsics verdict: ".length());
+                host.intrinsicsVerdict = verdict.split(" ", 2)[0];
+                return section;
+            }
+
+            switch (marker) {
+                case "[[Security Providers]]":
+                    return Section.PROVIDERS;
+                case "[[Start /proc/cpuinfo]]":
+                    return Section.CPUINFO;
+                case "[[Security settings file]]":
+                    return Section.SECURITY_SETTINGS;
+                default:
+                    break;
+            }
+
+            // Reports that resolve overrides and includes list the providers the
+            // JVM really uses, which supersede the raw master file lines
+            if (marker.startsWith("[[Start effective security providers")) {
+                host.nssConfigured = false;
+                host.nssRank = -1;
+                return Section.EFFECTIVE_PROVIDERS;
+            }
+
+            if (marker.startsWith("[[Start nss config detail")) {
+                return Section.NSS_DETAIL;
+            }
+
+            if (marker.startsWith("[[End") || marker.equals("[[Security providers Environment]]")) {
+                return Section.NONE;
+            }
+
+            return section;
+        }
+
+        private void scanLine(final HostSummary host, final Section section, final int length) {
+            switch (section) {
+                case PROVIDERS:
+                    // Provider headers look like "SunJCE@17.000000:" and entries are indented
+                    if (host.firstProvider.equals("unknown") && length > 1
+                            && line[0] != ' ' && line[length - 1] == ':') {
+                        final int at = indexOf(length, (byte) '@');
+                        if (at > 0) {
+                            host.firstProvider = new String(line, 0, at, StandardCharsets.UTF_8);
+                        }
+                    }
+                    break;
+                case CPUINFO:
+                    final long flags = CpuInfo.parseFeatureLine(line, 0, length);
+                    if (flags >= 0) {
+                        host.cpuFlagLines++;
+                        host.commonFeatures &= flags;
+                        host.anyFeatures |= flags;
+                    }
+                    break;
+                case SECURITY_SETTINGS:
+                case EFFECTIVE_PROVIDERS:
+                    if (startsWith(length, PROVIDER_PREFIX) && contains(length, PKCS11)) {
+                        final String text = new String(line, 0, length, StandardCharsets.UTF_8);
+                        try {
+                            LibnssChecker.ProviderLine providerLine = LibnssChecker.ProviderLine.parse(text);
+                            if (!providerLine.config.trim().isEmpty() && !host.nssConfigured) {
+                                host.nssConfigured = true;
+                                host.nssRank = providerLine.rank;
+                            }
+                        } catch (RuntimeException e) {
+                            // Malformed provider lines are ignored, as the checker does
+                        }
+                    }
+                    break;
+                case NSS_DETAIL:
+                    if (contains(length, DOES_NOT_EXIST) || contains(length, CANT_READ)) {
+                        host.nssLibraryMissing = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Reads the few JSON Lines records the rollup needs. The renderer
+         * writes the value last, so it runs from after "value": to the
+         * closing brace of the record.
+         */
+        private void scanRecord(final HostSummary host, final int length) {
+            final int value = indexOf(length, JSON_VALUE) + JSON_VALUE.length;
+            final int end = length - 1;
+
+            if (value < JSON_VALUE.length || end < value) {
+                return;
+            }
+
+            if (contains(length, INTRINSICS_KEY)) {
+                // A verdict such as "OK - AES intrinsics are enabled", of which the first word is kept
+                int word = value + 1;
+                while (word < end && line[word] != ' ' && line[word] != '"') {
+                    word++;
+                }
+                if (line[value] == '"' && word > value + 1) {
+                    host.intrinsicsVerdict = new String(line, value + 1, word - value - 1, StandardCharsets.UTF_8);
+                }
+            } else if (contains(length, PROVIDERS_KEY)) {
+                // Providers are listed in rank order, so the first name is the first ranked
+                final int name = indexOf(length, JSON_NAME);
+                final int close = name < 0 ? -1 : indexOf(name + JSON_NAME.length, length, (byte) '"');
+                if (close > 0) {
+                    host.firstProvider = new String(line, name + JSON_NAME.length,
+                            close - name - JSON_NAME.length, StandardCharsets.UTF_8);
+                }
+            } else if (contains(length, CPU_CORES_KEY)) {
+                host.cpuFlagLines = (int) parseLong(value, end);
+            } else if (contains(length, CPU_FEATURES_KEY)) {
+                scanFeatureCounts(host, value, end);
+            } else if (contains(length, NSS_RANK_KEY)) {
+                final int rank = (int) parseLong(value, end);
+                host.nssConfigured = rank > 0;
+                host.nssRank = rank;
+            } else if (contains(length, NSS_CONFIGS_KEY)) {
+                host.nssLibraryMissing = contains(length, NSS_LIBRARY_NOT_INSTALLED);
+            }
+        }
+
+        /**
+         * Reads a {"flag":cores,...} object of how many processors have each
+         * feature, which the cpu.cores record before it gives the total for.
+         */
+        private void scanFeatureCounts(final HostSummary host, final int from, final int end) {
+            host.commonFeatures = 0L;
+            host.anyFeatures = 0L;
+
+            int i = from;
+            while (i < end) {
+                final int open = indexOf(i, end, (byte) '"');
+                final int close = open < 0 ? -1 : indexOf(open + 1, end, (byte) '"');
+                if (close < 0) {
+                    return;
+                }
+
+                int next = indexOf(close, end, (byte) ',');
+                if (next < 0) {
+                    next = end;
+                }
+
+                final CpuFeature feature = CpuFeature.match(line, open + 1, close);
+                final long cores = parseLong(close + 2, next);
+                if (feature != null && cores > 0) {
+                    host.anyFeatures |= feature.mask();
+                    if (cores >= host.cpuFlagLines) {
+                        host.commonFeatures |= feature.mask();
+                    }
+                }
+
+                i = next + 1;
+            }
+        }
+
+        private long parseLong(final int from, final int to) {
+            long value = 0;
+            boolean negative = false;
+
+            for (int i = from; i < to; i++) {
+                final byte b = line[i];
+                if (b == '-') {
+                    negative = true;
+                } else if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                } else if (b == '}' || b == ',') {
+                    break;
+                }
+            }
+
+            return negative ? -value : value;
+        }
+
+        private int readLine(final MappedByteBuffer buffer) {
+            int length = 0;
+
+            while (buffer.hasRemaining()) {
+                final byte b = buffer.get();
+                if (b == '\n') {
+                    break;
+                }
+
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[length++] = b;
+            }
+
+            return length;
+        }
+
+        private boolean startsWith(final int length, final byte[] prefix) {
+            if (length < prefix.length) {
+                return false;
+            }
+
+            for (int i = 0; i < prefix.length; i++) {
+                if (line[i] != prefix[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean contains(final int length, final byte[] needle) {
+            return indexOf(length, needle) >= 0;
+        }
+
+        private int indexOf(final int length, final byte[] needle) {
+            outer:
+            for (int i = 0; i + needle.length <= length; i++) {
+                for (int j = 0; j < needle.length; j++) {
+                    if (line[i + j] != needle[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+
+            return -1;
+        }
+
+        private int indexOf(final int length, final byte b) {
+            return indexOf(0, length, b);
+        }
+
+        private int indexOf(final int from, final int length, final byte b) {
+            for (int i = from; i < length; i++) {
+                if (line[i] == b) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        private static byte[] bytes(final String value) {
+            return value.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,920 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares two reports, such as those from before and after a JDK or OS
+ * upgrade, section by section. The latest run of each report, text or JSON
+ * Lines, is streamed once, both side by side, and split on its section
+ * markers; every section is hashed and reduced to a small set of fields as
+ * it goes by and compared as soon as its counterpart is read. Sections that
+ * hash the same are skipped without looking at their fields. Memory is
+ * bounded by the largest section plus the sections that are out of step
+ * between the two reports, whatever the size of the report. Only the
+ * changes that matter are shown: CPU flags gained or lost, provider ranks,
+ * HotSpot intrinsic flags and NSS libraries, and key/value changes in the
+ * other sections. Timings and benchmark tables differ on every run and are
+ * not compared.
+ */
+public class ReportDiff implements Checkable {
+    static final String CPU_FLAGS = "cpu flags";
+    static final String PROVIDERS = "providers";
+    static final String INTRINSICS = "intrinsics";
+    static final String NSS = "nss";
+    static final String OTHER = "other";
+
+    // Sections whose contents are measurements rather than configuration
+    static final Set<String> MEASUREMENTS = new HashSet<>(Arrays.asList(
+            "timings", "aes throughput benchmark", "aes throughput sample", "nss vs sunjce comparison",
+            "flag experiment", "provider resolution", "aes scaling", "tls loopback", "cipher usage patterns",
+            "fleet rollup"));
+
+    static final String PREAMBLE = "(before the first section)";
+    static final String VERDICTS = "verdicts";
+
+    static final String BANNER = "AES-NI Support Checker";
+    private static final byte[] BANNER_BYTES = BANNER.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_BANNER = ("{\"type\":\"text\",\"checker\":\"Application\",\"value\":\""
+            + BANNER + "\"}").getBytes(StandardCharsets.UTF_8);
+    private static final String JSON_RECORD = "{\"type\":\"";
+
+    // Bytes read at a time while searching back for the latest run
+    private static final int SEARCH_BLOCK = 64 * 1024;
+
+    // Changes listed per section before the rest are only counted
+    private static final int MAX_CHANGES_SHOWN = 40;
+
+    private static final Pattern ELAPSED = Pattern.compile("elapsed ms: \\d+");
+    private static final Pattern DURATION = Pattern.compile("\\d+(\\.\\d+)? (MB/s|ms|us)\\b");
+    // Two decimals in a row make a line a row of a latency or throughput table
+    private static final Pattern MEASUREMENT_ROW = Pattern.compile(".*\\d+\\.\\d+\\s+\\d+\\.\\d+.*");
+    private static final Pattern PROVIDER_HEADER = Pattern.compile("(\\S+)@(\\S+):");
+    private static final Pattern PROVIDER_LINE = Pattern.compile("security\\.provider\\.(\\d+)\\s*=\\s*(.*)");
+    private static final Pattern PROCESSOR = Pattern.compile("processor\\s*:.*");
+
+    // The /proc/cpuinfo fields that identify the CPU rather than its current state
+    private static final Set<String> CPUINFO_FIELDS = new HashSet<>(Arrays.asList(
+            "vendor_id", "cpu family", "model", "model name", "stepping", "microcode", "CPU implementer",
+            "CPU architecture", "CPU variant", "CPU part", "CPU revision", "cpu"));
+
+    private static final Set<String> PACKAGE_FIELDS = new HashSet<>(Arrays.asList(
+            "Version", "Architecture", "Status", "Release"));
+
+    private final Report report;
+    private final Writer out;
+    private final Path before;
+    private final Path after;
+
+    public ReportDiff(final Report report, final Path before, final Path after) {
+        this.report = report;
+        this.out = report.text();
+        this.before = before;
+        this.after = after;
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        final Comparison comparison = new Comparison();
+        final long beforeLines;
+        final long afterLines;
+
+        // Both reports are walked a section at a time, side by side
+        try (SectionReader beforeReader = new SectionReader(before);
+             SectionReader afterReader = new SectionReader(after)) {
+            Section beforeSection = beforeReader.next();
+            Section afterSection = afterReader.next();
+
+            while (beforeSection != null || afterSection != null) {
+                if (beforeSection != null) {
+                    comparison.before(beforeSection);
+                }
+                if (afterSection != null) {
+                    comparison.after(afterSection);
+                }
+
+                beforeSection = beforeReader.next();
+                afterSection = afterReader.next();
+            }
+
+            beforeLines = beforeReader.lines;
+            afterLines = afterReader.lines;
+        }
+
+        final Map<String, List<String>> changed = comparison.changed;
+        final Map<String, String> categories = comparison.categories;
+        final int sections = comparison.sections;
+        final int identical = comparison.identical;
+        int measurements = comparison.measurements;
+
+        final List<String> onlyBefore = new ArrayList<>();
+        final List<String> onlyAfter = new ArrayList<>();
+
+        for (Section section : comparison.pendingBefore.values()) {
+            if (section.lines > 0) {
+                onlyBefore.add(section.name);
+            }
+        }
+        for (Section section : comparison.pendingAfter.values()) {
+            if (section.kind == Kind.MEASUREMENT) {
+                measurements++;
+            } else if (section.lines > 0) {
+                onlyAfter.add(section.name);
+            }
+        }
+
+        out.append("[[Start report diff]]\n");
+        out.append(String.format("before: %s (%d lines)\n", before, beforeLines));
+        out.append(String.format("after: %s (%d lines)\n", after, afterLines));
+        out.append(String.format("sections: %d identical: %d changed: %d only before: %d only after: %d "
+                        + "measurements not compared: %d\n", sections, identical, changed.size(),
+                onlyBefore.size(), onlyAfter.size(), measurements));
+        for (String name : onlyBefore) {
+            out.append(String.format("- section %s\n", name));
+        }
+        for (String name : onlyAfter) {
+            out.append(String.format("+ section %s\n", name));
+        }
+        out.append("[[End report diff]]\n\n");
+
+        final Map<String, List<String>> byCategory = new LinkedHashMap<>();
+        for (String category : new String[] { CPU_FLAGS, PROVIDERS, INTRINSICS, NSS, OTHER }) {
+            byCategory.put(category, new ArrayList<>());
+        }
+
+        final List<Map<String, Object>> changeFacts = new ArrayList<>();
+        for (Map.Entry<String, List<String>> section : changed.entrySet()) {
+            final String category = categories.get(section.getKey());
+            final List<String> changes = section.getValue();
+
+            out.append(String.format("[[Start changed section: %s]]\n", section.getKey()));
+            for (String change : changes.subList(0, Math.min(changes.size(), MAX_CHANGES_SHOWN))) {
+                out.append(change).append('\n');
+            }
+            if (changes.size() > MAX_CHANGES_SHOWN) {
+                out.append(String.format("... %d more\n", changes.size() - MAX_CHANGES_SHOWN));
+            }
+            out.append(String.format("[[End changed section: %s]]\n\n", section.getKey()));
+
+            byCategory.get(category).addAll(changes);
+
+            final Map<String, Object> fact = new LinkedHashMap<>();
+            fact.put("section", section.getKey());
+            fact.put("category", category);
+            fact.put("changes", changes);
+            changeFacts.add(fact);
+        }
+
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("before", before.toString());
+        summary.put("after", after.toString());
+        summary.put("sections", sections);
+        summary.put("identical", identical);
+        summary.put("changed", new ArrayList<>(changed.keySet()));
+        summary.put("onlyBefore", onlyBefore);
+        summary.put("onlyAfter", onlyAfter);
+        summary.put("measurementsNotCompared", measurements);
+        report.fact("diff.summary", summary);
+        report.fact("diff.changes", changeFacts);
+
+        report.verdict("diff.cpu.flags", "CPU flags gained or lost", describe(byCategory.get(CPU_FLAGS)));
+        report.verdict("diff.providers", "Security provider changes", describe(byCategory.get(PROVIDERS)));
+        report.verdict("diff.intrinsics", "HotSpot intrinsic changes", describe(byCategory.get(INTRINSICS)));
+        report.verdict("diff.nss", "NSS library changes", describe(byCategory.get(NSS)));
+        report.verdict("diff.sections", "Sections that changed",
+                changed.isEmpty() ? "none" : String.join(", ", changed.keySet()));
+    }
+
+    private static String describe(final List<String> changes) {
+        return changes.isEmpty() ? "unchanged" : StringUtils.abbreviate(String.join("; ", changes), 500);
+    }
+
+    /**
+     * Changes from the before fields to the after fields: "+ key: value" for
+     * additions, "- key: value" for removals and "key: before -> after".
+     */
+    static List<String> compare(final Map<String, String> before, final Map<String, String> after) {
+        final List<String> changes = new ArrayList<>();
+
+        for (Map.Entry<String, String> field : before.entrySet()) {
+            final String now = after.get(field.getKey());
+            if (now == null) {
+                changes.add("- " + field(field.getKey(), field.getValue()));
+            } else if (!now.equals(field.getValue())) {
+                changes.add(String.format("%s: %s -> %s", field.getKey(), field.getValue(), now));
+            }
+        }
+        for (Map.Entry<String, String> field : after.entrySet()) {
+            if (!before.containsKey(field.getKey())) {
+                changes.add("+ " + field(field.getKey(), field.getValue()));
+            }
+        }
+
+        return changes;
+    }
+
+    private static String field(final String key, final String value) {
+        return value.isEmpty() ? key : key + ": " + value;
+    }
+
+    /**
+     * Pairs up the sections of the two reports by name as they are read.
+     * Reports from the same tool list their sections in the same order, so
+     * a section usually meets its counterpart straight away; only sections
+     * that are out of step are held until the other report reaches them.
+     */
+    static final class Comparison {
+        final Map<String, Section> pendingBefore = new LinkedHashMap<>();
+        final Map<String, Section> pendingAfter = new LinkedHashMap<>();
+        final Map<String, List<String>> changed = new LinkedHashMap<>();
+        final Map<String, String> categories = new HashMap<>();
+        int sections;
+        int identical;
+        int measurements;
+
+        void before(final Section section) {
+            final Section now = pendingAfter.remove(section.name);
+
+            if (now == null) {
+                pendingBefore.put(section.name, section);
+            } else {
+                compare(section, now);
+            }
+        }
+
+        void after(final Section section) {
+            final Section then = pendingBefore.remove(section.name);
+
+            sections++;
+            if (then == null) {
+                pendingAfter.put(section.name, section);
+            } else {
+                compare(then, section);
+            }
+        }
+
+        private void compare(final Section then, final Section now) {
+            if (now.kind == Kind.MEASUREMENT) {
+                measurements++;
+                return;
+            }
+            if (then.hash == now.hash && then.lines == now.lines) {
+                identical++;
+                return;
+            }
+
+            final List<String> changes = ReportDiff.compare(then.fields, now.fields);
+            if (changes.isEmpty()) {
+                // Only lines that aren't compared, such as comments, differ
+                identical++;
+            } else {
+                changed.put(now.name, changes);
+                categories.put(now.name, now.category);
+            }
+        }
+    }
+
+    /**
+     * Streams the latest run of a report, text or JSON Lines, handing out
+     * each section as soon as the next one starts. The verdicts of a JSON
+     * Lines report are gathered into one more section at the end; its facts
+     * are left out, as they repeat what its text records already say.
+     */
+    static final class SectionReader implements Closeable {
+        private final Probe probe;
+        private final BufferedReader reader;
+        private final Map<String, Integer> occurrences = new HashMap<>();
+        private final Deque<Section> ready = new ArrayDeque<>();
+        private final SectionBuilder verdicts = new SectionBuilder(VERDICTS);
+        private SectionBuilder current = new SectionBuilder(PREAMBLE);
+        private boolean hasVerdicts;
+        long lines;
+
+        SectionReader(final Path file) throws IOException {
+            final long start = latestRun(file);
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ).position(start);
+
+            this.probe = Probe.start(Probe.FILE, file.toString());
+            this.reader = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @return the next section, or null once the report is exhausted
+         */
+        Section next() throws IOException {
+            String raw;
+
+            while (ready.isEmpty() && current != null && (raw = reader.readLine()) != null) {
+                lines++;
+                probe.bytes(raw.length() + 1);
+
+                if (!raw.startsWith(JSON_RECORD)) {
+                    line(raw);
+                    continue;
+                }
+
+                final JsonRecord record = JsonRecord.parse(raw);
+                if (record == null) {
+                    line(raw);
+                } else if (record.type.equals("text")) {
+                    for (String text : StringUtils.splitPreserveAllTokens(record.value, '\n')) {
+                        line(text);
+                    }
+                    if (record.value.isEmpty()) {
+                        line("");
+                    }
+                } else if (record.type.equals("verdict")) {
+                    verdicts.add(record.key + ": " + record.value);
+                    hasVerdicts = true;
+                }
+            }
+
+            if (ready.isEmpty() && current != null) {
+                ready.add(current.build());
+                if (hasVerdicts) {
+                    ready.add(verdicts.build());
+                }
+                current = null;
+            }
+
+            return ready.poll();
+        }
+
+        private void line(final String line) {
+            // The banner the latest run starts with
+            if (line.equals(BANNER)) {
+                occurrences.clear();
+                current = new SectionBuilder(PREAMBLE);
+                return;
+            }
+
+            final String started = sectionStarted(line);
+            if (started != null) {
+                ready.add(current.build());
+
+                // Sections such as the NSS config details repeat within a run
+                final int occurrence = occurrences.merge(started, 1, Integer::sum);
+                current = new SectionBuilder(occurrence == 1 ? started : started + " (" + occurrence + ")");
+                return;
+            }
+
+            current.add(line);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } finally {
+                probe.close();
+            }
+        }
+    }
+
+    /**
+     * The offset of the banner that starts the latest run, found by
+     * searching back from the end of the file, as reports are appended to
+     * and only their latest run is compared; 0 if there is no banner.
+     */
+    static long latestRun(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            // A banner that straddles two blocks is still found whole in the later one
+            final int overlap = JSON_BANNER.length + 1;
+            final ByteBuffer buffer = ByteBuffer.allocate(SEARCH_BLOCK + overlap + 1);
+            long position = size;
+
+            while (position > 0) {
+                final long blockStart = Math.max(0, position - SEARCH_BLOCK);
+                // One byte before the block to see whether its first byte starts a line
+                final long readStart = Math.max(0, blockStart - 1);
+                final long readEnd = Math.min(size, position + overlap);
+
+                buffer.clear();
+                buffer.limit((int) (readEnd - readStart));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, readStart + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+
+                final byte[] bytes = buffer.array();
+                final int length = buffer.position();
+
+                for (int i = (int) (position - 1 - readStart); i >= blockStart - readStart; i--) {
+                    final boolean lineStart = readStart + i == 0 || bytes[i - 1] == '\n';
+                    if (lineStart && (isLine(bytes, i, length, BANNER_BYTES, readStart + length == size)
+                            || isLine(bytes, i, length, JSON_BANNER, readStart + length == size))) {
+                        return readStart + i;
+                    }
+                }
+
+                position = blockStart;
+            }
+        }
+
+        return 0;
+    }
+
+    private static boolean isLine(final byte[] bytes, final int offset, final int length, final byte[] line,
+                                  final boolean endOfFile) {
+        final int end = offset + line.length;
+
+        if (end > length) {
+            return false;
+        }
+        for (int i = 0; i < line.length; i++) {
+            if (bytes[offset + i] != line[i]) {
+                return false;
+            }
+        }
+
+        return end == length ? endOfFile : bytes[end] == '\n' || bytes[end] == '\r';
+    }
+
+    /**
+     * A record of a JSON Lines report, as written by
+     * {@link JsonLinesReportRenderer}: type, checker, key and label strings
+     * followed by the value, which is decoded if it is a string and kept as
+     * JSON otherwise.
+     */
+    static final class JsonRecord {
+        String type;
+        String checker;
+        String key;
+        String value;
+
+        /**
+         * @return the record, or null if the line isn't one
+         */
+        static JsonRecord parse(final String line) {
+            final JsonRecord record = new JsonRecord();
+            final int[] position = new int[] { 1 };
+
+            while (position[0] < line.length()) {
+                final String name = string(line, position);
+                if (name == null || position[0] >= line.length() || line.charAt(position[0]) != ':') {
+                    return null;
+                }
+                position[0]++;
+
+                if (name.equals("value")) {
+                    final int end = line.lastIndexOf('}');
+                    if (end < position[0]) {
+                        return null;
+                    }
+                    record.value = line.charAt(position[0]) == '"'
+                            ? string(line, position) : line.substring(position[0], end);
+                    return record.type == null || record.value == null ? null : record;
+                }
+
+                final String value = string(line, position);
+                if (name.equals("type")) {
+                    record.type = value;
+                } else if (name.equals("checker")) {
+                    record.checker = value;
+                } else if (name.equals("key")) {
+                    record.key = value;
+                }
+
+                if (position[0] >= line.length() || line.charAt(position[0]) != ',') {
+                    return null;
+                }
+                position[0]++;
+            }
+
+            return null;
+        }
+
+        /**
+         * Decodes the string at the position, moving past it; null for a
+         * JSON null or anything that isn't a string.
+         */
+        private static String string(final String line, final int[] position) {
+            if (line.startsWith("null", position[0])) {
+                position[0] += "null".length();
+                return null;
+            }
+            if (position[0] >= line.length() || line.charAt(position[0]) != '"') {
+                return null;
+            }
+
+            final StringBuilder decoded = new StringBuilder();
+            int i = position[0] + 1;
+
+            while (i < line.length()) {
+                final char c = line.charAt(i++);
+
+                if (c == '"') {
+                    position[0] = i;
+                    return decoded.toString();
+                }
+                if (c != '\\' || i >= line.length()) {
+                    decoded.append(c);
+                    continue;
+                }
+
+                final char escaped = line.charAt(i++);
+                switch (escaped) {
+                    case 'n':
+                        decoded.append('\n');
+                        break;
+                    case 'r':
+                        decoded.append('\r');
+                        break;
+                    case 't':
+                        decoded.append('\t');
+                        break;
+                    case 'b':
+                        decoded.append('\b');
+                        break;
+                    case 'f':
+                        decoded.append('\f');
+                        break;
+                    case 'u':
+                        if (i + 4 > line.length()) {
+                            return null;
+                        }
+                        try {
+                            decoded.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                        } catch (NumberFormatException e) {
+                            return null;
+                        }
+                        i += 4;
+                        break;
+                    default:
+                        decoded.append(escaped);
+                        break;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * The name of the section the marker starts, or null for any other line.
+     * Besides "[[Start name: detail]]", older sections are started by a bare
+     * "[[Name]]" and may never be ended, so a section runs until the next one
+     * starts; "[[End ...]]" and one-line "[[ key: value]]" markers stay with
+     * the section before them.
+     */
+    static String sectionStarted(final String line) {
+        if (!line.startsWith("[[") || !line.endsWith("]]")) {
+            return null;
+        }
+
+        final String marker = line.substring(2, line.length() - 2);
+        if (marker.startsWith("Start ")) {
+            return StringUtils.substringBefore(marker.substring("Start ".length()), ": ").trim();
+        }
+        if (marker.startsWith("End ") || marker.startsWith(" ") || marker.contains(":")) {
+            return null;
+        }
+
+        return marker.trim();
+    }
+
+    enum Kind {
+        FIELDS, PROPERTIES, PROVIDER_DUMP, PROVIDER_ORDER, CPUINFO, PACKAGES, MEASUREMENT
+    }
+
+    static Kind kindOf(final String name) {
+        final String lower = StringUtils.substringBefore(name, " (").toLowerCase(Locale.ROOT);
+
+        if (MEASUREMENTS.contains(lower)) {
+            return Kind.MEASUREMENT;
+        }
+
+        switch (lower) {
+            case "security providers":
+                return Kind.PROVIDER_DUMP;
+            case "effective security providers":
+                return Kind.PROVIDER_ORDER;
+            case "security settings file":
+                return Kind.PROPERTIES;
+            case "/proc/cpuinfo":
+                return Kind.CPUINFO;
+            case "libnss package details":
+                return Kind.PACKAGES;
+            default:
+                return Kind.FIELDS;
+        }
+    }
+
+    static String categoryOf(final String name) {
+        final String lower = StringUtils.substringBefore(name, " (").toLowerCase(Locale.ROOT);
+
+        switch (lower) {
+            case "/proc/cpuinfo":
+            case "cpu feature summary":
+            case "lscpu output":
+                return CPU_FLAGS;
+            case "security providers":
+            case "effective security providers":
+            case "security settings file":
+                return PROVIDERS;
+            case "hotspot intrinsic flags":
+            case "intrinsics probe output":
+                return INTRINSICS;
+            case "libnss package details":
+            case "nss config":
+            case "nss config detail":
+                return NSS;
+            default:
+                return OTHER;
+        }
+    }
+
+    /**
+     * Masks what changes from one run to the next, such as elapsed times and
+     * the throughput a probe printed.
+     */
+    static String normalize(final String line) {
+        if (line.indexOf("ms") < 0 && line.indexOf("MB/s") < 0 && line.indexOf("us") < 0) {
+            return line;
+        }
+
+        return DURATION.matcher(ELAPSED.matcher(line).replaceAll("elapsed ms: -")).replaceAll("- $2");
+    }
+
+    static final class Section {
+        final String name;
+        final Kind kind;
+        final String category;
+        final long hash;
+        final long lines;
+        final Map<String, String> fields;
+
+        Section(final String name, final Kind kind, final String category, final long hash, final long lines,
+                final Map<String, String> fields) {
+            this.name = name;
+            this.kind = kind;
+            this.category = category;
+            this.hash = hash;
+            this.lines = lines;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Hashes a section's lines with 64-bit FNV-1a and reduces them to fields
+     * as they are read.
+     */
+    static final class SectionBuilder {
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private final String name;
+        private final Kind kind;
+        private final Map<String, String> fields = new LinkedHashMap<>();
+        private long hash = FNV_OFFSET;
+        private long lines;
+
+        // Provider dumps: the provider being listed, its rank and a hash of its services
+        private String provider;
+        private int providerRank;
+        private int services;
+        private long servicesHash;
+
+        // /proc/cpuinfo: flags present on every processor so far
+        private Set<String> commonFlags;
+        private int processors;
+
+        // Package details: the stanza being read
+        private String packageName;
+
+        SectionBuilder(final String name) {
+            this.name = name;
+            this.kind = kindOf(name);
+        }
+
+        void add(final String raw) {
+            final String line = normalize(raw);
+
+            lines++;
+            for (int i = 0; i < line.length(); i++) {
+                hash = (hash ^ line.charAt(i)) * FNV_PRIME;
+            }
+            hash = (hash ^ '\n') * FNV_PRIME;
+
+            if (kind == Kind.MEASUREMENT) {
+                return;
+            }
+
+            final String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                return;
+            }
+
+            if (trimmed.startsWith("[[") && trimmed.endsWith("]]")) {
+                marker(trimmed.substring(2, trimmed.length() - 2).trim());
+                return;
+            }
+
+            switch (kind) {
+                case PROVIDER_DUMP:
+                    providerDump(line);
+                    break;
+                case PROVIDER_ORDER:
+                    providerOrder(trimmed);
+                    break;
+                case PROPERTIES:
+                    if (!trimmed.startsWith("#")) {
+                        if (PROVIDER_LINE.matcher(trimmed).matches()) {
+                            providerOrder(trimmed);
+                        } else {
+                            keyValue(trimmed, trimmed.indexOf('='), 1);
+                        }
+                    }
+                    break;
+                case CPUINFO:
+                    cpuinfo(trimmed);
+                    break;
+                case PACKAGES:
+                    packageField(trimmed);
+                    break;
+                default:
+                    fieldLine(trimmed);
+                    break;
+            }
+        }
+
+        private void marker(final String marker) {
+            // Commands and their timings are masked, but the command lines name paths that move with the JDK
+            if (marker.startsWith("command: ") || marker.startsWith("End ")) {
+                return;
+            }
+            fieldLine(marker);
+        }
+
+        private void fieldLine(final String line) {
+            final int separator = line.indexOf(": ");
+
+            if (separator > 0) {
+                final String key = line.substring(0, separator).trim();
+                if (key.equalsIgnoreCase("flags") || key.equalsIgnoreCase("features")) {
+                    for (String flag : StringUtils.split(line.substring(separator + 2))) {
+                        fields.put("flag " + flag, "");
+                    }
+                    return;
+                }
+                keyValue(line, separator, 2);
+            } else if (line.endsWith(":") && line.indexOf(' ') < 0) {
+                keyValue(line, line.length() - 1, 1);
+            } else if (!MEASUREMENT_ROW.matcher(line).matches()) {
+                put(line, "");
+            }
+        }
+
+        private void keyValue(final String line, final int separator, final int separatorLength) {
+            if (separator <= 0) {
+                put(line, "");
+                return;
+            }
+            put(line.substring(0, separator).trim(), line.substring(separator + separatorLength).trim());
+        }
+
+        private void put(final String key, final String value) {
+            String unique = key;
+            for (int i = 2; fields.containsKey(unique); i++) {
+                unique = key + " (" + i + ")";
+            }
+            fields.put(unique, value);
+        }
+
+        private void providerDump(final String line) {
+            final Matcher header = PROVIDER_HEADER.matcher(line);
+
+            if (header.matches()) {
+                endProvider();
+                provider = header.group(1);
+                providerRank++;
+                fields.put(provider + " rank", Integer.toString(providerRank));
+                fields.put(provider + " version", header.group(2));
+            } else if (provider != null && line.startsWith(" ")) {
+                // Services are listed in hash table order, so their hashes are summed
+                services++;
+                servicesHash += fnv(line.trim());
+            }
+        }
+
+        private void endProvider() {
+            if (provider != null) {
+                fields.put(provider + " services",
+                        String.format("%d (%016x)", services, servicesHash));
+            }
+            services = 0;
+            servicesHash = 0;
+        }
+
+        private void providerOrder(final String line) {
+            final Matcher provider = PROVIDER_LINE.matcher(line);
+            if (provider.matches()) {
+                put("rank of " + provider.group(2).trim(), provider.group(1));
+            }
+        }
+
+        private void cpuinfo(final String line) {
+            if (PROCESSOR.matcher(line).matches()) {
+                processors++;
+                return;
+            }
+
+            final int separator = line.indexOf(':');
+            if (separator <= 0) {
+                return;
+            }
+
+            final String key = line.substring(0, separator).trim();
+            final String value = line.substring(separator + 1).trim();
+
+            if (key.equals("flags") || key.equals("Features")) {
+                final Set<String> flags = new LinkedHashSet<>(Arrays.asList(StringUtils.split(value)));
+                if (commonFlags == null) {
+                    commonFlags = flags;
+                } else {
+                    commonFlags.retainAll(flags);
+                }
+            } else if (CPUINFO_FIELDS.contains(key)) {
+                fields.putIfAbsent(key, value);
+            }
+        }
+
+        private void packageField(final String line) {
+            final int separator = line.indexOf(':');
+            if (separator <= 0) {
+                fieldLine(line);
+                return;
+            }
+
+            final String key = line.substring(0, separator).trim();
+            final String value = line.substring(separator + 1).trim();
+
+            if (key.equals("Package") || key.equals("Name")) {
+                packageName = value;
+                fields.put("package " + value, "");
+            } else if (packageName != null && PACKAGE_FIELDS.contains(key)) {
+                fields.put(packageName + " " + key, value);
+            } else if (line.startsWith("/")) {
+                // An installed library when there is no package database
+                fieldLine(line);
+            }
+        }
+
+        Section build() {
+            if (kind == Kind.PROVIDER_DUMP) {
+                endProvider();
+            }
+            if (kind == Kind.CPUINFO) {
+                fields.put("processors", Integer.toString(processors));
+                if (commonFlags != null) {
+                    for (String flag : commonFlags) {
+                        fields.put("flag " + flag, "");
+                    }
+                }
+            }
+
+            return new Section(name, kind, categoryOf(name), hash, lines, fields);
+        }
+
+        private static long fnv(final String value) {
+            long hash = FNV_OFFSET;
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.joyent.aes.debugger;
+
+/**
+ * A single entry in a report. Text records carry the free-form report
+ * output, while verdicts, facts and timings carry typed values for machine
+ * consumption.
+ */
+final class ReportRecord {
+    enum Type {
+        TEXT,
+        VERDICT,
+        FACT,
+        TIMING
+    }
+
+    final Type type;
+    final String checker;
+    final String key;
+    final String label;
+    final Object value;
+
+    private ReportRecord(final Type type, final String checker, final String key,
+                         final String label, final Object value) {
+        this.type = type;
+        this.checker = checker;
+        this.key = key;
+        this.label = label;
+        this.value = value;
+    }
+
+    static ReportRecord text(final String checker, final String text) {
+        return new ReportRecord(Type.TEXT, checker, null, null, text);
+    }
+
+    static ReportRecord verdict(final String checker, final String key, final String label,
+                                final Object value) {
+        return new ReportRecord(Type.VERDICT, checker, key, label, value);
+    }
+
+    static ReportRecord fact(final String checker, final String key, final Object value) {
+        return new ReportRecord(Type.FACT, checker, key, null, value);
+    }
+
+    static ReportRecord timing(final String checker, final String key, final Object value) {
+        return new ReportRecord(Type.TIMING, checker, key, null, value);
+    }
+}
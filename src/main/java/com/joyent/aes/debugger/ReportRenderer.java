@@ -0,0 +1,31 @@
+package com.joyent.aes.debugger;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+
+interface ReportRenderer {
+    void render(ReportRecord record) throws IOException;
+
+    void flush() throws IOException;
+
+    static boolean isKnownFormat(final String format) {
+        return format.equals("text") || format.equals("jsonl");
+    }
+
+    static ReportRenderer forFormat(final String format, final Writer writer,
+                                    final PrintStream console) {
+        return format.equals("jsonl")
+                ? new JsonLinesReportRenderer(writer, console)
+                : new TextReportRenderer(writer, console);
+    }
+
+    /**
+     * Renders the banner that starts every run appended to a report.
+     */
+    static void renderHeader(final ReportRenderer renderer) throws IOException {
+        renderer.render(ReportRecord.text("Application", "======================\n"));
+        renderer.render(ReportRecord.text("Application", "AES-NI Support Checker\n"));
+        renderer.render(ReportRecord.text("Application", "======================\n"));
+    }
+}
@@ -0,0 +1,349 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out which SecureRandom implementations key and IV generation will
+ * get, where they are seeded from and how much entropy the kernel has, then
+ * times nextBytes and generateSeed with several callers at once. A source
+ * that can block, /dev/random on a kernel older than 5.6, stalls TLS
+ * handshakes and key generation rather than AES itself, so an instance that
+ * reads it is flagged even if it happened not to block during the
+ * measurement.
+ */
+public class SecureRandomChecker implements Checkable {
+    static final String ENTROPY_AVAIL = "/proc/sys/kernel/random/entropy_avail";
+    static final String POOL_SIZE = "/proc/sys/kernel/random/poolsize";
+
+    static final String BLOCKING_ALGORITHM = "NativePRNGBlocking";
+    static final String NON_BLOCKING_ALGORITHM = "NativePRNGNonBlocking";
+    static final String MIXED_ALGORITHM = "NativePRNG";
+
+    // From 5.6 /dev/random only blocks until the pool is first initialised
+    static final int[] NON_BLOCKING_KERNEL = new int[] { 5, 6 };
+
+    // Fewer bits than this on an older kernel and /dev/random readers wait
+    static final int LOW_ENTROPY_BITS = 256;
+
+    static final int RANDOM_BYTES = 32;
+
+    // A p99 slower than this is noticeable in a handshake, and marked slow in the facts
+    static final double SLOW_CALL_MICROS = 10_000.0;
+
+    private final Report report;
+    private final Writer out;
+    private final int samples;
+    private final long timeoutMillis;
+    // Read in check() so that the cgroup reads are attributed to this checker
+    private int callers;
+
+    public SecureRandomChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
+        this.samples = Math.max(1, Integer.getInteger("aes.debugger.random.samples", 200));
+        this.timeoutMillis = Long.getLong("aes.debugger.random.timeout.ms", 5000L);
+    }
+
+    /**
+     * Run alone, as other checkers and the intrinsics probe JVM competing for
+     * the CPU would show up in the latencies.
+     */
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        // At least two, so that contention on a shared instance shows even on one CPU
+        callers = Math.max(1, Integer.getInteger("aes.debugger.random.callers",
+                Math.max(2, CgroupLimits.effectiveParallelism())));
+
+        out.append("[[Start secure random]]\n");
+
+        final List<String> blocking = new ArrayList<>();
+
+        final SecureRandom defaultRandom = new SecureRandom();
+        SecureRandom strongRandom = null;
+        try {
+            strongRandom = SecureRandom.getInstanceStrong();
+        } catch (NoSuchAlgorithmException e) {
+            out.append(String.format("SecureRandom.getInstanceStrong() failed: %s\n", e.getMessage()));
+        }
+
+        final Map<String, String> settings = securitySettings();
+        final String egd = System.getProperty("java.security.egd");
+        // java.security.egd takes precedence over securerandom.source
+        final String seedSource = egd != null ? egd : settings.get("securerandom.source");
+
+        out.append(String.format("new SecureRandom(): %s (%s)\n",
+                defaultRandom.getAlgorithm(), defaultRandom.getProvider().getName()));
+        out.append(String.format("SecureRandom.getInstanceStrong(): %s\n", strongRandom == null ? "unavailable"
+                : String.format("%s (%s)", strongRandom.getAlgorithm(), strongRandom.getProvider().getName())));
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            out.append(String.format("%s: %s\n", setting.getKey(), setting.getValue()));
+        }
+        out.append(String.format("java.security.egd: %s\n", StringUtils.defaultString(egd, "<not set>")));
+
+        final int entropy = readInt(ENTROPY_AVAIL);
+        final int poolSize = readInt(POOL_SIZE);
+        final String kernel = System.getProperty("os.version");
+        final boolean kernelBlocks = isBlockingKernel(kernel);
+
+        blocking.addAll(blockingSources("new SecureRandom()", defaultRandom.getAlgorithm(),
+                seedSource, kernelBlocks));
+        if (strongRandom != null) {
+            blocking.addAll(blockingSources("SecureRandom.getInstanceStrong()", strongRandom.getAlgorithm(),
+                    seedSource, kernelBlocks));
+        }
+
+        out.append(String.format("kernel: %s (/dev/random %s)\n", kernel,
+                kernelBlocks ? "blocks when entropy runs low" : "only blocks until initialised"));
+        out.append(String.format("entropy available: %s of %s bits\n",
+                entropy < 0 ? "unknown" : entropy, poolSize < 0 ? "unknown" : poolSize));
+
+        if (kernelBlocks && entropy >= 0 && entropy < LOW_ENTROPY_BITS) {
+            blocking.add(String.format("only %d bits of entropy on a kernel where /dev/random blocks", entropy));
+        }
+
+        out.append(String.format("\n%d callers, %d samples each, %d ms deadline\n", callers, samples,
+                timeoutMillis));
+        out.append(String.format("%-40s %8s %10s %10s %10s %10s %8s\n",
+                "operation", "samples", "p50 us", "p90 us", "p99 us", "max us", "stalled"));
+
+        final byte[][] buffers = new byte[callers][RANDOM_BYTES];
+        measure(String.format("%s nextBytes(%d)", defaultRandom.getAlgorithm(), RANDOM_BYTES), samples,
+                caller -> defaultRandom.nextBytes(buffers[caller]), blocking);
+        if (strongRandom != null) {
+            final SecureRandom strong = strongRandom;
+            measure(String.format("strong %s nextBytes(%d)", strong.getAlgorithm(), RANDOM_BYTES), samples,
+                    caller -> strong.nextBytes(buffers[caller]), blocking);
+        }
+        // Seeds come straight from the source, so fewer are asked for
+        measure(String.format("%s generateSeed(%d)", defaultRandom.getAlgorithm(), RANDOM_BYTES),
+                Math.max(1, samples / 10), caller -> defaultRandom.generateSeed(RANDOM_BYTES), blocking);
+
+        out.append("[[End secure random]]\n\n");
+
+        final Map<String, Object> fact = new LinkedHashMap<>();
+        fact.put("algorithm", defaultRandom.getAlgorithm());
+        fact.put("provider", defaultRandom.getProvider().getName());
+        fact.put("strongAlgorithm", strongRandom == null ? null : strongRandom.getAlgorithm());
+        fact.put("strongProvider", strongRandom == null ? null : strongRandom.getProvider().getName());
+        fact.put("seedSource", seedSource);
+        fact.put("egd", egd);
+        fact.put("settings", settings);
+        fact.put("kernel", kernel);
+        fact.put("kernelBlocks", kernelBlocks);
+        fact.put("entropyAvailable", entropy < 0 ? null : entropy);
+        fact.put("poolSize", poolSize < 0 ? null : poolSize);
+        report.fact("securerandom", fact);
+
+        report.verdict("securerandom.blocking", "SecureRandom can block",
+                blocking.isEmpty() ? "no" : "yes: " + String.join("; ", blocking));
+    }
+
+    private interface Call {
+        void call(int caller);
+    }
+
+    /**
+     * Runs the call on every caller at once. Callers still blocked at the
+     * deadline are abandoned, as a read of /dev/random can't be interrupted.
+     */
+    private void measure(final String operation, final int perCaller, final Call call,
+                         final List<String> blocking) throws IOException {
+        final List<Long> nanos = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(callers);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(callers, runnable -> {
+            Thread thread = new Thread(runnable, "secure-random-caller");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        boolean stalled;
+        try {
+            for (int i = 0; i < callers; i++) {
+                final int caller = i;
+                executor.submit(() -> {
+                    try {
+                        start.await();
+                        for (int sample = 0; sample < perCaller && System.nanoTime() < deadline; sample++) {
+                            final long before = System.nanoTime();
+                            call.call(caller);
+                            nanos.add(System.nanoTime() - before);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                    return null;
+                });
+            }
+
+            final Probe probe = Probe.start(Probe.BENCHMARK, operation);
+            try {
+                start.countDown();
+                stalled = !done.await(timeoutMillis + 1000L, TimeUnit.MILLISECONDS)
+                        || nanos.size() < perCaller * callers;
+            } finally {
+                probe.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while timing SecureRandom", e);
+        } catch (RuntimeException e) {
+            out.append(String.format("Error timing %s:\n", operation));
+            out.append(ExceptionUtils.getStackTrace(e));
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final long[] sampled;
+        synchronized (nanos) {
+            sampled = nanos.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        if (sampled.length == 0) {
+            out.append(String.format("%-40s %8d %10s %10s %10s %10s %8s\n", operation, 0,
+                    "-", "-", "-", "-", "yes"));
+            blocking.add(operation + " returned nothing within " + timeoutMillis + " ms");
+            return;
+        }
+
+        final Latency latency = new Latency(operation, sampled);
+        out.append(String.format("%-40s %8d %10.1f %10.1f %10.1f %10.1f %8s\n", operation, latency.samples,
+                latency.p50Micros(), latency.percentileMicros(90), latency.p99Micros(), latency.maxMicros(),
+                stalled ? "yes" : "no"));
+
+        // A slow tail is reported but isn't blocking: scheduling and lock contention cause it too
+        if (stalled) {
+            blocking.add(String.format("%s completed %d of %d calls within %d ms", operation,
+                    latency.samples, perCaller * callers, timeoutMillis));
+        }
+
+        final Map<String, Object> fact = new LinkedHashMap<>();
+        fact.put("operation", operation);
+        fact.put("callers", callers);
+        fact.put("samples", latency.samples);
+        fact.put("p50Us", latency.p50Micros());
+        fact.put("p90Us", latency.percentileMicros(90));
+        fact.put("p99Us", latency.p99Micros());
+        fact.put("maxUs", latency.maxMicros());
+        fact.put("stalled", stalled);
+        fact.put("slow", latency.p99Micros() > SLOW_CALL_MICROS);
+        report.fact("securerandom.latency", fact);
+    }
+
+    /**
+     * The securerandom.* properties of the effective java.security.
+     */
+    private Map<String, String> securitySettings() throws IOException {
+        final Map<String, String> settings = new LinkedHashMap<>();
+
+        try {
+            for (Map.Entry<String, String> property : JavaSecurityResolver.resolve().properties.entrySet()) {
+                if (property.getKey().startsWith("securerandom.")) {
+                    settings.put(property.getKey(), property.getValue());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            out.append("Error resolving java.security:\n");
+            out.append(ExceptionUtils.getStackTrace(e));
+        }
+
+        return settings;
+    }
+
+    /**
+     * Why the nextBytes or generateSeed of the named instance can block, if
+     * they can. NativePRNGBlocking reads both from /dev/random, NativePRNG
+     * only seeds from the seed source, which is /dev/random unless configured
+     * otherwise, and NativePRNGNonBlocking reads /dev/urandom for both. Other
+     * algorithms, such as DRBG and SHA1PRNG, are seeded and generate seeds
+     * from the seed source. None of it blocks from kernel 5.6 on.
+     */
+    static List<String> blockingSources(final String name, final String algorithm, final String seedSource,
+                                        final boolean kernelBlocks) {
+        final List<String> reasons = new ArrayList<>();
+
+        if (!kernelBlocks || NON_BLOCKING_ALGORITHM.equals(algorithm)) {
+            return reasons;
+        }
+
+        if (BLOCKING_ALGORITHM.equals(algorithm)) {
+            reasons.add(String.format("%s is %s, whose nextBytes and generateSeed read /dev/random "
+                    + "on a kernel where it blocks", name, algorithm));
+        } else if (MIXED_ALGORITHM.equals(algorithm)) {
+            if (seedSource == null || isDevRandom(seedSource)) {
+                reasons.add(String.format("%s is %s, whose generateSeed reads /dev/random "
+                        + "on a kernel where it blocks", name, algorithm));
+            }
+        } else if (isDevRandom(seedSource)) {
+            reasons.add(String.format("%s is %s, seeded from %s on a kernel where it blocks",
+                    name, algorithm, seedSource));
+        }
+
+        return reasons;
+    }
+
+    static boolean isDevRandom(final String source) {
+        if (source == null) {
+            return false;
+        }
+
+        final String path = StringUtils.removeStart(StringUtils.removeStart(source.trim(), "file:"), "//");
+        return Paths.get(path).normalize().toString().equals("/dev/random");
+    }
+
+    /**
+     * Whether the kernel named by an os.version such as "5.4.0-150-generic"
+     * blocks /dev/random readers when entropy runs low. Unknown versions are
+     * assumed not to.
+     */
+    static boolean isBlockingKernel(final String version) {
+        final String[] parts = StringUtils.split(StringUtils.defaultString(version), ".-");
+        if (parts.length < 2 || !NumberUtils.isDigits(parts[0]) || !NumberUtils.isDigits(parts[1])) {
+            return false;
+        }
+
+        final int major = NumberUtils.toInt(parts[0]);
+        final int minor = NumberUtils.toInt(parts[1]);
+
+        return major < NON_BLOCKING_KERNEL[0] || (major == NON_BLOCKING_KERNEL[0] && minor < NON_BLOCKING_KERNEL[1]);
+    }
+
+    private static int readInt(final String path) {
+        try (Probe probe = Probe.start(Probe.FILE, path)) {
+            final byte[] bytes = Files.readAllBytes(Paths.get(path));
+            probe.bytes(bytes.length);
+            return NumberUtils.toInt(new String(bytes, StandardCharsets.US_ASCII).trim(), -1);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
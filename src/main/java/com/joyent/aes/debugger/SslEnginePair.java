@@ -0,0 +1,163 @@
+package com.joyent.aes.debugger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.nio.ByteBuffer;
+
+/**
+ * A client and a server SSLEngine wired back to back through two in-memory
+ * buffers, so that TLS can be driven with no sockets, threads or network and
+ * the cost measured is the handshake and record protection alone.
+ */
+final class SslEnginePair {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    final SSLEngine client;
+    final SSLEngine server;
+
+    // Both kept ready for writing, as the engines leave them
+    private final ByteBuffer clientToServer;
+    private final ByteBuffer serverToClient;
+    private final ByteBuffer clientApp;
+    private final ByteBuffer serverApp;
+
+    /**
+     * The client is given no peer host or port, which is all its session
+     * cache is keyed by, so it never offers a session to resume.
+     */
+    SslEnginePair(final SSLContext context, final String protocol, final String cipherSuite) {
+        client = context.createSSLEngine();
+        client.setUseClientMode(true);
+        server = context.createSSLEngine();
+        server.setUseClientMode(false);
+
+        for (SSLEngine engine : new SSLEngine[] { client, server }) {
+            engine.setEnabledProtocols(new String[] { protocol });
+            engine.setEnabledCipherSuites(new String[] { cipherSuite });
+        }
+
+        final SSLSession session = client.getSession();
+        // Room for a whole flight, so one side can keep wrapping before the other unwraps
+        clientToServer = ByteBuffer.allocate(session.getPacketBufferSize() * 4);
+        serverToClient = ByteBuffer.allocate(session.getPacketBufferSize() * 4);
+        clientApp = ByteBuffer.allocate(session.getApplicationBufferSize());
+        serverApp = ByteBuffer.allocate(session.getApplicationBufferSize());
+    }
+
+    void handshake() throws SSLException {
+        client.beginHandshake();
+        server.beginHandshake();
+        settle();
+    }
+
+    /**
+     * Sends the payload from client to server, returning the application bytes
+     * the server received.
+     */
+    long send(final ByteBuffer payload) throws SSLException {
+        long received = 0;
+        payload.rewind();
+
+        while (payload.hasRemaining()) {
+            final SSLEngineResult wrapped = client.wrap(payload, clientToServer);
+            check(wrapped, "wrap");
+
+            clientToServer.flip();
+            while (clientToServer.hasRemaining()) {
+                serverApp.clear();
+                final SSLEngineResult unwrapped = server.unwrap(clientToServer, serverApp);
+                if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    break;
+                }
+                check(unwrapped, "unwrap");
+                received += unwrapped.bytesProduced();
+            }
+            clientToServer.compact();
+
+            // TLS 1.3 key updates and session tickets arrive as post-handshake messages
+            if (!isDone(client) || !isDone(server)) {
+                settle();
+            }
+        }
+
+        return received;
+    }
+
+    /**
+     * Steps both engines until neither has handshake work left.
+     */
+    private void settle() throws SSLException {
+        while (!isDone(client) || !isDone(server)) {
+            final boolean clientProgressed = step(client, clientToServer, serverToClient, clientApp);
+            final boolean serverProgressed = step(server, serverToClient, clientToServer, serverApp);
+
+            if (!clientProgressed && !serverProgressed) {
+                throw new SSLException(String.format("Handshake stalled, client %s server %s",
+                        client.getHandshakeStatus(), server.getHandshakeStatus()));
+            }
+        }
+
+        // A TLS 1.3 server sends its session ticket after it considers the handshake done
+        serverToClient.flip();
+        while (serverToClient.hasRemaining()) {
+            clientApp.clear();
+            final SSLEngineResult result = client.unwrap(serverToClient, clientApp);
+            if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesConsumed() == 0) {
+                break;
+            }
+        }
+        serverToClient.compact();
+    }
+
+    private static boolean step(final SSLEngine engine, final ByteBuffer outbound, final ByteBuffer inbound,
+                                final ByteBuffer app) throws SSLException {
+        final SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        final SSLEngineResult result;
+
+        // By name, as NEED_UNWRAP_AGAIN only exists from Java 9
+        switch (status.name()) {
+            case "NEED_TASK":
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                return true;
+            case "NEED_WRAP":
+                result = engine.wrap(EMPTY, outbound);
+                break;
+            case "NEED_UNWRAP":
+            case "NEED_UNWRAP_AGAIN":
+                inbound.flip();
+                try {
+                    app.clear();
+                    result = engine.unwrap(inbound, app);
+                } finally {
+                    inbound.compact();
+                }
+                break;
+            default:
+                return false;
+        }
+
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("Engine closed during the handshake: " + result);
+        }
+
+        return result.bytesConsumed() > 0 || result.bytesProduced() > 0 || result.getHandshakeStatus() != status;
+    }
+
+    private static boolean isDone(final SSLEngine engine) {
+        final SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                || status == SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    private static void check(final SSLEngineResult result, final String operation) throws SSLException {
+        if (result.getStatus() != SSLEngineResult.Status.OK) {
+            throw new SSLException(String.format("%s failed: %s", operation, result));
+        }
+    }
+}
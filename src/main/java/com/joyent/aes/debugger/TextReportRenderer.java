@@ -0,0 +1,40 @@
+package com.joyent.aes.debugger;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+
+/**
+ * Renders the classic free text report: text records go to the report file
+ * verbatim and verdicts are printed to the console.
+ */
+class TextReportRenderer implements ReportRenderer {
+    private final Writer out;
+    private final PrintStream console;
+
+    TextReportRenderer(final Writer writer, final PrintStream console) {
+        this.out = writer;
+        this.console = console;
+    }
+
+    @Override
+    public void render(final ReportRecord record) throws IOException {
+        switch (record.type) {
+            case TEXT:
+                out.append((String) record.value);
+                break;
+            case VERDICT:
+                console.printf("%s: %s\n", record.label, record.value);
+                break;
+            default:
+                // Facts and timings are already part of the free text output
+                break;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+        console.flush();
+    }
+}
@@ -0,0 +1,446 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives TLS between a client and a server SSLEngine in memory, with a
+ * throwaway EC key generated by keytool, and measures full handshakes per
+ * second and bulk record throughput for the AES-GCM and ChaCha20-Poly1305
+ * suites. JSSE gets its ciphers, signatures and key agreement through the
+ * provider order like any other caller, so the runs are repeated with NSS
+ * moved to the front and, when java.security installs it, with NSS removed.
+ * <p>
+ * Those variants rewrite the JVM-wide provider list through {@link Security}
+ * and put the original back after each one, so the checker runs alone, and
+ * anything else in the JVM that resolves a provider meanwhile sees the
+ * variant's order.
+ */
+public class TlsLoopbackChecker implements Checkable {
+    static final String[][] SUITES = new String[][] {
+            { "TLSv1.3", "TLS_AES_128_GCM_SHA256" },
+            { "TLSv1.3", "TLS_AES_256_GCM_SHA384" },
+            { "TLSv1.3", "TLS_CHACHA20_POLY1305_SHA256" },
+            { "TLSv1.2", "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256" },
+            { "TLSv1.2", "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384" },
+            { "TLSv1.2", "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256" }
+    };
+
+    static final int[] RECORD_SIZES = new int[] { 1024, 16384 };
+
+    static final String EFFECTIVE = "effective";
+    static final String NSS_FIRST = "nss-first";
+    static final String NSS_OFF = "nss-off";
+
+    private static final String KEY_ALIAS = "aes-debugger";
+    private static final String KEY_PASSWORD = "aes-debugger";
+
+    private final Report report;
+    private final Writer out;
+    private final long warmupNanos;
+    private final long measureNanos;
+
+    public TlsLoopbackChecker(final Report report) {
+        this.report = report;
+        this.out = report.text();
+        this.warmupNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("aes.debugger.tls.warmup.ms", 300L));
+        this.measureNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("aes.debugger.tls.measure.ms", 700L));
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    public void check() throws IOException {
+        out.append("[[Start TLS loopback]]\n");
+
+        final SSLContext context;
+        final KeyManager[] keyManagers;
+        final TrustManager[] trustManagers;
+        try {
+            final KeyStore keyStore = generateKeyStore();
+            keyManagers = keyManagers(keyStore);
+            trustManagers = trustManagers(keyStore);
+            context = newContext(keyManagers, trustManagers);
+            out.append(String.format("SSLContext: %s (%s), key: EC P-256 self-signed\n\n",
+                    context.getProtocol(), context.getProvider().getName()));
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            out.append("Error creating the TLS context:\n");
+            out.append(ExceptionUtils.getStackTrace(e));
+            out.append("[[End TLS loopback]]\n\n");
+            report.verdict("tls", "TLS loopback", "could not create a TLS context");
+            return;
+        }
+
+        final List<String> supported = Arrays.asList(context.getSupportedSSLParameters().getCipherSuites());
+        final List<String> summary = new ArrayList<>();
+
+        final Provider[] original = Security.getProviders();
+        final List<Provider> installedNss = installedNssProviders();
+        final Provider nss = installedNss.isEmpty() ? loadNss() : installedNss.get(0);
+
+        // A discarded pass over every suite, so the first rows aren't measuring the JIT
+        for (String[] suite : SUITES) {
+            if (supported.contains(suite[1])) {
+                warmUp(context, suite[0], suite[1]);
+            }
+        }
+
+        out.append(String.format("%-10s %-8s %-46s %-14s %8s %10s %10s %10s %10s\n", "variant", "protocol",
+                "suite", "cipher", "hs/s", "hs p50 ms", "hs p99 ms", "1K MB/s", "16K MB/s"));
+
+        final List<String> variants = new ArrayList<>();
+        variants.add(EFFECTIVE);
+        if (nss != null) {
+            variants.add(NSS_FIRST);
+        }
+        if (!installedNss.isEmpty()) {
+            variants.add(NSS_OFF);
+        }
+
+        for (String variant : variants) {
+            try {
+                // JVM-wide: every thread resolving a provider sees this order until it is restored
+                if (variant.equals(NSS_FIRST)) {
+                    Security.removeProvider(nss.getName());
+                    Security.insertProviderAt(nss, 1);
+                } else if (variant.equals(NSS_OFF)) {
+                    for (Provider provider : installedNss) {
+                        Security.removeProvider(provider.getName());
+                    }
+                }
+
+                // A context of its own, so no session or provider lookup carries over
+                final SSLContext variantContext;
+                try {
+                    variantContext = newContext(keyManagers, trustManagers);
+                } catch (GeneralSecurityException | RuntimeException e) {
+                    out.append(String.format("%-10s could not create a TLS context: %s\n", variant, e));
+                    continue;
+                }
+
+                for (String[] suite : SUITES) {
+                    if (!supported.contains(suite[1])) {
+                        out.append(String.format("%-10s %-8s %-46s not supported by this JVM\n",
+                                variant, suite[0], suite[1]));
+                        continue;
+                    }
+
+                    final String outcome = measure(variantContext, variant, suite[0], suite[1]);
+                    if (outcome != null && variant.equals(EFFECTIVE)) {
+                        summary.add(outcome);
+                    }
+                }
+            } finally {
+                restoreProviders(original);
+            }
+        }
+
+        out.append("[[End TLS loopback]]\n\n");
+
+        report.verdict("tls", "TLS loopback with the effective provider order",
+                summary.isEmpty() ? "no suite could be measured" : String.join(", ", summary));
+    }
+
+    /**
+     * @return a summary for the verdict, or null if the suite failed
+     */
+    private String measure(final SSLContext context, final String variant, final String protocol,
+                           final String suite) throws IOException {
+        final String cipherProvider = cipherProvider(suite);
+        final Handshakes handshakes;
+        final double[] megabytesPerSecond = new double[RECORD_SIZES.length];
+
+        try (Probe probe = Probe.start(Probe.BENCHMARK, String.format("%s %s %s", variant, protocol, suite))) {
+            handshakes = handshakes(context, protocol, suite);
+
+            final SslEnginePair pair = new SslEnginePair(context, protocol, suite);
+            pair.handshake();
+
+            for (int i = 0; i < RECORD_SIZES.length; i++) {
+                final ByteBuffer payload = ByteBuffer.allocate(RECORD_SIZES[i]);
+                runFor(pair, payload, warmupNanos);
+                final long[] sent = runFor(pair, payload, measureNanos);
+                megabytesPerSecond[i] = sent[0] / (sent[1] / 1e9) / 1_000_000.0;
+                probe.bytes(sent[0]);
+            }
+        } catch (IOException | RuntimeException e) {
+            out.append(String.format("%-10s %-8s %-46s failed: %s\n", variant, protocol, suite, e));
+            return null;
+        }
+
+        out.append(String.format("%-10s %-8s %-46s %-14s %8.1f %10.2f %10.2f %10.1f %10.1f\n", variant,
+                protocol, suite, cipherProvider, handshakes.perSecond, handshakes.latency.p50Micros() / 1000.0,
+                handshakes.latency.p99Micros() / 1000.0, megabytesPerSecond[0], megabytesPerSecond[1]));
+
+        final Map<String, Object> fact = new LinkedHashMap<>();
+        fact.put("variant", variant);
+        fact.put("protocol", protocol);
+        fact.put("suite", suite);
+        fact.put("cipherProvider", cipherProvider);
+        fact.put("handshakesPerSecond", handshakes.perSecond);
+        fact.put("handshakeP50Us", handshakes.latency.p50Micros());
+        fact.put("handshakeP99Us", handshakes.latency.p99Micros());
+        for (int i = 0; i < RECORD_SIZES.length; i++) {
+            fact.put("MBps" + RECORD_SIZES[i], megabytesPerSecond[i]);
+        }
+        report.fact("tls", fact);
+
+        return String.format("%s %s %.0f handshakes/s %.1f MB/s", protocol, suite, handshakes.perSecond,
+                megabytesPerSecond[megabytesPerSecond.length - 1]);
+    }
+
+    private void warmUp(final SSLContext context, final String protocol, final String suite) {
+        try {
+            for (long end = System.nanoTime() + warmupNanos; System.nanoTime() < end; ) {
+                final SslEnginePair pair = new SslEnginePair(context, protocol, suite);
+                pair.handshake();
+                for (int recordSize : RECORD_SIZES) {
+                    pair.send(ByteBuffer.allocate(recordSize));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The measured run reports the failure
+        }
+    }
+
+    private Handshakes handshakes(final SSLContext context, final String protocol,
+                                  final String suite) throws IOException {
+        for (long end = System.nanoTime() + warmupNanos; System.nanoTime() < end; ) {
+            new SslEnginePair(context, protocol, suite).handshake();
+        }
+
+        long[] nanos = new long[256];
+        int count = 0;
+        final long start = System.nanoTime();
+        long now = start;
+
+        while (now - start < measureNanos) {
+            final SslEnginePair pair = new SslEnginePair(context, protocol, suite);
+            final long before = now;
+            pair.handshake();
+            now = System.nanoTime();
+
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = now - before;
+        }
+
+        return new Handshakes(count / ((now - start) / 1e9),
+                new Latency("handshake", Arrays.copyOf(nanos, count)));
+    }
+
+    /**
+     * @return the application bytes delivered and the nanoseconds taken
+     */
+    private static long[] runFor(final SslEnginePair pair, final ByteBuffer payload,
+                                 final long durationNanos) throws IOException {
+        long bytes = 0;
+        final long start = System.nanoTime();
+        long now = start;
+
+        // Check the clock every few records rather than on every one
+        while (now - start < durationNanos) {
+            for (int i = 0; i < 16; i++) {
+                bytes += pair.send(payload);
+            }
+            now = System.nanoTime();
+        }
+
+        return new long[] { bytes, now - start };
+    }
+
+    /**
+     * A context that both presents and trusts the generated certificate. The
+     * client keeps a single session, and SslEnginePair gives the client no
+     * peer to look one up by, so every handshake is a full one.
+     */
+    private static SSLContext newContext(final KeyManager[] keyManagers, final TrustManager[] trustManagers)
+            throws GeneralSecurityException {
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers, trustManagers, null);
+        context.getClientSessionContext().setSessionCacheSize(1);
+        return context;
+    }
+
+    /**
+     * A key store holding a new self-signed EC certificate. keytool is used as
+     * the JDK has no public API for certificates.
+     */
+    private static KeyStore generateKeyStore() throws IOException, GeneralSecurityException {
+        final Path directory = Files.createTempDirectory("aes-debugger-tls");
+        final File keyStoreFile = directory.resolve("loopback.p12").toFile();
+        final char[] password = KEY_PASSWORD.toCharArray();
+
+        try {
+            final List<String> errors = new ArrayList<>();
+            final ProcessRunner.Result result = ProcessRunner.withDefaultTimeout().run(line -> { }, errors::add,
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool",
+                    "-genkeypair", "-alias", KEY_ALIAS, "-keyalg", "EC", "-keysize", "256",
+                    "-sigalg", "SHA256withECDSA", "-dname", "CN=localhost", "-validity", "1",
+                    "-storetype", "PKCS12", "-keystore", keyStoreFile.getPath(),
+                    "-storepass", new String(password), "-keypass", new String(password));
+
+            if (!result.succeeded()) {
+                throw new IOException(String.format("keytool could not generate a key: %s%s", result,
+                        String.join("\n", errors)));
+            }
+
+            final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream in = Files.newInputStream(keyStoreFile.toPath())) {
+                keyStore.load(in, password);
+            }
+            return keyStore;
+        } finally {
+            Files.deleteIfExists(keyStoreFile.toPath());
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static KeyManager[] keyManagers(final KeyStore keyStore) throws GeneralSecurityException {
+        final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, KEY_PASSWORD.toCharArray());
+        return keyManagers.getKeyManagers();
+    }
+
+    private static TrustManager[] trustManagers(final KeyStore keyStore)
+            throws IOException, GeneralSecurityException {
+        final KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry(KEY_ALIAS, keyStore.getCertificate(KEY_ALIAS));
+
+        final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trustStore);
+        return trustManagers.getTrustManagers();
+    }
+
+    /**
+     * The provider the suite's record cipher resolves to under the current
+     * provider order, as JSSE looks it up.
+     */
+    private static String cipherProvider(final String suite) {
+        try {
+            final Cipher cipher;
+
+            if (suite.contains("CHACHA20")) {
+                cipher = Cipher.getInstance("ChaCha20-Poly1305");
+                cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[32], "ChaCha20"),
+                        new IvParameterSpec(new byte[12]));
+            } else {
+                cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                CipherBenchmark.initEncrypt(cipher, new SecretKeySpec(new byte[suite.contains("AES_256") ? 32 : 16],
+                        "AES"), "AES/GCM/NoPadding", CipherBenchmark.newIv("AES/GCM/NoPadding"));
+            }
+
+            return cipher.getProvider().getName();
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return "-";
+        }
+    }
+
+    /**
+     * The SunPKCS11 providers java.security installed from an NSS config.
+     */
+    private List<Provider> installedNssProviders() throws IOException {
+        final List<Provider> providers = new ArrayList<>();
+
+        try {
+            for (LibnssChecker.ProviderLine providerLine : JavaSecurityResolver.resolve().providers()) {
+                if (!providerLine.isPkcs11() || StringUtils.isBlank(providerLine.config)) {
+                    continue;
+                }
+
+                final LibnssChecker.NSSConfig config = LibnssChecker.NSSConfig.parseFromFilePath(
+                        JavaSecurityResolver.expand(providerLine.config, SystemUtils.JAVA_HOME));
+                final Provider provider = config.nssLibraryInstalled && StringUtils.isNotBlank(config.name)
+                        ? Security.getProvider(Pkcs11ProviderLoader.PROVIDER_NAME + "-" + config.name) : null;
+
+                if (provider != null) {
+                    providers.add(provider);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            out.append("Error resolving java.security:\n");
+            out.append(ExceptionUtils.getStackTrace(e));
+        }
+
+        return providers;
+    }
+
+    /**
+     * An NSS provider for the nss-first runs when java.security installs none,
+     * from a generated config for the system libnss3.
+     */
+    private Provider loadNss() throws IOException {
+        try {
+            final String config = Pkcs11ProviderLoader.generateNssConfig();
+            if (config == null) {
+                out.append("No NSS provider is installed and libnss3 wasn't found, NSS runs skipped\n\n");
+                return null;
+            }
+
+            final Provider provider = Pkcs11ProviderLoader.load(config, null);
+            out.append(String.format("No NSS provider is installed, loaded %s from %s\n\n",
+                    provider.getName(), config));
+            return provider;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            out.append("Error loading NSS, NSS runs skipped:\n");
+            out.append(ExceptionUtils.getStackTrace(e));
+            return null;
+        }
+    }
+
+    /**
+     * Puts the provider list the JVM had before the variant back, in order.
+     */
+    private static void restoreProviders(final Provider[] original) {
+        for (Provider provider : Security.getProviders()) {
+            Security.removeProvider(provider.getName());
+        }
+        for (Provider provider : original) {
+            Security.addProvider(provider);
+        }
+    }
+
+    private static class Handshakes {
+        final double perSecond;
+        final Latency latency;
+
+        Handshakes(final double perSecond, final Latency latency) {
+            this.perSecond = perSecond;
+            this.latency = latency;
+        }
+    }
+}
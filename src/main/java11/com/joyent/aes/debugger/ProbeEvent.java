@@ -0,0 +1,54 @@
+package com.joyent.aes.debugger;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder form of a {@link Probe}, so that a recording of a slow
+ * run shows the checkers' work alongside GC, I/O and thread events. It is
+ * compiled for Java 11 apart from the rest of the tree, which targets Java 8,
+ * and {@link Probe} only loads it by name when jdk.jfr is present.
+ */
+@Name("com.joyent.aes.debugger.Probe")
+@Label("AES Debugger Probe")
+@Category("AES Debugger")
+@Description("A checker, command, file read, directory walk or benchmark phase run by the AES debugger")
+final class ProbeEvent extends Event implements Probe.Recorded {
+    @Label("Checker")
+    String checker;
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Name")
+    String name;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("CPU Time")
+    @Description("CPU time of the probing thread, or -1 if the JVM can't measure it")
+    @Timespan
+    long cpuTime;
+
+    @Override
+    public void record(final String checker, final String kind, final String name, final long bytes,
+                       final long cpuNanos) {
+        end();
+
+        if (shouldCommit()) {
+            this.checker = checker;
+            this.kind = kind;
+            this.name = name;
+            this.bytes = bytes;
+            this.cpuTime = cpuNanos;
+            commit();
+        }
+    }
+}
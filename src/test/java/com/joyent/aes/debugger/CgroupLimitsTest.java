@@ -0,0 +1,151 @@
+package com.joyent.aes.debugger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CgroupLimitsTest {
+    private static final String V1_MOUNTS =
+            "30 25 0:26 / /sys/fs/cgroup/cpu,cpuacct rw,nosuid - cgroup cgroup rw,cpu,cpuacct\n"
+            + "31 25 0:27 / /sys/fs/cgroup/memory rw,nosuid - cgroup cgroup rw,memory\n"
+            + "32 25 0:28 / /sys/fs/cgroup/cpuset rw,nosuid - cgroup cgroup rw,cpuset\n";
+    private static final String V2_MOUNTS =
+            "28 24 0:25 / /sys/fs/cgroup rw,nosuid,nodev,noexec - cgroup2 cgroup2 rw,nsdelegate\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsV1Limits() throws IOException {
+        write("proc/self/cgroup", "12:cpuset:/docker/abc\n9:memory:/docker/abc\n4:cpu,cpuacct:/docker/abc\n"
+                + "1:name=systemd:/docker/abc\n");
+        write("proc/self/mountinfo", V1_MOUNTS);
+        write("sys/fs/cgroup/cpu,cpuacct/docker/abc/cpu.cfs_quota_us", "150000\n");
+        write("sys/fs/cgroup/cpu,cpuacct/docker/abc/cpu.cfs_period_us", "100000\n");
+        write("sys/fs/cgroup/cpu,cpuacct/docker/abc/cpu.shares", "512\n");
+        write("sys/fs/cgroup/cpu,cpuacct/cpu.cfs_quota_us", "-1\n");
+        write("sys/fs/cgroup/cpu,cpuacct/cpu.cfs_period_us", "100000\n");
+        write("sys/fs/cgroup/memory/docker/abc/memory.limit_in_bytes", "536870912\n");
+        write("sys/fs/cgroup/memory/memory.limit_in_bytes", "9223372036854771712\n");
+        write("sys/fs/cgroup/cpuset/docker/abc/cpuset.effective_cpus", "0-7\n");
+        write("sys/devices/system/cpu/online", "0-15\n");
+
+        final CgroupLimits limits = CgroupLimits.read(folder.getRoot().toPath());
+
+        assertEquals(150000L, limits.quotaMicros);
+        assertEquals(100000L, limits.periodMicros);
+        assertEquals(1.5, limits.quotaCpus(), 0.0);
+        assertEquals(path("sys/fs/cgroup/cpu,cpuacct/docker/abc"), limits.quotaFile);
+        assertEquals("512", limits.shares);
+        assertEquals(536870912L, limits.memoryLimitBytes);
+        assertEquals(8, limits.cpusetCpus);
+        assertEquals(16, limits.hostCpus);
+        // The quota is rounded up, as the JVM does
+        assertEquals(2, limits.effectiveCpus());
+    }
+
+    @Test
+    public void readsV2Limits() throws IOException {
+        write("proc/self/cgroup", "0::/system.slice/app.service\n");
+        write("proc/self/mountinfo", V2_MOUNTS);
+        write("sys/fs/cgroup/system.slice/app.service/cpu.max", "300000 100000\n");
+        write("sys/fs/cgroup/system.slice/app.service/cpu.weight", "100\n");
+        write("sys/fs/cgroup/system.slice/app.service/memory.max", "max\n");
+        write("sys/devices/system/cpu/online", "0-7\n");
+
+        final CgroupLimits limits = CgroupLimits.read(folder.getRoot().toPath());
+
+        assertEquals(300000L, limits.quotaMicros);
+        assertEquals(100000L, limits.periodMicros);
+        assertEquals("100", limits.shares);
+        assertEquals(CgroupLimits.UNLIMITED, limits.memoryLimitBytes);
+        assertNull(limits.memoryFile);
+        assertNull(limits.cpuset);
+        assertEquals("v2 " + path("sys/fs/cgroup/system.slice/app.service"), limits.controllerDirectories.get("cpu"));
+        assertEquals(3, limits.effectiveCpus());
+    }
+
+    @Test
+    public void keepsTheTightestQuotaOfTheParents() throws IOException {
+        write("proc/self/cgroup", "0::/kubepods/pod1/ctr\n");
+        write("proc/self/mountinfo", V2_MOUNTS);
+        write("sys/fs/cgroup/kubepods/pod1/ctr/cpu.max", "max 100000\n");
+        write("sys/fs/cgroup/kubepods/pod1/ctr/memory.max", "1073741824\n");
+        write("sys/fs/cgroup/kubepods/pod1/cpu.max", "50000 100000\n");
+        write("sys/fs/cgroup/kubepods/pod1/memory.max", "268435456\n");
+        write("sys/fs/cgroup/kubepods/cpu.max", "400000 100000\n");
+        write("sys/fs/cgroup/kubepods/memory.max", "max\n");
+        write("sys/devices/system/cpu/online", "0-63\n");
+
+        final CgroupLimits limits = CgroupLimits.read(folder.getRoot().toPath());
+
+        assertEquals(50000L, limits.quotaMicros);
+        assertEquals(100000L, limits.periodMicros);
+        assertEquals(path("sys/fs/cgroup/kubepods/pod1"), limits.quotaFile);
+        assertEquals(268435456L, limits.memoryLimitBytes);
+        assertEquals(path("sys/fs/cgroup/kubepods/pod1"), limits.memoryFile);
+        assertEquals(1, limits.effectiveCpus());
+    }
+
+    @Test
+    public void capsCpusByTheCpuset() throws IOException {
+        write("proc/self/cgroup", "0::/pinned\n");
+        write("proc/self/mountinfo", V2_MOUNTS);
+        write("sys/fs/cgroup/pinned/cpu.max", "max 100000\n");
+        write("sys/fs/cgroup/pinned/cpuset.cpus.effective", "0-1,4,6-7\n");
+        write("sys/devices/system/cpu/online", "0-15\n");
+
+        final CgroupLimits limits = CgroupLimits.read(folder.getRoot().toPath());
+
+        assertEquals(CgroupLimits.UNLIMITED, limits.quotaMicros);
+        assertEquals("0-1,4,6-7", limits.cpuset);
+        assertEquals(5, limits.cpusetCpus);
+        assertEquals(5, limits.effectiveCpus());
+    }
+
+    @Test
+    public void fallsBackToTheConfiguredV1Cpuset() throws IOException {
+        // Inside a container the mount's root is the container's own cgroup
+        write("proc/self/cgroup", "12:cpuset:/docker/abc\n4:cpu,cpuacct:/docker/abc\n");
+        write("proc/self/mountinfo",
+                "30 25 0:26 /docker/abc /sys/fs/cgroup/cpu,cpuacct ro,nosuid - cgroup cgroup rw,cpu,cpuacct\n"
+                + "32 25 0:28 /docker/abc /sys/fs/cgroup/cpuset ro,nosuid - cgroup cgroup rw,cpuset\n");
+        write("sys/fs/cgroup/cpu,cpuacct/cpu.cfs_quota_us", "400000\n");
+        write("sys/fs/cgroup/cpu,cpuacct/cpu.cfs_period_us", "100000\n");
+        write("sys/fs/cgroup/cpuset/cpuset.effective_cpus", "\n");
+        write("sys/fs/cgroup/cpuset/cpuset.cpus", "2-3\n");
+        write("sys/devices/system/cpu/online", "0-15\n");
+
+        final CgroupLimits limits = CgroupLimits.read(folder.getRoot().toPath());
+
+        assertEquals(400000L, limits.quotaMicros);
+        assertEquals("2-3", limits.cpuset);
+        assertEquals(2, limits.effectiveCpus());
+        assertEquals("not mounted", limits.controllerDirectories.get("memory"));
+    }
+
+    @Test
+    public void countsCpuLists() {
+        assertEquals(1, CgroupLimits.countCpuList("0"));
+        assertEquals(4, CgroupLimits.countCpuList("0-3\n"));
+        assertEquals(7, CgroupLimits.countCpuList("0-3,8,10-11"));
+    }
+
+    private String path(final String relative) {
+        return folder.getRoot().toPath().resolve(relative).toString();
+    }
+
+    private void write(final String relative, final String contents) throws IOException {
+        final Path file = folder.getRoot().toPath().resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,134 @@
+package com.joyent.aes.debugger;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CpuInfoTest {
+    @Test
+    public void parsesX86FeaturesPerCore() throws IOException {
+        final CpuInfo info = fixture("cpuinfo-16.txt");
+
+        assertEquals(CpuArchitecture.X86_64, info.architecture());
+        assertEquals(16, info.cores());
+        assertEquals(2899.998, info.maxMhz(), 0.001);
+
+        final long expected = CpuFeature.AES.mask() | CpuFeature.PCLMULQDQ.mask() | CpuFeature.VAES.mask()
+                | CpuFeature.VPCLMULQDQ.mask() | CpuFeature.AVX512F.mask() | CpuFeature.SHA_NI.mask();
+        for (int core = 0; core < info.cores(); core++) {
+            assertEquals(core, info.processorId(core));
+            assertEquals(expected, info.features(core) & expected);
+            assertEquals(0L, info.features(core) & CpuFeature.PMULL.mask());
+        }
+
+        assertFalse(info.isHeterogeneous());
+        assertEquals(info.commonFeatures(), info.anyFeatures());
+    }
+
+    @Test
+    public void parsesEveryProcessorOfALargeHost() throws IOException {
+        // Sixteen copies of the 16 processor capture, numbered 0 to 255
+        final String capture = TestFixtures.read("cpuinfo-16.txt");
+        final StringBuilder contents = new StringBuilder();
+        for (int copy = 0; copy < 16; copy++) {
+            for (String line : capture.split("\n")) {
+                if (line.startsWith("processor\t: ")) {
+                    final int processor = Integer.parseInt(line.substring("processor\t: ".length()));
+                    contents.append("processor\t: ").append(copy * 16 + processor).append('\n');
+                } else {
+                    contents.append(line).append('\n');
+                }
+            }
+            contents.append('\n');
+        }
+
+        final byte[] bytes = contents.toString().getBytes(StandardCharsets.US_ASCII);
+        final CpuInfo info = CpuInfo.parse(bytes, bytes.length);
+
+        assertEquals(256, info.cores());
+        assertEquals(255, info.processorId(255));
+        assertEquals(256, info.coresWith(CpuFeature.AES));
+        assertEquals(256, info.coresWith(CpuFeature.VAES));
+        assertFalse(info.isHeterogeneous());
+    }
+
+    @Test
+    public void reportsCoresLackingVaes() throws IOException {
+        // A hybrid part or a VM migrated across hosts: every other processor lacks vaes
+        final String[] stanzas = TestFixtures.read("cpuinfo-16.txt").split("\n\n");
+        final StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < stanzas.length; i++) {
+            contents.append(i % 2 == 1 ? stanzas[i].replace(" vaes ", " ") : stanzas[i]).append("\n\n");
+        }
+
+        final byte[] bytes = contents.toString().getBytes(StandardCharsets.US_ASCII);
+        final CpuInfo info = CpuInfo.parse(bytes, bytes.length);
+
+        assertEquals(16, info.cores());
+        assertEquals(8, info.coresWith(CpuFeature.VAES));
+        assertEquals(0L, info.features(1) & CpuFeature.VAES.mask());
+        assertTrue(info.isHeterogeneous());
+        assertFalse(info.allCoresHave(CpuFeature.VAES));
+        assertTrue(info.allCoresHave(CpuFeature.AES));
+        assertEquals(CpuFeature.VAES.mask(), info.anyFeatures() & ~info.commonFeatures());
+    }
+
+    @Test
+    public void parsesAarch64Features() throws IOException {
+        final CpuInfo info = fixture("cpuinfo-aarch64.txt");
+        final CpuArchitecture architecture = info.architecture();
+
+        assertEquals(CpuArchitecture.AARCH64, architecture);
+        assertEquals(4, info.cores());
+        assertEquals(4, info.coresWith(architecture.aesFeature()));
+        assertEquals(4, info.coresWith(architecture.clmulFeature()));
+        assertTrue(info.allCoresHave(CpuFeature.AES));
+        assertTrue(info.allCoresHave(CpuFeature.PMULL));
+    }
+
+    @Test
+    public void infersVcryptoFromPower9() throws IOException {
+        final CpuInfo info = fixture("cpuinfo-ppc64le.txt");
+        final CpuArchitecture architecture = info.architecture();
+
+        assertEquals(CpuArchitecture.PPC64, architecture);
+        assertEquals(4, info.cores());
+        assertEquals(4, info.coresWith(architecture.aesFeature()));
+        assertEquals(4, info.coresWith(architecture.clmulFeature()));
+    }
+
+    @Test
+    public void infersVcryptoFromPower8Onwards() {
+        assertEquals(1, power("POWER8 (raw), altivec supported").coresWith(CpuFeature.VCRYPTO));
+        assertEquals(1, power("POWER10 (architected), altivec supported").coresWith(CpuFeature.VCRYPTO));
+        assertEquals(0, power("POWER7 (raw), altivec supported").coresWith(CpuFeature.VCRYPTO));
+    }
+
+    @Test
+    public void appliesS390xFeaturesToEveryProcessor() throws IOException {
+        final CpuInfo info = fixture("cpuinfo-s390x.txt");
+        final CpuArchitecture architecture = info.architecture();
+
+        assertEquals(CpuArchitecture.S390X, architecture);
+        assertEquals(4, info.cores());
+        assertEquals(4, info.coresWith(architecture.aesFeature()));
+        assertEquals(4, info.coresWith(architecture.clmulFeature()));
+        assertTrue(info.allCoresHave(CpuFeature.VX));
+    }
+
+    private static CpuInfo fixture(final String name) throws IOException {
+        final byte[] contents = TestFixtures.read(name).getBytes(StandardCharsets.US_ASCII);
+        return CpuInfo.parse(contents, contents.length);
+    }
+
+    private static CpuInfo power(final String model) {
+        final byte[] contents = ("processor\t: 0\ncpu\t\t: " + model + "\nclock\t\t: 2900.000000MHz\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        return CpuInfo.parse(contents, contents.length);
+    }
+}
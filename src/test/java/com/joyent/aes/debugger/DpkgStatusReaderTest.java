@@ -0,0 +1,100 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DpkgStatusReaderTest {
+    private static final DpkgStatusReader READER = new DpkgStatusReader(Arrays.asList("libnss3", "libnspr4"));
+
+    @Test
+    public void readsAStanzaAtEndOfFileWithoutATrailingBlankLine() {
+        final List<Map<String, String>> stanzas = read(stanza("zlib1g", "amd64")
+                + "Package: libnss3\nStatus: install ok installed\nVersion: 2:3.87.1-1");
+
+        assertEquals(1, stanzas.size());
+        assertEquals("libnss3", stanzas.get(0).get("Package"));
+        assertEquals("2:3.87.1-1", stanzas.get(0).get("Version"));
+    }
+
+    @Test
+    public void matchesWholeNamesOnly() {
+        final List<Map<String, String>> stanzas = read(stanza("libnss3-tools", "amd64")
+                + stanza("libnss3-dev", "amd64") + stanza("libnss", "amd64") + stanza("libnspr4", "amd64")
+                + stanza("libnss3x", "amd64"));
+
+        assertEquals(1, stanzas.size());
+        assertEquals("libnspr4", stanzas.get(0).get("Package"));
+    }
+
+    @Test
+    public void keepsEveryArchitectureOfAPackage() {
+        final List<Map<String, String>> stanzas = read(stanza("libnss3", "amd64") + stanza("libc6", "amd64")
+                + stanza("libnss3", "i386"));
+
+        assertEquals(2, stanzas.size());
+        assertEquals("amd64", stanzas.get(0).get("Architecture"));
+        assertEquals("i386", stanzas.get(1).get("Architecture"));
+    }
+
+    @Test
+    public void keepsContinuationLinesInTheFieldValue() {
+        final List<Map<String, String>> stanzas = read("Package: libnss3\n"
+                + "Description: Network Security Service libraries\n"
+                + " This is a set of libraries designed to support cross-platform development\n"
+                + " .\n"
+                + " of security-enabled client and server applications.\n"
+                + "Homepage: https://firefox-source-docs.mozilla.org/security/nss/\n\n\n"
+                + stanza("libnspr4", "amd64"));
+
+        assertEquals(2, stanzas.size());
+        assertEquals("Network Security Service libraries\n"
+                        + " This is a set of libraries designed to support cross-platform development\n"
+                        + " .\n"
+                        + " of security-enabled client and server applications.",
+                stanzas.get(0).get("Description"));
+        assertEquals("https://firefox-source-docs.mozilla.org/security/nss/", stanzas.get(0).get("Homepage"));
+    }
+
+    @Test
+    public void findsBlankLinesAtEveryWordOffset() {
+        // Moves the blank line across every position of the eight byte words scanned at a time
+        for (int padding = 0; padding < 2 * Long.BYTES; padding++) {
+            final String filler = StringUtils.repeat('x', padding);
+            final String contents = "Package: other\nX-Pad: " + filler + "\n\n"
+                    + "Package: libnss3\nX-Pad: " + filler + "\n\n"
+                    + "Package: libnspr4\nX-Pad: " + filler + "\n";
+
+            final List<Map<String, String>> stanzas = read(contents);
+
+            assertEquals("padding " + padding, 2, stanzas.size());
+            assertEquals("libnss3", stanzas.get(0).get("Package"));
+            assertEquals(filler, stanzas.get(0).get("X-Pad"));
+            assertEquals("libnspr4", stanzas.get(1).get("Package"));
+        }
+    }
+
+    @Test
+    public void ignoresAnEmptyDatabase() {
+        assertTrue(read("").isEmpty());
+        assertTrue(read("\n\n\n").isEmpty());
+    }
+
+    private static String stanza(final String name, final String architecture) {
+        return "Package: " + name + "\nStatus: install ok installed\nArchitecture: " + architecture
+                + "\nVersion: 1.0\n\n";
+    }
+
+    private static List<Map<String, String>> read(final String contents) {
+        final byte[] bytes = contents.getBytes(StandardCharsets.US_ASCII);
+        return READER.read(ByteBuffer.wrap(bytes), bytes.length);
+    }
+}
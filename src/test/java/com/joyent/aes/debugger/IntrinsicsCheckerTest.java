@@ -0,0 +1,95 @@
+package com.joyent.aes.debugger;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntrinsicsCheckerTest {
+    @Test
+    public void readsAJdk8Probe() throws IOException {
+        final Set<String> compiled = new TreeSet<>();
+        final Map<String, String> flags = new LinkedHashMap<>();
+        readProbe("intrinsics-jdk8.txt", compiled, flags);
+
+        assertEquals(new TreeSet<>(Arrays.asList(
+                "com.sun.crypto.provider.AESCrypt::encryptBlock",
+                "com.sun.crypto.provider.GHASH::processBlocks")), compiled);
+
+        assertEquals(7, flags.size());
+        assertEquals("true ({product}, from probe JVM)", flags.get("UseAES"));
+        // := marks a flag set on the command line
+        assertEquals("false ({diagnostic}, from probe JVM)", flags.get("UseAESIntrinsics"));
+        assertEquals("2 ({ARCH product}, from probe JVM)", flags.get("UseAVX"));
+        assertFalse(flags.containsKey("UseAESCTRIntrinsics"));
+        assertFalse(flags.containsKey("ErrorFile"));
+
+        // JDK 8 has no CTR intrinsic, so the block and GHASH intrinsics are everything
+        assertTrue(IntrinsicsChecker.allCompiled(compiled, flags));
+    }
+
+    @Test
+    public void readsAJdk17Probe() throws IOException {
+        final Set<String> compiled = new TreeSet<>();
+        final Map<String, String> flags = new LinkedHashMap<>();
+        readProbe("intrinsics-jdk17.txt", compiled, flags);
+
+        assertEquals(new TreeSet<>(Arrays.asList(
+                "com.sun.crypto.provider.AESCrypt::implEncryptBlock",
+                "com.sun.crypto.provider.CounterMode::implCrypt",
+                "com.sun.crypto.provider.GHASH::processBlocks")), compiled);
+
+        assertEquals(8, flags.size());
+        assertEquals("true ({product} {default}, from probe JVM)", flags.get("UseAES"));
+        assertEquals("true ({diagnostic} {default}, from probe JVM)", flags.get("UseAESCTRIntrinsics"));
+        assertEquals("3 ({ARCH product} {default}, from probe JVM)", flags.get("UseAVX"));
+        assertTrue(IntrinsicsChecker.allCompiled(compiled, flags));
+    }
+
+    @Test
+    public void waitsForEveryEnabledIntrinsic() {
+        final Set<String> compiled = new TreeSet<>();
+        final Map<String, String> flags = new LinkedHashMap<>();
+        IntrinsicsChecker.readProbeLine("     bool UseAESCTRIntrinsics                      = true"
+                + "                                   {diagnostic} {default}", compiled, flags);
+
+        assertTrue(IntrinsicsChecker.readProbeLine("    @ 6   com.sun.crypto.provider.AESCrypt::implEncryptBlock"
+                + " (953 bytes)   (intrinsic)", compiled, flags));
+        assertFalse(IntrinsicsChecker.allCompiled(compiled, flags));
+
+        assertTrue(IntrinsicsChecker.readProbeLine("    @ 28   com.sun.crypto.provider.CounterMode::implCrypt"
+                + " (88 bytes)   (intrinsic, predicate)", compiled, flags));
+        assertTrue(IntrinsicsChecker.allCompiled(compiled, flags));
+    }
+
+    @Test
+    public void typesFlagValues() {
+        final Map<String, String> flags = new LinkedHashMap<>();
+        flags.put("UseAES", "true (product, default)");
+        flags.put("UseAVX", "3 (ARCH product, default)");
+        flags.put("UseSHA", "false");
+        flags.put("UseChaCha20Intrinsics", null);
+
+        final Map<String, Object> typed = IntrinsicsChecker.typedFlagValues(flags);
+
+        assertEquals(Boolean.TRUE, typed.get("UseAES"));
+        assertEquals(3L, typed.get("UseAVX"));
+        assertEquals(Boolean.FALSE, typed.get("UseSHA"));
+        assertTrue(typed.containsKey("UseChaCha20Intrinsics"));
+    }
+
+    private static void readProbe(final String name, final Set<String> compiled,
+                                  final Map<String, String> flags) throws IOException {
+        for (String line : TestFixtures.readLines(name)) {
+            IntrinsicsChecker.readProbeLine(line, compiled, flags);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.joyent.aes.debugger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JavaSecurityResolverTest {
+    private static final String MASTER = "conf/security/java.security";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsTheJava8MasterFile() throws IOException {
+        final Path home = home("jdk8");
+        write(home, "jre/lib/security/java.security", "security.provider.1=sun.security.provider.Sun\n");
+
+        final JavaSecurityResolver.Settings settings = JavaSecurityResolver.resolve(home.toString(), null, null);
+
+        assertEquals(home.resolve("jre/lib/security/java.security"), settings.masterFile);
+        assertEquals("sun.security.provider.Sun", settings.properties.get("security.provider.1"));
+    }
+
+    @Test
+    public void followsIncludes() throws IOException {
+        final Path home = home("jdk17");
+        write(home, MASTER, "security.provider.1=SUN\n"
+                + "include ${java.home}/conf/security/fips.security\n"
+                + "security.provider.3=SunJCE\n");
+        write(home, "conf/security/fips.security", "security.provider.2=SunPKCS11 \\\n"
+                + "    ${java.home}/conf/security/nss.cfg\n"
+                + "include local.security\n");
+        write(home, "conf/security/local.security", "jdk.tls.disabledAlgorithms=SSLv3\n"
+                + "include fips.security\n");
+
+        final JavaSecurityResolver.Settings settings = JavaSecurityResolver.resolve(home.toString(), null, null);
+        final List<LibnssChecker.ProviderLine> providers = settings.providers();
+
+        assertEquals(3, providers.size());
+        assertEquals("SunPKCS11", providers.get(1).name);
+        assertEquals("${java.home}/conf/security/nss.cfg", providers.get(1).config);
+        assertEquals("SSLv3", settings.properties.get("jdk.tls.disabledAlgorithms"));
+        assertEquals(3, settings.files.size());
+        assertTrue(settings.notes.toString(), settings.notes.get(0).startsWith("Include cycle through"));
+    }
+
+    @Test
+    public void appendsOverridesWhenAllowed() throws IOException {
+        final Path home = home("append");
+        write(home, MASTER, "security.overridePropertiesFile=true\n"
+                + "security.provider.1=SUN\nsecurity.provider.2=SunRsaSign\n");
+        final Path overrides = write(home, "overrides.security", "security.provider.2=SunJCE\n");
+
+        final JavaSecurityResolver.Settings settings =
+                JavaSecurityResolver.resolve(home.toString(), overrides.toString(), null);
+
+        assertEquals("SUN", settings.properties.get("security.provider.1"));
+        assertEquals("SunJCE", settings.properties.get("security.provider.2"));
+        assertEquals(2, settings.files.size());
+    }
+
+    @Test
+    public void replacesTheMasterFileWithADoubleEquals() throws IOException {
+        final Path home = home("replace");
+        write(home, MASTER, "security.overridePropertiesFile=true\n"
+                + "security.provider.1=SUN\nsecurity.provider.2=SunRsaSign\n");
+        final Path overrides = write(home, "overrides.security", "security.provider.1=SunJCE\n");
+
+        // -Djava.security.properties==file
+        final JavaSecurityResolver.Settings settings =
+                JavaSecurityResolver.resolve(home.toString(), "=" + overrides.toUri(), null);
+
+        assertEquals(1, settings.providers().size());
+        assertEquals("SunJCE", settings.providers().get(0).name);
+        assertNull(settings.properties.get("security.overridePropertiesFile"));
+        assertTrue(settings.notes.toString(), settings.notes.get(0).endsWith("replaces the master file"));
+    }
+
+    @Test
+    public void ignoresOverridesUnlessAllowed() throws IOException {
+        final Path home = home("locked");
+        write(home, MASTER, "security.overridePropertiesFile=false\nsecurity.provider.1=SUN\n");
+        final Path overrides = write(home, "overrides.security", "security.provider.1=SunJCE\n");
+
+        final JavaSecurityResolver.Settings settings =
+                JavaSecurityResolver.resolve(home.toString(), "=" + overrides, null);
+
+        assertEquals("SUN", settings.properties.get("security.provider.1"));
+        assertEquals(1, settings.files.size());
+        assertTrue(settings.notes.toString(), settings.notes.get(0).contains("is ignored"));
+    }
+
+    @Test
+    public void reportsUnreachableProviders() throws IOException {
+        final Path home = home("gap");
+        write(home, MASTER, "security.provider.1=SUN\nsecurity.provider.3=SunJCE\n");
+
+        final JavaSecurityResolver.Settings settings = JavaSecurityResolver.resolve(home.toString(), null, null);
+
+        assertEquals(1, settings.providers().size());
+        assertEquals(1, settings.unreachableProviders().size());
+        assertEquals("security.provider.3=SunJCE", settings.unreachableProviders().get(0));
+    }
+
+    @Test
+    public void cachesUntilAFileChanges() throws IOException {
+        final Path home = home("cached");
+        final Path other = home("other");
+        final File cache = folder.newFolder("cache");
+        write(home, MASTER, "security.provider.1=SUN\ninclude extra.security\n");
+        write(home, "conf/security/extra.security", "security.provider.2=SunRsaSign\n");
+        write(other, MASTER, "security.provider.1=SUN\n");
+
+        final JavaSecurityResolver.Settings first = JavaSecurityResolver.resolve(home.toString(), null, cache);
+        assertFalse(first.fromCache);
+        assertSame(first, JavaSecurityResolver.resolve(home.toString(), null, cache));
+        assertEquals(1, cache.list().length);
+
+        // Resolving another java.home evicts the in-memory copy, but not the one on disk
+        JavaSecurityResolver.resolve(other.toString(), null, cache);
+        assertEquals(2, cache.list().length);
+
+        final JavaSecurityResolver.Settings cached = JavaSecurityResolver.resolve(home.toString(), null, cache);
+        assertTrue(cached.fromCache);
+        assertEquals(first.properties, cached.properties);
+        assertEquals(first.files, cached.files);
+
+        write(home, "conf/security/extra.security", "security.provider.2=SunJCE\n");
+
+        final JavaSecurityResolver.Settings changed = JavaSecurityResolver.resolve(home.toString(), null, cache);
+        assertFalse(changed.fromCache);
+        assertEquals("SunJCE", changed.properties.get("security.provider.2"));
+    }
+
+    @Test
+    public void expandsJavaHome() {
+        assertEquals("/opt/jdk/conf/nss.cfg", JavaSecurityResolver.expand("${java.home}/conf/nss.cfg", "/opt/jdk"));
+        assertEquals("${no.such.property}/x", JavaSecurityResolver.expand("${no.such.property}/x", "/opt/jdk"));
+    }
+
+    private Path home(final String name) throws IOException {
+        return folder.newFolder(name).toPath();
+    }
+
+    private static Path write(final Path home, final String relative, final String contents) throws IOException {
+        final Path file = home.resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+}
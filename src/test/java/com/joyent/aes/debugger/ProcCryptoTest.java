@@ -0,0 +1,85 @@
+package com.joyent.aes.debugger;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProcCryptoTest {
+    @Test
+    public void selectsTheAcceleratedDriversByPriority() throws IOException {
+        final ProcCrypto crypto = ProcCrypto.parse(TestFixtures.read("proc-crypto.txt"));
+
+        assertEquals(61, crypto.entries().size());
+        assertEquals(4, crypto.registrations("aes").size());
+        assertEquals("aes-aesni", crypto.selected("aes").driver);
+        assertEquals(300, crypto.selected("aes").priority);
+        assertEquals("aesni_intel", crypto.selected("aes").module);
+        assertEquals("generic-gcm-aesni", crypto.selected("gcm(aes)").driver);
+        assertEquals("ctr-aes-aesni", crypto.selected("ctr(aes)").driver);
+        assertEquals("xts-aes-aesni", crypto.selected("xts(aes)").driver);
+        assertEquals("cbc-aes-aesni", crypto.selected("cbc(aes)").driver);
+
+        for (String algorithm : ProcCrypto.AES_ALGORITHMS) {
+            assertFalse(algorithm, crypto.selected(algorithm).isGeneric());
+        }
+    }
+
+    @Test
+    public void flagsAGenericWinner() {
+        final ProcCrypto crypto = ProcCrypto.parse(""
+                + entry("aes", "aes-generic", "kernel", 100, "passed", false)
+                + entry("aes", "aes-fixed-time", "kernel", 101, "passed", false)
+                + entry("gcm(aes)", "gcm_base(ctr(aes-generic),ghash-generic)", "gcm", 100, "passed", false)
+                + entry("cbc(aes)", "cbc(ecb(aes-fixed-time))", "kernel", 101, "passed", false));
+
+        assertEquals("aes-fixed-time", crypto.selected("aes").driver);
+        assertEquals(Collections.singletonList("aes-fixed-time"), crypto.selected("aes").genericParts());
+        assertEquals(Arrays.asList("aes-generic", "ghash-generic"), crypto.selected("gcm(aes)").genericParts());
+        assertTrue(crypto.selected("cbc(aes)").isGeneric());
+
+        // Templates are only instantiated on first use
+        assertNull(crypto.selected("ctr(aes)"));
+        assertNull(crypto.selected("xts(aes)"));
+    }
+
+    @Test
+    public void skipsInternalAndUntestedDrivers() {
+        final ProcCrypto crypto = ProcCrypto.parse(""
+                + entry("gcm(aes)", "__generic-gcm-aesni", "aesni_intel", 400, "passed", true)
+                + entry("gcm(aes)", "gcm-aes-broken", "broken", 500, "failed", false)
+                + entry("gcm(aes)", "gcm-aes-pending", "pending", 450, "unknown", false)
+                + entry("gcm(aes)", "gcm_base(ctr(aes-generic),ghash-generic)", "gcm", 100, "passed", false)
+                + entry("ctr(aes)", "__ctr-aes-aesni", "aesni_intel", 400, "passed", true));
+
+        final ProcCrypto.Entry selected = crypto.selected("gcm(aes)");
+        assertNotNull(selected);
+        assertEquals("gcm_base(ctr(aes-generic),ghash-generic)", selected.driver);
+        assertTrue(selected.isGeneric());
+        assertEquals(4, crypto.registrations("gcm(aes)").size());
+        assertNull(crypto.selected("ctr(aes)"));
+    }
+
+    @Test
+    public void parsesAFileWithoutATrailingNewline() {
+        final ProcCrypto crypto = ProcCrypto.parse("name         : aes\ndriver       : aes-aesni\npriority     : 300");
+
+        assertEquals(1, crypto.entries().size());
+        assertEquals(300, crypto.selected("aes").priority);
+        assertNull(crypto.selected("aes").selftest);
+    }
+
+    private static String entry(final String name, final String driver, final String module,
+                                final int priority, final String selftest, final boolean internal) {
+        return String.format("name         : %s\ndriver       : %s\nmodule       : %s\npriority     : %d\n"
+                        + "refcnt       : 1\nselftest     : %s\ninternal     : %s\ntype         : skcipher\n\n",
+                name, driver, module, priority, selftest, internal ? "yes" : "no");
+    }
+}
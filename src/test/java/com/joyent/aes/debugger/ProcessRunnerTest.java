@@ -0,0 +1,97 @@
+package com.joyent.aes.debugger;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessRunnerTest {
+    // Well past the default 64 KiB pipe buffer on both streams
+    private static final int LINES = 20_000;
+
+    private final ProcessRunner runner = new ProcessRunner(10, TimeUnit.SECONDS);
+
+    @Test
+    public void drainsBothFullPipes() throws IOException {
+        final List<String> out = new ArrayList<>();
+        final List<String> err = new ArrayList<>();
+
+        final ProcessRunner.Result result = runner.run(out::add, err::add, "sh", "-c",
+                "i=0; while [ $i -lt " + LINES + " ]; do echo out$i; echo err$i >&2; i=$((i+1)); done");
+
+        assertTrue(result.toString(), result.succeeded());
+        assertEquals(LINES, out.size());
+        assertEquals(LINES, err.size());
+        assertEquals("out" + (LINES - 1), out.get(LINES - 1));
+        assertEquals("err" + (LINES - 1), err.get(LINES - 1));
+    }
+
+    @Test
+    public void prefixesStderrInTheWriter() throws IOException {
+        final StringWriter out = new StringWriter();
+
+        final ProcessRunner.Result result = runner.run(out, "sh", "-c", "echo one; echo two >&2; exit 3");
+
+        assertFalse(result.succeeded());
+        assertEquals(3, result.exitCode);
+        assertTrue(out.toString(), out.toString().contains("one\n"));
+        assertTrue(out.toString(), out.toString().contains("[stderr] two\n"));
+    }
+
+    @Test
+    public void closesTheChildsStdin() throws IOException {
+        // cat only exits once its stdin reaches end of file
+        final ProcessRunner.Result result = runner.run(new StringWriter(), "cat");
+
+        assertTrue(result.toString(), result.succeeded());
+        assertFalse(result.timedOut);
+    }
+
+    @Test
+    public void killsAChildThatHangsPastTheDeadline() throws IOException {
+        final ProcessRunner shortRunner = new ProcessRunner(200, TimeUnit.MILLISECONDS);
+
+        final ProcessRunner.Result result = shortRunner.run(new StringWriter(), "sleep", "30");
+
+        assertTrue(result.timedOut);
+        assertFalse(result.stopped);
+        assertFalse(result.succeeded());
+        assertEquals(-1, result.exitCode);
+        assertTrue(result.toString(), result.elapsedMillis < 10_000L);
+    }
+
+    @Test
+    public void stopsOnceTheHandlersAreFinished() throws IOException {
+        final List<String> out = Collections.synchronizedList(new ArrayList<>());
+
+        final ProcessRunner.Result result = runner.run(out::add, line -> { }, () -> out.contains("ready"),
+                "sh", "-c", "echo ready; exec sleep 30");
+
+        assertTrue(result.stopped);
+        assertFalse(result.timedOut);
+        assertTrue(result.succeeded());
+        assertEquals(-1, result.exitCode);
+        assertTrue(result.toString(), result.elapsedMillis < 10_000L);
+    }
+
+    @Test
+    public void abandonsAPipeHeldOpenByAGrandchild() throws IOException {
+        final List<String> out = Collections.synchronizedList(new ArrayList<>());
+
+        // The background sleep inherits stdout and outlives the shell
+        final ProcessRunner.Result result = runner.run(out::add, line -> { }, "sh", "-c",
+                "sleep 30 & echo done");
+
+        assertTrue(result.toString(), result.succeeded());
+        assertEquals(Collections.singletonList("done"), out);
+        assertTrue(result.toString(), result.elapsedMillis < 10_000L);
+    }
+}
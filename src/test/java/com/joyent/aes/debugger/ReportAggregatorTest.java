@@ -0,0 +1,89 @@
+package com.joyent.aes.debugger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReportAggregatorTest {
+    private static final String JSON_BANNER =
+            "{\"type\":\"text\",\"checker\":\"Application\",\"value\":\"AES-NI Support Checker\"}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsJsonLinesRecords() throws IOException {
+        final ReportAggregator.HostSummary host = scan(JSON_BANNER
+                + "{\"type\":\"text\",\"checker\":\"AesJavaChecker\",\"value\":\"[[intrinsics verdict: DISABLED]]\"}\n"
+                + "{\"type\":\"fact\",\"checker\":\"AesJavaChecker\",\"key\":\"java.providers\","
+                + "\"value\":[{\"rank\":1,\"name\":\"SunPKCS11-NSS\",\"version\":17.0},"
+                + "{\"rank\":2,\"name\":\"SUN\",\"version\":17.0}]}\n"
+                + "{\"type\":\"fact\",\"checker\":\"AesOsChecker\",\"key\":\"cpu.cores\",\"value\":16}\n"
+                + "{\"type\":\"fact\",\"checker\":\"AesOsChecker\",\"key\":\"cpu.features\","
+                + "\"value\":{\"aes\":16,\"pclmulqdq\":16,\"vaes\":8,\"avx512f\":0}}\n"
+                + "{\"type\":\"fact\",\"checker\":\"LibnssChecker\",\"key\":\"nss.configs\","
+                + "\"value\":[{\"file\":\"/etc/nss.cfg\",\"nssLibraryInstalled\":false}]}\n"
+                + "{\"type\":\"fact\",\"checker\":\"LibnssChecker\",\"key\":\"nss.provider.rank\",\"value\":1}\n"
+                + "{\"type\":\"verdict\",\"checker\":\"IntrinsicsChecker\",\"key\":\"intrinsics\","
+                + "\"label\":\"AES intrinsics verdict\",\"value\":\"NOT_COMPILED - AES intrinsics are enabled\"}\n"
+                + "{\"type\":\"verdict\",\"checker\":\"IntrinsicsChecker\",\"key\":\"intrinsics.ghash\","
+                + "\"label\":\"GHASH intrinsics usable for AES/GCM\",\"value\":true}\n");
+
+        assertTrue(host.isReport);
+        assertEquals("NOT_COMPILED", host.intrinsicsVerdict);
+        assertEquals("SunPKCS11-NSS", host.firstProvider);
+        assertEquals(16, host.cpuFlagLines);
+        assertNotEquals(0L, host.commonFeatures & CpuFeature.AES.mask());
+        assertEquals(0L, host.commonFeatures & CpuFeature.VAES.mask());
+        assertNotEquals(0L, host.anyFeatures & CpuFeature.VAES.mask());
+        assertEquals(0L, host.anyFeatures & CpuFeature.AVX512F.mask());
+        assertEquals(ReportAggregator.NSS_LIBRARY_MISSING, host.nssState());
+    }
+
+    @Test
+    public void countsOnlyTheLatestJsonLinesRun() throws IOException {
+        final ReportAggregator.HostSummary host = scan(JSON_BANNER
+                + "{\"type\":\"verdict\",\"checker\":\"IntrinsicsChecker\",\"key\":\"intrinsics\","
+                + "\"label\":\"AES intrinsics verdict\",\"value\":\"DISABLED - UseAES is off\"}\n"
+                + JSON_BANNER
+                + "{\"type\":\"fact\",\"checker\":\"LibnssChecker\",\"key\":\"nss.provider.rank\",\"value\":-1}\n");
+
+        assertEquals("MISSING", host.intrinsicsVerdict);
+        assertFalse(host.nssConfigured);
+        assertEquals(ReportAggregator.NSS_NOT_CONFIGURED, host.nssState());
+    }
+
+    @Test
+    public void readsTextReports() throws IOException {
+        final ReportAggregator.HostSummary host = scan("AES-NI Support Checker\n"
+                + "[[Security Providers]]\n"
+                + "SUN@17.000000:\n"
+                + "    SecureRandom.DRBG\n"
+                + "[[intrinsics verdict: OK - AES intrinsics are enabled and were compiled in]]\n");
+
+        assertTrue(host.isReport);
+        assertEquals("OK", host.intrinsicsVerdict);
+        assertEquals("SUN", host.firstProvider);
+    }
+
+    @Test
+    public void leavesOtherFilesUnread() throws IOException {
+        assertFalse(scan("{\"not\":\"a report\"}\n").isReport);
+    }
+
+    private ReportAggregator.HostSummary scan(final String contents) throws IOException {
+        final Path file = folder.newFile().toPath();
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return new ReportAggregator.HostReportScanner().scan(file);
+    }
+}
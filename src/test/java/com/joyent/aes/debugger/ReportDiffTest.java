@@ -0,0 +1,234 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReportDiffTest {
+    private static final String JSON_BANNER =
+            "{\"type\":\"text\",\"checker\":\"Application\",\"value\":\"AES-NI Support Checker\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recognisesSectionMarkers() {
+        assertEquals("nss config", ReportDiff.sectionStarted("[[Start nss config: /etc/nss.cfg]]"));
+        assertEquals("HotSpot intrinsic flags", ReportDiff.sectionStarted("[[Start HotSpot intrinsic flags]]"));
+        assertEquals("Security Providers", ReportDiff.sectionStarted("[[Security Providers]]"));
+        assertNull(ReportDiff.sectionStarted("[[End nss config: /etc/nss.cfg]]"));
+        assertNull(ReportDiff.sectionStarted("[[ aes block: true ctr: true ghash: true]]"));
+        assertNull(ReportDiff.sectionStarted("[[intrinsics verdict: OK - AES intrinsics are enabled]]"));
+        assertNull(ReportDiff.sectionStarted("security.provider.1=SUN"));
+        assertNull(ReportDiff.sectionStarted("[[Start unterminated"));
+    }
+
+    @Test
+    public void masksTimesAndThroughput() {
+        assertEquals("[[ command: uname -a exit code: 0 elapsed ms: -]]",
+                ReportDiff.normalize("[[ command: uname -a exit code: 0 elapsed ms: 108]]"));
+        assertEquals("[[probe AES/GCM/NoPadding: - MB/s]]",
+                ReportDiff.normalize("[[probe AES/GCM/NoPadding: 513.6 MB/s]]"));
+        assertEquals("p50 - us", ReportDiff.normalize("p50 35.6 us"));
+        assertEquals("UseAES : true (DEFAULT)", ReportDiff.normalize("UseAES : true (DEFAULT)"));
+    }
+
+    @Test
+    public void listsAddedRemovedAndChangedFields() {
+        final Map<String, String> before = new LinkedHashMap<>();
+        before.put("UseAES", "true");
+        before.put("UseSHA", "true");
+        before.put("flag vaes", "");
+        final Map<String, String> after = new LinkedHashMap<>();
+        after.put("UseAES", "false");
+        after.put("flag vaes", "");
+        after.put("flag avx512f", "");
+
+        assertEquals(Arrays.asList("UseAES: true -> false", "- UseSHA: true", "+ flag avx512f"),
+                ReportDiff.compare(before, after));
+        assertEquals(Collections.emptyList(), ReportDiff.compare(before, new HashMap<>(before)));
+    }
+
+    @Test
+    public void comparesTheLatestRunsSectionBySection() throws IOException {
+        final Path before = write("before.log", "AES-NI Support Checker\n"
+                + "[[Start HotSpot intrinsic flags]]\nUseAES : false (DEFAULT)\n[[End HotSpot intrinsic flags]]\n"
+                + "AES-NI Support Checker\n"
+                + "[[Start HotSpot intrinsic flags]]\nUseAES : true (DEFAULT)\nUseGHASHIntrinsics : true\n"
+                + "[[End HotSpot intrinsic flags]]\n"
+                + "[[Start environment]]\nHOME: /root\nPATH: /usr/bin\n[[End environment]]\n"
+                + "[[Start timings]]\nAesOsChecker checker 1 12.5 3.0\n[[End timings]]\n"
+                + "[[Start gone]]\nkey: value\n[[End gone]]\n");
+        final Path after = write("after.log", "AES-NI Support Checker\n"
+                + "[[Start HotSpot intrinsic flags]]\nUseAES : true (DEFAULT)\nUseGHASHIntrinsics : false\n"
+                + "[[End HotSpot intrinsic flags]]\n"
+                + "[[Start environment]]\nHOME: /root\nPATH: /usr/bin\n[[End environment]]\n"
+                + "[[Start timings]]\nAesOsChecker checker 1 99.1 7.0\n[[End timings]]\n"
+                + "[[Start new]]\nkey: value\n[[End new]]\n");
+
+        final Map<String, Object> verdicts = new HashMap<>();
+        final Map<String, Object> facts = new HashMap<>();
+        diff(before, after, verdicts, facts);
+
+        assertEquals("UseGHASHIntrinsics: true -> false", verdicts.get("diff.intrinsics"));
+        assertEquals("HotSpot intrinsic flags", verdicts.get("diff.sections"));
+        assertEquals("unchanged", verdicts.get("diff.providers"));
+
+        final Map<?, ?> summary = (Map<?, ?>) facts.get("diff.summary");
+        // The environment and the empty preamble before the first section
+        assertEquals(2, summary.get("identical"));
+        assertEquals(1, summary.get("measurementsNotCompared"));
+        assertEquals(Collections.singletonList("gone"), summary.get("onlyBefore"));
+        assertEquals(Collections.singletonList("new"), summary.get("onlyAfter"));
+    }
+
+    @Test
+    public void comparesJsonLinesReportsByTheirTextAndVerdicts() throws IOException {
+        final Path before = write("before.jsonl", jsonl(false, "UseAES : false (DEFAULT)", "DISABLED")
+                + jsonl(true, "UseAES : true (DEFAULT)", "OK"));
+        final Path after = write("after.jsonl", jsonl(false, "UseAES : true (DEFAULT)", "NOT_COMPILED"));
+
+        final Map<String, Object> verdicts = new HashMap<>();
+        final Map<String, Object> facts = new HashMap<>();
+        diff(before, after, verdicts, facts);
+
+        assertEquals("HotSpot intrinsic flags, verdicts", verdicts.get("diff.sections"));
+        assertEquals("UseGHASHIntrinsics: true -> false", verdicts.get("diff.intrinsics"));
+        final List<?> changes = (List<?>) facts.get("diff.changes");
+        assertEquals(Collections.singletonList("intrinsics: OK -> NOT_COMPILED"),
+                ((Map<?, ?>) changes.get(1)).get("changes"));
+    }
+
+    @Test
+    public void comparesAJsonLinesReportWithATextOne() throws IOException {
+        final Path before = write("before.log", "======================\nAES-NI Support Checker\n"
+                + "======================\n"
+                + "[[Start HotSpot intrinsic flags]]\nUseAES : true (DEFAULT)\nUseGHASHIntrinsics : true\n"
+                + "[[End HotSpot intrinsic flags]]\n\n");
+        final Path after = write("after.jsonl", jsonl(true, "UseAES : true (DEFAULT)", "OK"));
+
+        final Map<String, Object> verdicts = new HashMap<>();
+        final Map<String, Object> facts = new HashMap<>();
+        diff(before, after, verdicts, facts);
+
+        assertEquals("none", verdicts.get("diff.sections"));
+        // Verdicts only go to the console of a text report
+        assertEquals(Collections.singletonList("verdicts"),
+                ((Map<?, ?>) facts.get("diff.summary")).get("onlyAfter"));
+    }
+
+    @Test
+    public void pairsSectionsThatAreOutOfStep() throws IOException {
+        final Path before = write("before.log", "AES-NI Support Checker\n"
+                + "[[Start a]]\nkey: 1\n[[End a]]\n[[Start b]]\nkey: 2\n[[End b]]\n"
+                + "[[Start c]]\nkey: 3\n[[End c]]\n");
+        final Path after = write("after.log", "AES-NI Support Checker\n"
+                + "[[Start c]]\nkey: 3\n[[End c]]\n[[Start b]]\nkey: 4\n[[End b]]\n"
+                + "[[Start a]]\nkey: 1\n[[End a]]\n");
+
+        final Map<String, Object> verdicts = new HashMap<>();
+        final Map<String, Object> facts = new HashMap<>();
+        diff(before, after, verdicts, facts);
+
+        assertEquals("b", verdicts.get("diff.sections"));
+        final Map<?, ?> summary = (Map<?, ?>) facts.get("diff.summary");
+        assertEquals(3, summary.get("identical"));
+        assertEquals(Collections.emptyList(), summary.get("onlyBefore"));
+        assertEquals(Collections.emptyList(), summary.get("onlyAfter"));
+    }
+
+    @Test
+    public void findsTheLatestRunFromTheEnd() throws IOException {
+        final StringBuilder contents = new StringBuilder("AES-NI Support Checker\n");
+        while (contents.length() < 100000) {
+            contents.append("not AES-NI Support Checker\nAES-NI Support Checker too\n");
+        }
+        final int latest = contents.length();
+        contents.append("AES-NI Support Checker\n");
+        // Puts the banner across the boundary of the last block searched
+        while (contents.length() < latest + 64 * 1024 + 10) {
+            contents.append("x\n");
+        }
+
+        assertEquals(latest, ReportDiff.latestRun(write("text.log", contents.toString())));
+        assertEquals(0L, ReportDiff.latestRun(write("empty.log", "")));
+        assertEquals(0L, ReportDiff.latestRun(write("bare.log", "[[Start a]]\n")));
+        assertEquals(JSON_BANNER.length() + 1, ReportDiff.latestRun(write("runs.jsonl",
+                JSON_BANNER + "\n" + JSON_BANNER)));
+    }
+
+    @Test
+    public void decodesJsonLinesRecords() {
+        final ReportDiff.JsonRecord text = ReportDiff.JsonRecord.parse(
+                "{\"type\":\"text\",\"checker\":\"X\",\"value\":\"a \\\"b\\\"\\tc\\u00e9\"}");
+        assertEquals("text", text.type);
+        assertEquals("a \"b\"\tc\u00e9", text.value);
+
+        final ReportDiff.JsonRecord verdict = ReportDiff.JsonRecord.parse(
+                "{\"type\":\"verdict\",\"checker\":\"X\",\"key\":\"k\",\"label\":\"L\",\"value\":true}");
+        assertEquals("k", verdict.key);
+        assertEquals("true", verdict.value);
+
+        assertNull(ReportDiff.JsonRecord.parse("{\"type\":\"text\",\"value\":\"unterminated}"));
+        assertNull(ReportDiff.JsonRecord.parse("{\"type\":\"text\"}"));
+    }
+
+    /**
+     * A run of a JSON Lines report with an intrinsic flags section and the
+     * intrinsics verdict.
+     */
+    private static String jsonl(final boolean ghash, final String useAes, final String verdict) throws IOException {
+        final StringWriter writer = new StringWriter();
+        final ReportRenderer renderer = new JsonLinesReportRenderer(writer,
+                new PrintStream(NullOutputStream.NULL_OUTPUT_STREAM));
+
+        ReportRenderer.renderHeader(renderer);
+        for (String line : new String[] { "[[Start HotSpot intrinsic flags]]", useAes,
+                "UseGHASHIntrinsics : " + ghash, "[[End HotSpot intrinsic flags]]", "" }) {
+            renderer.render(ReportRecord.text("IntrinsicsChecker", line + "\n"));
+        }
+        renderer.render(ReportRecord.fact("IntrinsicsChecker", "intrinsics.flags",
+                Collections.singletonMap("UseGHASHIntrinsics", ghash)));
+        renderer.render(ReportRecord.verdict("IntrinsicsChecker", "intrinsics", "AES intrinsics verdict", verdict));
+        renderer.render(ReportRecord.timing("IntrinsicsChecker", "checker", 12.5));
+
+        return writer.toString();
+    }
+
+    private static void diff(final Path before, final Path after, final Map<String, Object> verdicts,
+                             final Map<String, Object> facts) throws IOException {
+        final Report report = new Report("ReportDiff", record -> {
+            if (record.type == ReportRecord.Type.VERDICT) {
+                verdicts.put(record.key, record.value);
+            } else if (record.type == ReportRecord.Type.FACT) {
+                facts.put(record.key, record.value);
+            }
+        });
+
+        new ReportDiff(report, before, after).check();
+        report.finish();
+    }
+
+    private Path write(final String name, final String contents) throws IOException {
+        final Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
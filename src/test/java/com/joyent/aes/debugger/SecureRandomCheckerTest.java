@@ -0,0 +1,46 @@
+package com.joyent.aes.debugger;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SecureRandomCheckerTest {
+    @Test
+    public void judgesKernelVersions() {
+        assertTrue(SecureRandomChecker.isBlockingKernel("4.18.0-513.el8.x86_64"));
+        assertTrue(SecureRandomChecker.isBlockingKernel("5.4.0-150-generic"));
+        assertFalse(SecureRandomChecker.isBlockingKernel("5.6.0"));
+        assertFalse(SecureRandomChecker.isBlockingKernel("6.1.0-13-amd64"));
+        assertFalse(SecureRandomChecker.isBlockingKernel("unknown"));
+    }
+
+    @Test
+    public void flagsBlockingStrongInstanceOnOldKernels() {
+        assertEquals(1, blocking("NativePRNGBlocking", "file:/dev/random", true).size());
+        assertTrue(blocking("NativePRNGBlocking", "file:/dev/random", false).isEmpty());
+    }
+
+    @Test
+    public void flagsNativePrngSeedsFromDevRandom() {
+        assertEquals(1, blocking("NativePRNG", "file:/dev/random", true).size());
+        assertEquals(1, blocking("NativePRNG", null, true).size());
+        assertTrue(blocking("NativePRNG", "file:/dev/urandom", true).isEmpty());
+        assertTrue(blocking("NativePRNGNonBlocking", "file:/dev/random", true).isEmpty());
+    }
+
+    @Test
+    public void flagsDrbgOnlyWhenSeededFromDevRandom() {
+        assertEquals(1, blocking("DRBG", "file:/dev/./random", true).size());
+        assertTrue(blocking("DRBG", "file:/dev/urandom", true).isEmpty());
+        assertTrue(blocking("SHA1PRNG", "file:/dev/random", false).isEmpty());
+    }
+
+    private static List<String> blocking(final String algorithm, final String seedSource,
+                                         final boolean kernelBlocks) {
+        return SecureRandomChecker.blockingSources("instance", algorithm, seedSource, kernelBlocks);
+    }
+}
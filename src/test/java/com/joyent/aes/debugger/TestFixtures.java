@@ -0,0 +1,32 @@
+package com.joyent.aes.debugger;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Loads the captured files under src/test/resources/fixtures.
+ */
+final class TestFixtures {
+    private TestFixtures() {
+    }
+
+    static String read(final String name) throws IOException {
+        try (InputStream in = TestFixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            assertNotNull("No such fixture: " + name, in);
+            return IOUtils.toString(in, StandardCharsets.US_ASCII);
+        }
+    }
+
+    static List<String> readLines(final String name) throws IOException {
+        try (InputStream in = TestFixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            assertNotNull("No such fixture: " + name, in);
+            return IOUtils.readLines(in, StandardCharsets.US_ASCII);
+        }
+    }
+}